@@ -0,0 +1,117 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.benchmarks;
+
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.compiler.CompilerOptions;
+import org.dbsp.sqlCompiler.compiler.frontend.CalciteToDBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.frontend.statements.FrontEndStatement;
+import org.dbsp.sqlCompiler.compiler.optimizer.CircuitOptimizer;
+import org.dbsp.sqlCompiler.compiler.sqlparser.CalciteCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.ToRustHandleVisitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for each stage of the compiler.
+ * Each stage starts from the result of the previous stage, computed once per trial.
+ * Allocation rates are reported when running with the GC profiler (-prof gc).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompilerBenchmark {
+    /**
+     * Name of the program to compile; see Programs.
+     */
+    @Param({"wide", "deep", "joins", "views"})
+    public String program = "";
+    @Param({"false", "true"})
+    public boolean incremental;
+
+    CompilerOptions options = new CompilerOptions();
+    String script = "";
+    CalciteCompiler calcite = new CalciteCompiler(this.options);
+    List<FrontEndStatement> statements = new ArrayList<>();
+    DBSPCircuit circuit = new DBSPCircuit("circuit");
+    DBSPCircuit optimized = new DBSPCircuit("circuit");
+
+    @Setup(Level.Trial)
+    public void setup() throws SqlParseException {
+        this.options = new CompilerOptions();
+        this.options.optimizerOptions.incrementalize = this.incremental;
+        this.script = Programs.get(this.program);
+        this.calcite = new CalciteCompiler(this.options);
+        this.statements = this.compileStatements();
+        this.circuit = this.toDBSP();
+        this.optimized = this.optimize();
+    }
+
+    @Benchmark
+    public SqlNodeList parse() throws SqlParseException {
+        return this.calcite.parseStatements(this.script);
+    }
+
+    /**
+     * Parse, validate, and optimize all statements with Calcite.
+     */
+    @Benchmark
+    public List<FrontEndStatement> compileStatements() throws SqlParseException {
+        // The Calcite compiler is stateful: it needs a fresh catalog
+        CalciteCompiler compiler = new CalciteCompiler(this.options);
+        List<FrontEndStatement> result = new ArrayList<>();
+        for (SqlNode node: compiler.parseStatements(this.script))
+            result.add(compiler.compile(node.toString(), node, null));
+        return result;
+    }
+
+    @Benchmark
+    public DBSPCircuit toDBSP() {
+        CalciteToDBSPCompiler midend = new CalciteToDBSPCompiler(this.calcite, false, this.options);
+        midend.newCircuit("circuit");
+        for (FrontEndStatement statement: this.statements)
+            midend.compile(statement);
+        return midend.getCircuit();
+    }
+
+    @Benchmark
+    public DBSPCircuit optimize() {
+        return new CircuitOptimizer(this.options.optimizerOptions).optimize(this.circuit);
+    }
+
+    @Benchmark
+    public String toRust() {
+        return ToRustHandleVisitor.toRustString(this.optimized, "circuit");
+    }
+}
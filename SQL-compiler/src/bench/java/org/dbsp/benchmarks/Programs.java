@@ -0,0 +1,154 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.benchmarks;
+
+/**
+ * SQL programs used as compiler benchmarks.  Each program stresses a different
+ * part of the compiler: wide tables, deep expressions, many-way joins,
+ * and scripts with many views.
+ */
+public class Programs {
+    /**
+     * A table with many columns, and views which use all of them.
+     */
+    public static String wide(int columns) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("CREATE TABLE W (");
+        for (int i = 0; i < columns; i++) {
+            if (i > 0)
+                builder.append(", ");
+            builder.append("C").append(i).append(i % 2 == 0 ? " INT NOT NULL" : " DOUBLE");
+        }
+        builder.append(");\n");
+
+        builder.append("CREATE VIEW WP AS SELECT ");
+        for (int i = 0; i < columns; i++) {
+            if (i > 0)
+                builder.append(", ");
+            builder.append("C").append(i).append(" + 1");
+        }
+        builder.append(" FROM W WHERE C0 > 10;\n");
+
+        builder.append("CREATE VIEW WA AS SELECT C0");
+        for (int i = 1; i < columns; i++)
+            builder.append(", SUM(C").append(i).append(")");
+        builder.append(" FROM W GROUP BY C0;\n");
+        return builder.toString();
+    }
+
+    /**
+     * Views with deeply nested arithmetic, boolean, and CASE expressions.
+     */
+    public static String deep(int depth) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("CREATE TABLE D (A INT NOT NULL, B INT, C DOUBLE NOT NULL);\n");
+
+        StringBuilder arithmetic = new StringBuilder("A");
+        for (int i = 0; i < depth; i++)
+            arithmetic.insert(0, "(").append(i % 2 == 0 ? " + B" : " * 2").append(")");
+        StringBuilder condition = new StringBuilder("A > 0");
+        for (int i = 0; i < depth; i++)
+            condition.insert(0, "(").append(i % 2 == 0 ? " AND B < " : " OR C > ").append(i).append(")");
+        StringBuilder cases = new StringBuilder("CASE");
+        for (int i = 0; i < depth; i++)
+            cases.append(" WHEN A = ").append(i).append(" THEN C * ").append(i);
+        cases.append(" ELSE 0 END");
+
+        builder.append("CREATE VIEW DV AS SELECT ")
+                .append(arithmetic)
+                .append(", ")
+                .append(cases)
+                .append(" FROM D WHERE ")
+                .append(condition)
+                .append(";\n");
+        return builder.toString();
+    }
+
+    /**
+     * A chain of inner equi-joins between many tables.
+     */
+    public static String joins(int tables) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < tables; i++)
+            builder.append("CREATE TABLE J").append(i)
+                    .append(" (ID INT NOT NULL, NXT INT NOT NULL, V DOUBLE);\n");
+        builder.append("CREATE VIEW JV AS SELECT J0.V");
+        for (int i = 1; i < tables; i++)
+            builder.append(", J").append(i).append(".V");
+        builder.append(" FROM J0");
+        for (int i = 1; i < tables; i++)
+            builder.append(" JOIN J").append(i)
+                    .append(" ON J").append(i - 1).append(".NXT = J").append(i).append(".ID");
+        builder.append(";\n");
+        return builder.toString();
+    }
+
+    /**
+     * A script with many views, where some views depend on other views.
+     */
+    public static String views(int count) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("CREATE TABLE T (K INT NOT NULL, X INT NOT NULL, Y DOUBLE, S VARCHAR);\n");
+        builder.append("CREATE TABLE U (K INT NOT NULL, Z INT);\n");
+        for (int i = 0; i < count; i++) {
+            builder.append("CREATE VIEW V").append(i).append(" AS ");
+            switch (i % 4) {
+                case 0:
+                    builder.append("SELECT K, X + ").append(i).append(" AS X, Y, S FROM T WHERE X > ").append(i);
+                    break;
+                case 1:
+                    builder.append("SELECT K, SUM(X) AS X, MAX(Y) AS Y, COUNT(S) AS S FROM V")
+                            .append(i - 1).append(" GROUP BY K");
+                    break;
+                case 2:
+                    builder.append("SELECT V").append(i - 2).append(".K, V").append(i - 2)
+                            .append(".X, V").append(i - 2).append(".Y, V").append(i - 2)
+                            .append(".S FROM V").append(i - 2).append(" JOIN U ON V")
+                            .append(i - 2).append(".K = U.K");
+                    break;
+                default:
+                    builder.append("SELECT DISTINCT K, X, Y, S FROM V").append(i - 1);
+                    break;
+            }
+            builder.append(";\n");
+        }
+        return builder.toString();
+    }
+
+    public static String get(String name) {
+        switch (name) {
+            case "wide":
+                return wide(200);
+            case "deep":
+                return deep(64);
+            case "joins":
+                return joins(8);
+            case "views":
+                return views(300);
+            default:
+                throw new RuntimeException("Unknown benchmark program " + name);
+        }
+    }
+}
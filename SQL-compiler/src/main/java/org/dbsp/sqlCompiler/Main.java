@@ -27,13 +27,19 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
 import org.apache.calcite.sql.parser.SqlParseException;
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.SqlRuntimeLibrary;
 import org.dbsp.sqlCompiler.compiler.CompilerOptions;
 import org.dbsp.sqlCompiler.compiler.optimizer.CircuitOptimizer;
 import org.dbsp.sqlCompiler.compiler.visitors.DBSPCompiler;
 import org.dbsp.sqlCompiler.compiler.visitors.ToRustHandleVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.UsedFunctionsVisitor;
+import org.dbsp.util.IndentStream;
+import org.dbsp.util.Profiler;
 
 import javax.annotation.Nullable;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 /**
  * Main entry point of the SQL compiler.
@@ -62,15 +68,14 @@ public class Main {
         }
     }
 
-    void writeToOutput(String program, @Nullable String outputFile) throws FileNotFoundException {
-        PrintStream outputStream;
-        if (outputFile == null) {
-            outputStream = System.out;
-        } else {
-            outputStream = new PrintStream(new FileOutputStream(outputFile));
-        }
-        outputStream.print(program);
-        outputStream.close();
+    /**
+     * The generated program is written straight to the output,
+     * without being built in memory first.
+     */
+    Writer getOutputWriter(@Nullable String outputFile) throws IOException {
+        if (outputFile == null)
+            return new BufferedWriter(new OutputStreamWriter(System.out));
+        return Files.newBufferedWriter(Paths.get(outputFile));
     }
 
     String getInputFile(@Nullable String inputFile) throws IOException {
@@ -94,13 +99,24 @@ public class Main {
         String file = this.getInputFile(this.options.ioOptions.inputFile);
         compiler.compileStatements(file);
         DBSPCircuit dbsp = compiler.getResult();
-        CircuitOptimizer optimizer = new CircuitOptimizer(this.options.optimizerOptions);
+        CircuitOptimizer optimizer = new CircuitOptimizer(this.options.optimizerOptions, compiler.profiler);
         dbsp = optimizer.optimize(dbsp);
-        StringBuilder builder = new StringBuilder();
-        builder.append(ToRustHandleVisitor.generatePreamble());
-        String circuit = ToRustHandleVisitor.toRustString(dbsp, this.options.ioOptions.functionName);
-        builder.append(circuit);
-        this.writeToOutput(builder.toString(), this.options.ioOptions.outputFile);
+        Profiler.Phase phase = compiler.profiler.start("Rust emission")
+                .before("operators", dbsp.operators.size())
+                .before("declarations", dbsp.declarations.size());
+        try (Writer writer = this.getOutputWriter(this.options.ioOptions.outputFile)) {
+            IndentStream stream = new IndentStream(writer);
+            ToRustHandleVisitor.generatePreamble(stream, dbsp);
+            ToRustHandleVisitor.toRust(stream, dbsp, this.options.ioOptions.functionName,
+                    this.options.ioOptions.splitViews);
+            phase.after("characters", stream.getCharactersWritten());
+        }
+        phase.end();
+        if (this.options.ioOptions.runtimeLibraryFile != null)
+            SqlRuntimeLibrary.instance.writeSqlLibrary(this.options.ioOptions.runtimeLibraryFile,
+                    UsedFunctionsVisitor.getUsedFunctions(dbsp));
+        if (this.options.ioOptions.profileFile != null)
+            compiler.profiler.writeJson(this.options.ioOptions.profileFile);
     }
 
     public static void execute(String... argv) throws IOException, SqlParseException {
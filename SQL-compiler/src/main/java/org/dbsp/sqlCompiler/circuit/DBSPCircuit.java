@@ -71,10 +71,10 @@ public class DBSPCircuit extends DBSPNode implements IDBSPOuterNode, IModule {
     }
 
     public void addOperator(DBSPOperator operator) {
-        Logger.instance.from(this, 1)
+        Logger.instance.log(this, 1, stream -> stream
                 .append("Adding ")
                 .append(operator.toString())
-                .newline();
+                .newline());
         Utilities.putNew(this.operatorDeclarations, operator.outputName, operator);
         if (operator.is(DBSPSourceOperator.class))
             this.inputOperators.add(operator.to(DBSPSourceOperator.class));
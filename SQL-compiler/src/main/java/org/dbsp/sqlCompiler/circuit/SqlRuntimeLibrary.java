@@ -32,6 +32,8 @@ import org.dbsp.sqlCompiler.ir.pattern.*;
 import org.dbsp.sqlCompiler.ir.type.*;
 import org.dbsp.sqlCompiler.compiler.visitors.ToRustVisitor;
 import org.dbsp.sqlCompiler.ir.type.primitive.*;
+import org.dbsp.util.IndentStream;
+import org.dbsp.util.Linq;
 import org.dbsp.util.Unimplemented;
 
 import javax.annotation.Nullable;
@@ -362,17 +364,29 @@ public class SqlRuntimeLibrary {
      * @param filename   File to write the code to.
      */
     public void writeSqlLibrary(String filename) throws IOException {
+        this.writeSqlLibrary(filename, null);
+    }
+
+    /**
+     * Writes in the specified file the Rust code for the SQL runtime.
+     * @param filename   File to write the code to.
+     * @param used       If not null, only the functions with these names are written.
+     */
+    public void writeSqlLibrary(String filename, @Nullable Set<String> used) throws IOException {
         this.generateProgram();
         File file = new File(filename);
         FileWriter writer = new FileWriter(file);
         if (this.program == null)
             throw new RuntimeException("No source program for writing the sql library");
+        DBSPFile program = this.program;
+        if (used != null)
+            program = new DBSPFile(Linq.where(program.declarations, d -> used.contains(d.getName())));
         writer.append("// Automatically-generated file\n");
         writer.append("#![allow(unused_parens)]\n");
         writer.append("#![allow(non_snake_case)]\n");
         writer.append("use dbsp::algebra::{F32, F64};\n");
         writer.append("\n");
-        writer.append(ToRustVisitor.toRustString(this.program));
+        ToRustVisitor.toRust(new IndentStream(writer), program);
         writer.close();
     }
 }
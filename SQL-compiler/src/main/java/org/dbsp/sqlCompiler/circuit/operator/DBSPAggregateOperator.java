@@ -29,18 +29,54 @@ import org.dbsp.sqlCompiler.ir.type.DBSPType;
 import org.dbsp.sqlCompiler.ir.type.DBSPTypeIndexedZSet;
 
 import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.List;
 
 public class DBSPAggregateOperator extends DBSPUnaryOperator {
     public final DBSPType keyType;
     public final DBSPType outputElementType;
+    /**
+     * If all aggregates are linear, a function that computes the contribution
+     * of a row to the accumulator of a linear aggregate; null otherwise.
+     */
+    @Nullable
+    public final DBSPExpression linearFunction;
+    /**
+     * Function which computes the aggregate result from the accumulator
+     * of the linear aggregate.  Null when linearFunction is null.
+     */
+    @Nullable
+    public final DBSPExpression linearPostprocess;
 
     public DBSPAggregateOperator(@Nullable Object node, DBSPExpression function,
+                                 @Nullable DBSPExpression linearFunction,
+                                 @Nullable DBSPExpression linearPostprocess,
                                  DBSPType keyType, DBSPType outputElementType, DBSPOperator input) {
         super(node, "stream_aggregate", function,
                 new DBSPTypeIndexedZSet(node, keyType, outputElementType), false, input);
         this.keyType = keyType;
         this.outputElementType = outputElementType;
+        this.linearFunction = linearFunction;
+        this.linearPostprocess = linearPostprocess;
+        if ((linearFunction == null) != (linearPostprocess == null))
+            throw new RuntimeException("Linear aggregate function and postprocessing must be both present or absent");
+    }
+
+    public DBSPAggregateOperator(@Nullable Object node, DBSPExpression function,
+                                 DBSPType keyType, DBSPType outputElementType, DBSPOperator input) {
+        this(node, function, null, null, keyType, outputElementType, input);
+    }
+
+    /**
+     * True if the aggregate can be computed by a DBSPLinearAggregateOperator.
+     */
+    public boolean isLinear() {
+        return this.linearFunction != null;
+    }
+
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Arrays.asList(this.function, this.linearFunction, this.linearPostprocess);
     }
 
     @Override
@@ -53,7 +89,8 @@ public class DBSPAggregateOperator extends DBSPUnaryOperator {
     public DBSPOperator replaceInputs(List<DBSPOperator> newInputs, boolean force) {
         if (force || this.inputsDiffer(newInputs))
             return new DBSPAggregateOperator(
-                    this.getNode(), this.getFunction(), this.keyType, this.outputElementType, newInputs.get(0));
+                    this.getNode(), this.getFunction(), this.linearFunction, this.linearPostprocess,
+                    this.keyType, this.outputElementType, newInputs.get(0));
         return this;
     }
 }
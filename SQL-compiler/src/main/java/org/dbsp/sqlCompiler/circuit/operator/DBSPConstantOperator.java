@@ -27,6 +27,7 @@ import org.dbsp.sqlCompiler.ir.CircuitVisitor;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
 
 public class DBSPConstantOperator extends DBSPOperator {
@@ -34,6 +35,11 @@ public class DBSPConstantOperator extends DBSPOperator {
         super(node, "", value, value.getNonVoidType(), isMultiset);
     }
 
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Collections.singletonList(this.function);
+    }
+
     @Override
     public void accept(CircuitVisitor visitor) {
         if (!visitor.preorder(this)) return;
@@ -26,6 +26,7 @@ package org.dbsp.sqlCompiler.circuit.operator;
 import org.dbsp.sqlCompiler.ir.CircuitVisitor;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
 
 public class DBSPDifferentialOperator extends DBSPUnaryOperator {
@@ -33,6 +34,11 @@ public class DBSPDifferentialOperator extends DBSPUnaryOperator {
         super(node, "differentiate", null, source.outputType, source.isMultiset, source);
     }
 
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Collections.singletonList(this.function);
+    }
+
     @Override
     public void accept(CircuitVisitor visitor) {
         if (!visitor.preorder(this)) return;
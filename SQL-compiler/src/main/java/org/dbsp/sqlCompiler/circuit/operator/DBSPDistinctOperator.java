@@ -27,6 +27,7 @@ import org.dbsp.sqlCompiler.ir.CircuitVisitor;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
 
 public class DBSPDistinctOperator extends DBSPUnaryOperator {
@@ -34,6 +35,11 @@ public class DBSPDistinctOperator extends DBSPUnaryOperator {
         super(node, "distinct", null, input.outputType, false, input);
     }
 
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Collections.singletonList(this.function);
+    }
+
     @Override
     public void accept(CircuitVisitor visitor) {
         if (!visitor.preorder(this)) return;
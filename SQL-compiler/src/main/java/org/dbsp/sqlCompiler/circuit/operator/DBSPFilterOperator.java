@@ -28,6 +28,7 @@ import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBool;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
 
 public class DBSPFilterOperator extends DBSPUnaryOperator {
@@ -36,6 +37,11 @@ public class DBSPFilterOperator extends DBSPUnaryOperator {
         this.checkResultType(condition, DBSPTypeBool.instance);
     }
 
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Collections.singletonList(this.function);
+    }
+
     @Override
     public void accept(CircuitVisitor visitor) {
         if (!visitor.preorder(this)) return;
@@ -28,6 +28,7 @@ import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
 
 public class DBSPFlatMapOperator extends DBSPUnaryOperator {
@@ -37,6 +38,11 @@ public class DBSPFlatMapOperator extends DBSPUnaryOperator {
         this.checkArgumentFunctionType(expression, 0, input);
     }
 
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Collections.singletonList(this.function);
+    }
+
     @Override
     public void accept(CircuitVisitor visitor) {
         if (!visitor.preorder(this)) return;
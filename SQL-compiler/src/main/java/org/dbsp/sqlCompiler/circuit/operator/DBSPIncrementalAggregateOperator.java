@@ -29,6 +29,7 @@ import org.dbsp.sqlCompiler.ir.type.DBSPType;
 import org.dbsp.sqlCompiler.ir.type.DBSPTypeIndexedZSet;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
 
 public class DBSPIncrementalAggregateOperator extends DBSPUnaryOperator {
@@ -43,6 +44,11 @@ public class DBSPIncrementalAggregateOperator extends DBSPUnaryOperator {
         this.outputElementType = outputElementType;
     }
 
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Collections.singletonList(this.function);
+    }
+
     @Override
     public void accept(CircuitVisitor visitor) {
         if (!visitor.preorder(this)) return;
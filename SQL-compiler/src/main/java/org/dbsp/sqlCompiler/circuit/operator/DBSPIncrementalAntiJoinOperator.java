@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.dbsp.sqlCompiler.circuit.operator;
+
+import org.dbsp.sqlCompiler.compiler.frontend.TypeCompiler;
+import org.dbsp.sqlCompiler.ir.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Incremental version of the DBSPAntiJoinOperator.
+ */
+public class DBSPIncrementalAntiJoinOperator extends DBSPOperator {
+    public final DBSPType elementResultType;
+
+    public DBSPIncrementalAntiJoinOperator(@Nullable Object node, DBSPType elementResultType,
+                            // Closure from key, valueLeft, and () to result type
+                            DBSPExpression function, boolean isMultiset,
+                            DBSPOperator left, DBSPOperator leftIndex, DBSPOperator keys) {
+        super(node, "join", function, TypeCompiler.makeZSet(elementResultType), isMultiset);
+        this.addInput(left);
+        this.addInput(leftIndex);
+        this.addInput(keys);
+        this.elementResultType = elementResultType;
+        this.checkResultType(function, elementResultType);
+    }
+
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Collections.singletonList(this.function);
+    }
+
+    @Override
+    public void accept(CircuitVisitor visitor) {
+        if (!visitor.preorder(this)) return;
+        visitor.postorder(this);
+    }
+
+    @Override
+    public DBSPOperator replaceInputs(List<DBSPOperator> newInputs, boolean force) {
+        if (force || this.inputsDiffer(newInputs))
+            return new DBSPIncrementalAntiJoinOperator(
+                    this.getNode(), this.elementResultType, this.getFunction(),
+                    this.isMultiset, newInputs.get(0), newInputs.get(1), newInputs.get(2));
+        return this;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.dbsp.sqlCompiler.circuit.operator;
+
+import org.dbsp.sqlCompiler.ir.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeIndexedZSet;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Incremental version of the DBSPMinMaxOperator.
+ * DBSP maintains the values of each group in an ordered trace,
+ * so insertions and retractions do not require scanning the whole group.
+ */
+public class DBSPIncrementalMinMaxOperator extends DBSPUnaryOperator {
+    public final DBSPMinMaxOperator.Aggregation aggregation;
+    public final DBSPType keyType;
+    public final DBSPType valueType;
+
+    public DBSPIncrementalMinMaxOperator(@Nullable Object node, DBSPMinMaxOperator.Aggregation aggregation,
+                                         DBSPType keyType, DBSPType valueType, DBSPOperator input) {
+        super(node, "aggregate", DBSPMinMaxOperator.aggregator(aggregation),
+                new DBSPTypeIndexedZSet(node, keyType, valueType), false, input);
+        this.aggregation = aggregation;
+        this.keyType = keyType;
+        this.valueType = valueType;
+    }
+
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Arrays.asList(this.function, this.aggregation);
+    }
+
+    @Override
+    public void accept(CircuitVisitor visitor) {
+        if (!visitor.preorder(this)) return;
+        visitor.postorder(this);
+    }
+
+    @Override
+    public DBSPOperator replaceInputs(List<DBSPOperator> newInputs, boolean force) {
+        if (force || this.inputsDiffer(newInputs))
+            return new DBSPIncrementalMinMaxOperator(
+                    this.getNode(), this.aggregation, this.keyType, this.valueType, newInputs.get(0));
+        return this;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.dbsp.sqlCompiler.circuit.operator;
+
+import org.dbsp.sqlCompiler.ir.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeIndexedZSet;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Incremental aggregate where all aggregates are linear in the weights of the input rows.
+ * The function maps each input row to its contribution to an accumulator; the accumulators
+ * of each group are updated by adding the contributions of the changes multiplied by their weights,
+ * so the input does not need to be integrated.
+ * The postprocess function computes the aggregate results from the accumulators.
+ */
+public class DBSPLinearAggregateOperator extends DBSPUnaryOperator {
+    public final DBSPType keyType;
+    public final DBSPType outputElementType;
+    public final DBSPExpression postprocess;
+
+    public DBSPLinearAggregateOperator(@Nullable Object node, DBSPExpression function,
+                                       DBSPExpression postprocess,
+                                       DBSPType keyType, DBSPType outputElementType, DBSPOperator input) {
+        super(node, "aggregate_linear", function,
+                new DBSPTypeIndexedZSet(node, keyType, outputElementType), false, input);
+        this.keyType = keyType;
+        this.outputElementType = outputElementType;
+        this.postprocess = postprocess;
+    }
+
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Arrays.asList(this.function, this.postprocess);
+    }
+
+    @Override
+    public void accept(CircuitVisitor visitor) {
+        if (!visitor.preorder(this)) return;
+        visitor.postorder(this);
+    }
+
+    @Override
+    public DBSPOperator replaceInputs(List<DBSPOperator> newInputs, boolean force) {
+        if (force || this.inputsDiffer(newInputs))
+            return new DBSPLinearAggregateOperator(
+                    this.getNode(), this.getFunction(), this.postprocess,
+                    this.keyType, this.outputElementType, newInputs.get(0));
+        return this;
+    }
+}
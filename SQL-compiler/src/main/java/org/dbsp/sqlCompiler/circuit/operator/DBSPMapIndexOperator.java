@@ -30,6 +30,7 @@ import org.dbsp.sqlCompiler.ir.type.DBSPTypeIndexedZSet;
 import org.dbsp.sqlCompiler.ir.type.DBSPTypeRawTuple;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
 
 public class DBSPMapIndexOperator extends DBSPUnaryOperator {
@@ -48,6 +49,11 @@ public class DBSPMapIndexOperator extends DBSPUnaryOperator {
         this.checkArgumentFunctionType(expression, 0, input);
     }
 
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Collections.singletonList(this.function);
+    }
+
     @Override
     public void accept(CircuitVisitor visitor) {
         if (!visitor.preorder(this)) return;
@@ -29,6 +29,7 @@ import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
 
 public class DBSPMapOperator extends DBSPUnaryOperator {
@@ -36,12 +37,26 @@ public class DBSPMapOperator extends DBSPUnaryOperator {
 
     public DBSPMapOperator(@Nullable Object node, DBSPExpression expression,
                            DBSPType elementType, DBSPOperator input) {
-        super(node, "map", expression, TypeCompiler.makeZSet(elementType), true, input);
+        this(node, expression, elementType, true, input);
+    }
+
+    /**
+     * @param isMultiset  False if the map is known to produce a set
+     *                    (e.g., it preserves a key of its input).
+     */
+    public DBSPMapOperator(@Nullable Object node, DBSPExpression expression,
+                           DBSPType elementType, boolean isMultiset, DBSPOperator input) {
+        super(node, "map", expression, TypeCompiler.makeZSet(elementType), isMultiset, input);
         this.checkResultType(expression, elementType);
         this.checkArgumentFunctionType(expression, 0, input);
         this.outputElementType = elementType;
     }
 
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Collections.singletonList(this.function);
+    }
+
     @Override
     public void accept(CircuitVisitor visitor) {
         if (!visitor.preorder(this)) return;
@@ -52,7 +67,7 @@ public class DBSPMapOperator extends DBSPUnaryOperator {
     public DBSPOperator replaceInputs(List<DBSPOperator> newInputs, boolean force) {
         if (force || this.inputsDiffer(newInputs))
             return new DBSPMapOperator(
-                    this.getNode(), this.getFunction(), this.outputElementType, newInputs.get(0));
+                    this.getNode(), this.getFunction(), this.outputElementType, this.isMultiset, newInputs.get(0));
         return this;
     }
 }
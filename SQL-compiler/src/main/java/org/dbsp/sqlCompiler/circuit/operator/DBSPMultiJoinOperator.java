@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.dbsp.sqlCompiler.circuit.operator;
+
+import org.dbsp.sqlCompiler.compiler.frontend.TypeCompiler;
+import org.dbsp.sqlCompiler.ir.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An inner join of several inputs.  The join conditions are equalities between
+ * the keys of pairs of inputs; the pairs form a tree which connects all inputs.
+ * The function produces the result from references to a row of each input.
+ * The operator reads the inputs through Index operators, which can be shared
+ * with other joins: operands 2*i and 2*i+1 index the two inputs of edge i.
+ * Unlike a tree of binary joins, the incremental version of this operator
+ * does not maintain the integrals of the intermediate join results:
+ * it only keeps the integrals of the inputs, indexed by the keys of the edges.
+ */
+public class DBSPMultiJoinOperator extends DBSPOperator {
+    /**
+     * An equality between the keys of two inputs of the join.
+     */
+    public static class JoinEdge {
+        /**
+         * Index of the first input.
+         */
+        public final int left;
+        /**
+         * Index of the second input.
+         */
+        public final int right;
+        /**
+         * Closure computing the key from a row of the left input.
+         */
+        public final DBSPExpression leftKey;
+        /**
+         * Closure computing the key from a row of the right input.
+         */
+        public final DBSPExpression rightKey;
+        public final DBSPType keyType;
+
+        public JoinEdge(int left, int right, DBSPExpression leftKey, DBSPExpression rightKey, DBSPType keyType) {
+            this.left = left;
+            this.right = right;
+            this.leftKey = leftKey;
+            this.rightKey = rightKey;
+            this.keyType = keyType;
+        }
+
+        /**
+         * The values which determine the meaning of this edge.
+         */
+        public List<Object> getEquivalenceKey() {
+            return Arrays.asList(this.left, this.right, this.leftKey, this.rightKey);
+        }
+    }
+
+    public final DBSPType elementResultType;
+    public final List<JoinEdge> edges;
+
+    public DBSPMultiJoinOperator(@Nullable Object node, DBSPType elementResultType,
+                                 // Closure from a row of each input to the result type
+                                 DBSPExpression function, boolean isMultiset,
+                                 List<JoinEdge> edges, List<DBSPOperator> inputs) {
+        super(node, "stream_join", function, TypeCompiler.makeZSet(elementResultType), isMultiset);
+        if (inputs.size() != 2 * edges.size())
+            throw new RuntimeException("Join of " + inputs.size() + " inputs with " + edges.size() + " edges");
+        for (DBSPOperator input: inputs)
+            this.addInput(input);
+        this.elementResultType = elementResultType;
+        this.edges = edges;
+        this.checkResultType(function, elementResultType);
+    }
+
+    @Override
+    public List<Object> getEquivalenceKey() {
+        List<Object> result = new ArrayList<>();
+        result.add(this.function);
+        for (DBSPMultiJoinOperator.JoinEdge edge: this.edges)
+            result.addAll(edge.getEquivalenceKey());
+        return result;
+    }
+
+    @Override
+    public void accept(CircuitVisitor visitor) {
+        if (!visitor.preorder(this)) return;
+        visitor.postorder(this);
+    }
+
+    @Override
+    public DBSPOperator replaceInputs(List<DBSPOperator> newInputs, boolean force) {
+        if (force || this.inputsDiffer(newInputs))
+            return new DBSPMultiJoinOperator(
+                    this.getNode(), this.elementResultType, this.getFunction(),
+                    this.isMultiset, this.edges, newInputs);
+        return this;
+    }
+}
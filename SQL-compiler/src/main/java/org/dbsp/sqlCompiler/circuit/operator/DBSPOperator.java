@@ -152,6 +152,20 @@ public abstract class DBSPOperator extends DBSPNode implements IHasName, IHasTyp
         return Objects.requireNonNull(this.function);
     }
 
+    /**
+     * The values which, together with the class, operation, output type, and inputs,
+     * determine the result computed by this operator.  Inner nodes are compared
+     * structurally, all other values using their string representation.
+     * Two operators with the same key compute the same result, so common-subexpression
+     * elimination can merge them.
+     * Returns null if the operator must never be merged with another one.
+     * This is the default, so each operator has to list the fields it depends on.
+     */
+    @Nullable
+    public List<Object> getEquivalenceKey() {
+        return null;
+    }
+
     /**
      * Return a version of this operator with the inputs replaced.
      * @param newInputs  Inputs to use instead of the old ones.
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.dbsp.sqlCompiler.circuit.operator;
+
+import org.dbsp.sqlCompiler.compiler.frontend.TypeCompiler;
+import org.dbsp.sqlCompiler.ir.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A join where the rows of the right input that match a row of the left input
+ * have keys in a contiguous range.  The range function computes from each key
+ * of the left input the half-open interval of right keys that match it.  Finding the matches is a range scan
+ * in the sorted right input instead of a comparison with every right row.
+ */
+public class DBSPRangeJoinOperator extends DBSPOperator {
+    public final DBSPType elementResultType;
+    /**
+     * Closure from a left key to a tuple (from, to) of right keys.
+     */
+    public final DBSPExpression rangeFunction;
+
+    public DBSPRangeJoinOperator(@Nullable Object node, DBSPType elementResultType,
+                                 DBSPExpression rangeFunction,
+                                 // Closure from leftKey, valueLeft, rightKey, valueRight to result type
+                                 DBSPExpression function, boolean isMultiset,
+                                 DBSPOperator left, DBSPOperator right) {
+        super(node, "stream_join_range", function, TypeCompiler.makeZSet(elementResultType), isMultiset);
+        this.addInput(left);
+        this.addInput(right);
+        this.elementResultType = elementResultType;
+        this.rangeFunction = rangeFunction;
+        this.checkResultType(function, elementResultType);
+    }
+
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Arrays.asList(this.function, this.rangeFunction);
+    }
+
+    @Override
+    public void accept(CircuitVisitor visitor) {
+        if (!visitor.preorder(this)) return;
+        visitor.postorder(this);
+    }
+
+    @Override
+    public DBSPOperator replaceInputs(List<DBSPOperator> newInputs, boolean force) {
+        if (force || this.inputsDiffer(newInputs))
+            return new DBSPRangeJoinOperator(
+                    this.getNode(), this.elementResultType, this.rangeFunction, this.getFunction(),
+                    this.isMultiset, newInputs.get(0), newInputs.get(1));
+        return this;
+    }
+}
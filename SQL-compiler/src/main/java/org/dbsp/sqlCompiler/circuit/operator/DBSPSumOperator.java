@@ -27,6 +27,7 @@ import org.dbsp.sqlCompiler.ir.CircuitVisitor;
 import org.dbsp.util.Linq;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
 
 public class DBSPSumOperator extends DBSPOperator {
@@ -45,6 +46,11 @@ public class DBSPSumOperator extends DBSPOperator {
         this(node, Linq.list(inputs));
     }
 
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Collections.singletonList(this.function);
+    }
+
     @Override
     public void accept(CircuitVisitor visitor) {
         if (!visitor.preorder(this)) return;
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.dbsp.sqlCompiler.circuit.operator;
+
+import org.dbsp.sqlCompiler.ir.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPUSizeLiteral;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the first 'k' values for each key of an indexed Z-set.
+ * DBSP maintains the values of each key in an ordered trace, so this
+ * operator is incremental: its input is a stream of changes and its
+ * output is the stream of changes to the top-k values.
+ */
+public class DBSPTopKOperator extends DBSPUnaryOperator {
+    public enum Direction {
+        Ascending,
+        Descending
+    }
+
+    public final Direction direction;
+    public final long k;
+
+    static String operation(Direction direction) {
+        switch (direction) {
+            case Ascending:
+                return "topk_asc";
+            case Descending:
+                return "topk_desc";
+        }
+        throw new RuntimeException("Unexpected direction " + direction);
+    }
+
+    public DBSPTopKOperator(@Nullable Object node, Direction direction, long k, DBSPOperator input) {
+        super(node, operation(direction), new DBSPUSizeLiteral(k), input.outputType, input.isMultiset, input);
+        this.direction = direction;
+        this.k = k;
+    }
+
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Collections.singletonList(this.function);
+    }
+
+    @Override
+    public void accept(CircuitVisitor visitor) {
+        if (!visitor.preorder(this)) return;
+        visitor.postorder(this);
+    }
+
+    @Override
+    public DBSPOperator replaceInputs(List<DBSPOperator> newInputs, boolean force) {
+        if (force || this.inputsDiffer(newInputs))
+            return new DBSPTopKOperator(
+                    this.getNode(), this.direction, this.k, newInputs.get(0));
+        return this;
+    }
+}
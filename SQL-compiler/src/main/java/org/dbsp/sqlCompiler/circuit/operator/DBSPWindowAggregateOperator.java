@@ -28,6 +28,7 @@ import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.type.*;
 
 import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -66,6 +67,11 @@ public class DBSPWindowAggregateOperator extends DBSPUnaryOperator {
         return this;
     }
 
+    @Override
+    public List<Object> getEquivalenceKey() {
+        return Arrays.asList(this.aggregator, this.window);
+    }
+
     @Override
     public void accept(CircuitVisitor visitor) {
         if (!visitor.preorder(this)) return;
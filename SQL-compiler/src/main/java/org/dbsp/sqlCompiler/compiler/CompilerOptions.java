@@ -63,6 +63,38 @@ public class CompilerOptions {
         public String functionName = "circuit";
         @Parameter(names = "-d", converter = SqlDialectConverter.class)
         public Lex dialect;
+        /**
+         * Properties file with table statistics, used to choose the join order.
+         */
+        @Parameter(names = "--statistics", description = "Properties file with table statistics")
+        @Nullable
+        public String statisticsFile = null;
+        /**
+         * Directory where the plans of views are cached between compilations.
+         */
+        @Parameter(names = "--cache", description = "Directory for caching compiled views")
+        @Nullable
+        public String cacheDirectory = null;
+        /**
+         * If set, the time and memory spent in each phase of the compiler
+         * are written to this file in JSON format.
+         */
+        @Parameter(names = "--profile", description = "Write a JSON profile of the compilation to this file")
+        @Nullable
+        public String profileFile = null;
+        /**
+         * If true the operators computing each view are emitted in a
+         * separate Rust function and module, which rustc can compile in parallel.
+         */
+        @Parameter(names = "--split", description = "Emit the circuit computing each view in a separate Rust module")
+        public boolean splitViews = false;
+        /**
+         * If set, the functions of the SQL runtime library used by the
+         * program are written to this file, instead of requiring the whole library.
+         */
+        @Parameter(names = "--genlib", description = "Write the runtime library functions used by the program to this file")
+        @Nullable
+        public String runtimeLibraryFile = null;
 
         IO() {
             this.dialect = Lex.ORACLE;
@@ -71,6 +103,12 @@ public class CompilerOptions {
 
     @Parameter(names = {"-h", "--help", "-"}, help=true, description = "Show this message and exit")
     public boolean help;
+    /**
+     * Number of threads used to compile views.  If larger than 1, views
+     * which do not depend on each other are compiled in parallel.
+     */
+    @Parameter(names = "-j", description = "Number of threads used to compile views")
+    public int threads = 1;
     @ParametersDelegate
     public IO ioOptions = new IO();
     @ParametersDelegate
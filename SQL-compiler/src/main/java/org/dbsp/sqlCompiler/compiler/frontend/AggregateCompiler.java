@@ -30,6 +30,8 @@ import org.apache.calcite.sql.fun.*;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLongLiteral;
 import org.dbsp.sqlCompiler.ir.type.*;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBool;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeFP;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
 import org.dbsp.sqlCompiler.ir.expression.*;
 import org.dbsp.util.ICastable;
@@ -73,6 +75,21 @@ public class AggregateCompiler {
          * Result produced for an empty set (DBSP produces no result in this case).
          */
         public final DBSPExpression emptySetResult;
+        /**
+         * If the aggregate is linear, the contribution of a row to the accumulator:
+         * a tuple of non-nullable numeric values computed from the row.
+         * The accumulator is the sum of the contributions multiplied by the row weights.
+         * Null if the aggregate is not linear.
+         */
+        @Nullable
+        public final DBSPTupleExpression linearContribution;
+        /**
+         * Closure with a single parameter 'a', a reference to the accumulator of a
+         * linear aggregate, which computes the aggregate result.
+         * Null if the aggregate is not linear.
+         */
+        @Nullable
+        public final DBSPClosureExpression linearPostprocess;
 
         public AggregateImplementation(
                 SqlOperator operator,
@@ -80,15 +97,31 @@ public class AggregateCompiler {
                 DBSPClosureExpression increment,
                 @Nullable
                 DBSPClosureExpression postprocess,
-                DBSPExpression emptySetResult) {
+                DBSPExpression emptySetResult,
+                @Nullable
+                DBSPTupleExpression linearContribution,
+                @Nullable
+                DBSPClosureExpression linearPostprocess) {
             this.operator = operator;
             this.zero = zero;
             this.increment = increment;
             this.postprocess = postprocess;
             this.emptySetResult = emptySetResult;
+            this.linearContribution = linearContribution;
+            this.linearPostprocess = linearPostprocess;
             this.validate();
         }
 
+        public AggregateImplementation(
+                SqlOperator operator,
+                DBSPExpression zero,
+                DBSPClosureExpression increment,
+                @Nullable
+                DBSPClosureExpression postprocess,
+                DBSPExpression emptySetResult) {
+            this(operator, zero, increment, postprocess, emptySetResult, null, null);
+        }
+
         public AggregateImplementation(
                 SqlOperator operator,
                 DBSPExpression zero,
@@ -114,6 +147,10 @@ public class AggregateCompiler {
             }
         }
 
+        public boolean isLinear() {
+            return this.linearContribution != null;
+        }
+
         public DBSPType getResultType() {
             if (this.postprocess != null)
                 return this.postprocess.getNonVoidResultType();
@@ -203,6 +240,8 @@ public class AggregateCompiler {
         }
 
         DBSPVariablePath accum = this.resultType.var("a");
+        DBSPTupleExpression linear = null;
+        DBSPClosureExpression linearPost = null;
         if (this.isDistinct) {
             increment = ExpressionCompiler.aggregateOperation(
                     "+", this.resultType, accum, argument);
@@ -213,9 +252,12 @@ public class AggregateCompiler {
                             DBSPTypeInteger.signed64,
                             argument,
                             new DBSPBorrowExpression(CalciteToDBSPCompiler.weight)));
+            linear = new DBSPTupleExpression(argument);
+            DBSPVariablePath a = linearAccumulator(linear);
+            linearPost = a.field(0).closure(a.asParameter());
         }
         this.foldingFunction = new AggregateImplementation(
-                function, zero, this.makeRowClosure(increment, accum), zero);
+                function, zero, this.makeRowClosure(increment, accum), null, zero, linear, linearPost);
     }
 
     private DBSPExpression getAggregatedValue() {
@@ -226,6 +268,51 @@ public class AggregateCompiler {
         return this.getAggregatedValue().getNonVoidType();
     }
 
+    /**
+     * True if values of this type can be accumulated by a linear aggregate.
+     */
+    static boolean isLinearType(DBSPType type) {
+        type = type.setMayBeNull(false);
+        return type.is(DBSPTypeInteger.class) || type.is(DBSPTypeFP.class);
+    }
+
+    /**
+     * The aggregated value cast to the specified non-nullable type,
+     * where NULL is replaced by zero.
+     */
+    private DBSPExpression getNonNullAggregatedValue(DBSPType type) {
+        DBSPExpression value = this.getAggregatedValue();
+        DBSPType valueType = value.getNonVoidType();
+        if (valueType.mayBeNull)
+            value = new DBSPApplyMethodExpression("unwrap_or_default", valueType.setMayBeNull(false), value);
+        return ExpressionCompiler.makeCast(value, type);
+    }
+
+    /**
+     * An expression that is 1 if the aggregated value is not NULL and 0 otherwise.
+     */
+    private DBSPExpression getNonNullIndicator() {
+        DBSPExpression value = this.getAggregatedValue();
+        if (value.getNonVoidType().mayBeNull)
+            return new DBSPApplyExpression("indicator", DBSPTypeInteger.signed64, value);
+        return new DBSPLongLiteral(1L);
+    }
+
+    /**
+     * The accumulator variable for a linear aggregate with the specified contribution.
+     */
+    private static DBSPVariablePath linearAccumulator(DBSPTupleExpression contribution) {
+        return contribution.getNonVoidType().ref().var("a");
+    }
+
+    /**
+     * An expression that is true when the counter is zero.
+     */
+    private DBSPExpression isZero(DBSPExpression counter) {
+        return ExpressionCompiler.makeBinaryExpression(this.call, DBSPTypeBool.instance, "==",
+                Linq.list(counter, new DBSPLongLiteral(0L)));
+    }
+
     void processMinMax(SqlMinMaxAggFunction function) {
         DBSPExpression zero = DBSPLiteral.none(this.nullableResultType);
         String call;
@@ -252,6 +339,8 @@ public class AggregateCompiler {
         DBSPExpression increment;
         DBSPExpression aggregatedValue = this.getAggregatedValue();
         DBSPVariablePath accum = this.nullableResultType.var("a");
+        DBSPTupleExpression linear = null;
+        DBSPClosureExpression linearPost = null;
 
         if (this.isDistinct) {
             increment = ExpressionCompiler.aggregateOperation(
@@ -263,9 +352,20 @@ public class AggregateCompiler {
                             aggregatedValue.getNonVoidType(),
                             aggregatedValue,
                             new DBSPBorrowExpression(CalciteToDBSPCompiler.weight)));
+            if (isLinearType(this.resultType)) {
+                // Accumulate the sum and the number of non-null values
+                linear = new DBSPTupleExpression(
+                        this.getNonNullAggregatedValue(this.resultType.setMayBeNull(false)),
+                        this.getNonNullIndicator());
+                DBSPVariablePath a = linearAccumulator(linear);
+                DBSPExpression sum = new DBSPSomeExpression(a.field(0));
+                DBSPExpression post = new DBSPIfExpression(null,
+                        this.isZero(a.field(1)), DBSPLiteral.none(this.nullableResultType), sum);
+                linearPost = post.closure(a.asParameter());
+            }
         }
         this.foldingFunction = new AggregateImplementation(
-                function, zero, this.makeRowClosure(increment, accum), zero);
+                function, zero, this.makeRowClosure(increment, accum), null, zero, linear, linearPost);
     }
 
     void processSumZero(SqlSumEmptyIsZeroAggFunction function) {
@@ -273,6 +373,8 @@ public class AggregateCompiler {
         DBSPExpression increment;
         DBSPExpression aggregatedValue = this.getAggregatedValue();
         DBSPVariablePath accum = this.resultType.var("a");
+        DBSPTupleExpression linear = null;
+        DBSPClosureExpression linearPost = null;
 
         if (this.isDistinct) {
             increment = ExpressionCompiler.aggregateOperation(
@@ -284,9 +386,16 @@ public class AggregateCompiler {
                             aggregatedValue.getNonVoidType(),
                             aggregatedValue,
                             new DBSPBorrowExpression(CalciteToDBSPCompiler.weight)));
+            if (isLinearType(this.resultType)) {
+                linear = new DBSPTupleExpression(
+                        this.getNonNullAggregatedValue(this.resultType.setMayBeNull(false)));
+                DBSPVariablePath a = linearAccumulator(linear);
+                linearPost = ExpressionCompiler.makeCast(a.field(0), this.resultType)
+                        .closure(a.asParameter());
+            }
         }
         this.foldingFunction = new AggregateImplementation(
-                function, zero, this.makeRowClosure(increment, accum), zero);
+                function, zero, this.makeRowClosure(increment, accum), null, zero, linear, linearPost);
     }
 
     void processAvg(SqlAvgAggFunction function) {
@@ -334,8 +443,25 @@ public class AggregateCompiler {
         DBSPClosureExpression post = new DBSPClosureExpression(
                 null, divide, a.asParameter());
         DBSPExpression postZero = DBSPLiteral.none(this.nullableResultType);
+
+        DBSPTupleExpression linear = null;
+        DBSPClosureExpression linearPost = null;
+        if (!this.isDistinct && isLinearType(aggregatedValueType)) {
+            // Accumulate the sum and the number of non-null values
+            linear = new DBSPTupleExpression(
+                    this.getNonNullAggregatedValue(DBSPTypeInteger.signed64),
+                    this.getNonNullIndicator());
+            DBSPVariablePath la = linearAccumulator(linear);
+            DBSPExpression average = ExpressionCompiler.makeBinaryExpression(
+                    function, this.resultType, "/",
+                    Linq.list(la.field(sumIndex), la.field(countIndex)));
+            average = ExpressionCompiler.makeCast(average, this.nullableResultType);
+            DBSPExpression linearBody = new DBSPIfExpression(null,
+                    this.isZero(la.field(countIndex)), postZero, average);
+            linearPost = linearBody.closure(la.asParameter());
+        }
         this.foldingFunction = new AggregateImplementation(
-                function, zero, this.makeRowClosure(increment, accum), post, postZero);
+                function, zero, this.makeRowClosure(increment, accum), post, postZero, linear, linearPost);
     }
 
     public AggregateImplementation compile() {
@@ -31,18 +31,24 @@ import org.apache.calcite.rel.core.Aggregate;
 import org.apache.calcite.rel.core.AggregateCall;
 import org.apache.calcite.rel.core.JoinRelType;
 import org.apache.calcite.rel.core.Window;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.logical.*;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rex.*;
 import org.apache.calcite.sql.*;
+import org.apache.calcite.util.ImmutableBitSet;
 import org.dbsp.sqlCompiler.circuit.DBSPNode;
 import org.dbsp.sqlCompiler.circuit.operator.*;
 import org.dbsp.sqlCompiler.compiler.CompilerOptions;
 import org.dbsp.sqlCompiler.compiler.frontend.statements.*;
 import org.dbsp.sqlCompiler.compiler.sqlparser.*;
+import org.dbsp.sqlCompiler.compiler.visitors.FieldSubstitutionVisitor;
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPBoolLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPIntegerLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLongLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPUSizeLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPZSetLiteral;
 import org.dbsp.sqlCompiler.ir.path.DBSPPath;
 import org.dbsp.sqlCompiler.ir.path.DBSPSimplePathSegment;
@@ -51,8 +57,10 @@ import org.dbsp.sqlCompiler.ir.pattern.DBSPTupleStructPattern;
 import org.dbsp.sqlCompiler.ir.pattern.DBSPWildcardPattern;
 import org.dbsp.sqlCompiler.ir.statement.DBSPExpressionStatement;
 import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
 import org.dbsp.sqlCompiler.ir.expression.*;
 import org.dbsp.sqlCompiler.ir.type.*;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBool;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeTimestamp;
 import org.dbsp.util.*;
@@ -60,6 +68,7 @@ import org.dbsp.util.*;
 import javax.annotation.Nullable;
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * The compiler is stateful: it compiles a sequence of SQL statements
@@ -151,13 +160,31 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
         return op;
     }
 
+    /**
+     * True if the metadata (e.g., the keys of the tables) shows that the
+     * relation produces no duplicate rows.
+     */
+    private boolean areRowsUnique(RelNode rel) {
+        RelMetadataQuery mq = rel.getCluster().getMetadataQuery();
+        return Boolean.TRUE.equals(mq.areRowsUnique(rel));
+    }
+
+    /**
+     * True if the metadata shows that no two rows of the relation
+     * have the same values in the specified columns.
+     */
+    private boolean areColumnsUnique(RelNode rel, List<Integer> columns) {
+        RelMetadataQuery mq = rel.getCluster().getMetadataQuery();
+        return Boolean.TRUE.equals(mq.areColumnsUnique(rel, ImmutableBitSet.of(columns)));
+    }
+
     <T> boolean visitIfMatches(RelNode node, Class<T> clazz, Consumer<T> method) {
         T value = ICastable.as(node, clazz);
         if (value != null) {
-            Logger.instance.from(this, 4)
+            Logger.instance.log(this, 4, stream -> stream
                     .append("Processing ")
                     .append(node.toString())
-                    .newline();
+                    .newline());
             method.accept(value);
             return true;
         }
@@ -190,10 +217,41 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
          * empty input.
          */
         public final DBSPExpression defaultZero;
+        /**
+         * Implementations of the aggregates that are folded.
+         */
+        public final List<AggregateCompiler.AggregateImplementation> implementations;
+        /**
+         * Variable standing for the input row in the aggregate implementations.
+         */
+        public final DBSPVariablePath rowVar;
 
-        FoldingDescription(DBSPExpression fold, DBSPExpression defaultZero) {
+        FoldingDescription(DBSPExpression fold, DBSPExpression defaultZero,
+                           List<AggregateCompiler.AggregateImplementation> implementations,
+                           DBSPVariablePath rowVar) {
             this.fold = fold;
             this.defaultZero = defaultZero;
+            this.implementations = implementations;
+            this.rowVar = rowVar;
+        }
+    }
+
+    /**
+     * Result returned by the createLinearFunctions below.
+     */
+    static class LinearDescription {
+        /**
+         * Closure with signature |key, row| -> accumulator computing the contribution of a row.
+         */
+        public final DBSPExpression function;
+        /**
+         * Closure with signature |(key, accumulator)| -> (key, result) computing the aggregate results.
+         */
+        public final DBSPExpression postprocess;
+
+        LinearDescription(DBSPExpression function, DBSPExpression postprocess) {
+            this.function = function;
+            this.postprocess = postprocess;
         }
     }
 
@@ -214,12 +272,14 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
         DBSPExpression[] increments = new DBSPExpression[parts];
         DBSPExpression[] posts = new DBSPExpression[parts];
         DBSPExpression[] defaultZeros = new DBSPExpression[parts];
+        List<AggregateCompiler.AggregateImplementation> implementations = new ArrayList<>();
 
         DBSPType[] accumulatorTypes = new DBSPType[parts];
         for (AggregateCall call: aggregates) {
             DBSPType resultFieldType = resultType.getFieldType(aggIndex + groupCount);
             AggregateCompiler compiler = new AggregateCompiler(call, resultFieldType, rowVar);
             AggregateCompiler.AggregateImplementation folder = compiler.compile();
+            implementations.add(folder);
             DBSPExpression zero = this.declare("zero", folder.zero);
             zeros[aggIndex] = zero;
             DBSPExpression increment = this.declare("inc", folder.increment);
@@ -265,7 +325,118 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
                         new DBSPSimplePathSegment("with_output")));
         DBSPExpression folder = new DBSPApplyExpression(constructor, zero, increment, post);
         return new FoldingDescription(this.declare("folder", folder),
-                new DBSPTupleExpression(defaultZeros));
+                new DBSPTupleExpression(defaultZeros), implementations, rowVar);
+    }
+
+    /**
+     * If all aggregates are linear, create the functions that implement
+     * them as a linear aggregate.  The accumulator is a tuple containing
+     * the number of rows in the group followed by the accumulators of all aggregates;
+     * the row count ensures that a group is present in the result iff it is not empty.
+     * @param fd           Description of the aggregates as a fold.
+     * @param groupType    Type of the grouping key.
+     * @param resultType   Type of the result produced by the fold.
+     * @return null if some aggregate is not linear.
+     */
+    @Nullable
+    LinearDescription createLinearFunctions(FoldingDescription fd, DBSPType groupType, DBSPType resultType) {
+        if (!Linq.all(fd.implementations, AggregateCompiler.AggregateImplementation::isLinear))
+            return null;
+        List<DBSPExpression> contributions = new ArrayList<>();
+        contributions.add(new DBSPLongLiteral(1L));
+        for (AggregateCompiler.AggregateImplementation implementation: fd.implementations)
+            contributions.addAll(Arrays.asList(
+                    Objects.requireNonNull(implementation.linearContribution).fields));
+        DBSPTupleExpression contribution = new DBSPTupleExpression(contributions);
+        DBSPVariablePath key = groupType.ref().var("k");
+        DBSPClosureExpression function = contribution.closure(key.asParameter(), fd.rowVar.asParameter());
+
+        DBSPVariablePath accumulator = contribution.getNonVoidType().ref().var("a");
+        DBSPExpression[] results = new DBSPExpression[fd.implementations.size()];
+        int offset = 1;
+        for (int i = 0; i < results.length; i++) {
+            AggregateCompiler.AggregateImplementation implementation = fd.implementations.get(i);
+            DBSPClosureExpression post = Objects.requireNonNull(implementation.linearPostprocess);
+            int size = Objects.requireNonNull(implementation.linearContribution).size();
+            DBSPExpression[] fields = new DBSPExpression[size];
+            for (int j = 0; j < size; j++)
+                fields[j] = accumulator.field(offset + j);
+            offset += size;
+            results[i] = FieldSubstitutionVisitor.substitute(post.body, "a", fields);
+            if (results[i] == null)
+                return null;
+        }
+        DBSPTupleExpression result = new DBSPTupleExpression(results);
+        if (!result.getNonVoidType().sameType(resultType))
+            return null;
+        DBSPExpression postBody = new DBSPRawTupleExpression(
+                new DBSPApplyMethodExpression("clone", groupType, key), result);
+        DBSPClosureExpression postprocess = postBody.closure(
+                new DBSPClosureExpression.Parameter(key, accumulator));
+        // The functions are not declared: they are only emitted if the
+        // circuit is incrementalized and the aggregate becomes linear.
+        return new LinearDescription(function, postprocess);
+    }
+
+    /**
+     * Compile a grouped aggregate that computes a single MIN or MAX
+     * into a DBSPMinMaxOperator, which does not need to fold each group.
+     * @param aggregate     Aggregate to compile.
+     * @param call          The only aggregate call of the aggregate.
+     * @param t             Variable standing for an input row.
+     * @param keyExpression Expression of t computing the grouping key.
+     * @param resultType    Type of the aggregate result.
+     * @param input         Operator producing the input of the aggregate.
+     * @return null if the aggregate is not a MIN or MAX.
+     */
+    @Nullable
+    DBSPOperator compileMinMax(LogicalAggregate aggregate, AggregateCall call, DBSPVariablePath t,
+                               DBSPExpression keyExpression, DBSPTypeTuple resultType, DBSPOperator input) {
+        DBSPMinMaxOperator.Aggregation aggregation;
+        switch (call.getAggregation().getKind()) {
+            case MIN:
+                aggregation = DBSPMinMaxOperator.Aggregation.Min;
+                break;
+            case MAX:
+                aggregation = DBSPMinMaxOperator.Aggregation.Max;
+                break;
+            default:
+                return null;
+        }
+        if (call.getArgList().size() != 1)
+            return null;
+        // DISTINCT does not change the result of MIN or MAX.
+        DBSPExpression value = t.field(call.getArgList().get(0));
+        // None is the smallest Option value, but MIN ignores NULLs.
+        // For MIN we index on (is_none, value), so NULL is only produced when all values are NULL.
+        boolean nullsLast = aggregation == DBSPMinMaxOperator.Aggregation.Min &&
+                value.getNonVoidType().mayBeNull;
+        if (nullsLast)
+            value = new DBSPRawTupleExpression(
+                    new DBSPApplyMethodExpression("is_none", DBSPTypeBool.instance, value), value);
+        DBSPType groupType = keyExpression.getNonVoidType();
+        DBSPType valueType = value.getNonVoidType();
+        DBSPExpression groupKeys = new DBSPRawTupleExpression(keyExpression, value).closure(t.asParameter());
+        DBSPIndexOperator index = new DBSPIndexOperator(
+                aggregate, this.declare("index", groupKeys),
+                groupType, valueType, false, input);
+        this.getCircuit().addOperator(index);
+        DBSPMinMaxOperator minMax = new DBSPMinMaxOperator(aggregate, aggregation, groupType, valueType, index);
+        this.getCircuit().addOperator(minMax);
+
+        // Flatten the resulting set
+        int groupCount = aggregate.getGroupCount();
+        DBSPVariablePath kResult = groupType.ref().var("k");
+        DBSPVariablePath vResult = valueType.ref().var("v");
+        DBSPExpression[] flattenFields = new DBSPExpression[groupCount + 1];
+        for (int i = 0; i < groupCount; i++)
+            flattenFields[i] = kResult.field(i);
+        DBSPExpression result = nullsLast ? vResult.field(1) :
+                new DBSPApplyMethodExpression("clone", valueType, vResult);
+        flattenFields[groupCount] = ExpressionCompiler.makeCast(result, resultType.getFieldType(groupCount));
+        DBSPExpression mapper = new DBSPTupleExpression(flattenFields).closure(
+                new DBSPClosureExpression.Parameter(kResult, vResult));
+        return new DBSPMapOperator(aggregate, this.declare("flatten", mapper), resultType, minMax);
     }
 
     public void visitAggregate(LogicalAggregate aggregate) {
@@ -305,6 +476,14 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
             DBSPExpression keyExpression = new DBSPRawTupleExpression(groups);
             DBSPType[] aggTypes = Utilities.arraySlice(tuple.tupFields, aggregate.getGroupCount());
             DBSPTypeTuple aggType = new DBSPTypeTuple(aggTypes);
+            if (aggregate.getGroupCount() > 0 && aggregates.size() == 1) {
+                DBSPOperator minMax = this.compileMinMax(
+                        aggregate, aggregates.get(0), t, keyExpression, tuple, opInput);
+                if (minMax != null) {
+                    this.assignOperator(aggregate, minMax);
+                    return;
+                }
+            }
 
             DBSPExpression groupKeys =
                     new DBSPRawTupleExpression(
@@ -320,8 +499,11 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
             // The aggregate operator will not return a stream of type aggType, but a stream
             // with a type given by fd.defaultZero.
             DBSPTypeTuple typeFromAggregate = fd.defaultZero.getNonVoidType().to(DBSPTypeTuple.class);
-            DBSPAggregateOperator agg = new DBSPAggregateOperator(aggregate, fd.fold, groupType,
-                    typeFromAggregate, index);
+            LinearDescription linear = this.createLinearFunctions(fd, groupType, typeFromAggregate);
+            DBSPAggregateOperator agg = new DBSPAggregateOperator(aggregate, fd.fold,
+                    linear != null ? linear.function : null,
+                    linear != null ? linear.postprocess : null,
+                    groupType, typeFromAggregate, index);
 
             // Flatten the resulting set
             DBSPVariablePath kResult = groupType.ref().var("k");
@@ -452,8 +634,10 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
         DBSPExpression exp = new DBSPTupleExpression(project, resultColumns);
         DBSPExpression closure = new DBSPClosureExpression(project, exp, row.asParameter());
         DBSPExpression mapFunc = this.declare("map", closure);
-        DBSPMapOperator op = new DBSPMapOperator(project, mapFunc, outputType, opInput);
-        // No distinct needed - in SQL project may produce a multiset.
+        // No distinct needed - in SQL project may produce a multiset,
+        // unless the output contains a key of the input.
+        boolean isMultiset = opInput.isMultiset || !this.areRowsUnique(project);
+        DBSPMapOperator op = new DBSPMapOperator(project, mapFunc, outputType, isMultiset, opInput);
         this.assignOperator(project, op);
     }
 
@@ -540,10 +724,417 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
         return filter;
     }
 
+    /**
+     * Compile a semi-join or an anti-join.  The result contains the rows of the
+     * left input that have (semi) or do not have (anti) a matching row in the right input.
+     * Only the set of matching keys is computed from the right input; the rows of
+     * the two inputs are never paired.
+     */
+    private void visitSemiOrAntiJoin(LogicalJoin join) {
+        JoinRelType joinType = join.getJoinType();
+        DBSPTypeTuple resultType = this.convertType(join.getRowType()).to(DBSPTypeTuple.class);
+        if (join.getInputs().size() != 2)
+            throw new TranslationException("Unexpected join with " + join.getInputs().size() + " inputs", join);
+        DBSPOperator left = this.getInputAs(join.getInput(0), true);
+        DBSPOperator right = this.getInputAs(join.getInput(1), true);
+        DBSPTypeTuple leftElementType = left.getNonVoidType().to(DBSPTypeZSet.class).elementType
+                .to(DBSPTypeTuple.class);
+
+        JoinConditionAnalyzer analyzer = new JoinConditionAnalyzer(
+                leftElementType.size(), this.typeCompiler);
+        JoinConditionAnalyzer.ConditionDecomposition decomposition = analyzer.analyze(join.getCondition());
+        // Rows with null keys never match
+        DBSPOperator filteredLeft = this.filterNonNullKeys(join, Linq.map(decomposition.comparisons, c -> c.leftColumn), left);
+        DBSPOperator filteredRight = this.filterNonNullKeys(join, Linq.map(decomposition.comparisons, c -> c.rightColumn), right);
+        DBSPTypeTuple filteredLeftType = filteredLeft.getNonVoidType().to(DBSPTypeZSet.class).elementType
+                .to(DBSPTypeTuple.class);
+        DBSPTypeTuple filteredRightType = filteredRight.getNonVoidType().to(DBSPTypeZSet.class).elementType
+                .to(DBSPTypeTuple.class);
+
+        DBSPVariablePath l = filteredLeftType.ref().var("l");
+        DBSPVariablePath r = filteredRightType.ref().var("r");
+        DBSPExpression leftKey = new DBSPRawTupleExpression(Linq.map(
+                decomposition.comparisons,
+                c -> ExpressionCompiler.makeCast(l.field(c.leftColumn), c.resultType)));
+        DBSPExpression rightKey = new DBSPRawTupleExpression(Linq.map(
+                decomposition.comparisons,
+                c -> ExpressionCompiler.makeCast(r.field(c.rightColumn), c.resultType)));
+
+        // The left input indexed by key, and the keys of the right input that can match.
+        DBSPOperator leftIndex;
+        DBSPOperator keys;
+        @Nullable
+        RexNode leftOver = decomposition.getLeftOver();
+        if (leftOver == null) {
+            DBSPClosureExpression toLeftKey = new DBSPRawTupleExpression(leftKey, DBSPTupleExpression.flatten(l))
+                    .closure(l.asParameter());
+            leftIndex = new DBSPIndexOperator(
+                    join, this.declare("index", toLeftKey),
+                    leftKey.getNonVoidType(), filteredLeftType, false, filteredLeft);
+            this.getCircuit().addOperator(leftIndex);
+            boolean isMultiset = filteredRight.isMultiset || !this.areColumnsUnique(
+                    join.getRight(), Linq.map(decomposition.comparisons, c -> c.rightColumn));
+            keys = new DBSPMapOperator(join, this.declare("key", rightKey.closure(r.asParameter())),
+                    rightKey.getNonVoidType(), isMultiset, filteredRight);
+        } else {
+            // The condition is not just an equality of keys: compute with a join
+            // the left rows that have a match, and use the entire left row as key.
+            DBSPTypeTuple rightElementType = right.getNonVoidType().to(DBSPTypeZSet.class).elementType
+                    .to(DBSPTypeTuple.class);
+            List<DBSPType> pairFields = new ArrayList<>(Arrays.asList(leftElementType.tupFields));
+            pairFields.addAll(Arrays.asList(rightElementType.tupFields));
+            DBSPTypeTuple pairType = new DBSPTypeTuple(pairFields);
+            DBSPVariablePath t = pairType.ref().var("t");
+            ExpressionCompiler expressionCompiler = new ExpressionCompiler(t, this.calciteCompiler);
+            DBSPExpression condition = expressionCompiler.compile(leftOver);
+            if (condition.getNonVoidType().mayBeNull)
+                condition = new DBSPApplyExpression("wrap_bool", condition.getNonVoidType().setMayBeNull(false), condition);
+            condition = new DBSPClosureExpression(join.getCondition(), condition, t.asParameter());
+
+            DBSPIndexOperator lIndex = new DBSPIndexOperator(
+                    join, this.declare("index", new DBSPRawTupleExpression(leftKey, DBSPTupleExpression.flatten(l))
+                            .closure(l.asParameter())),
+                    leftKey.getNonVoidType(), filteredLeftType, false, filteredLeft);
+            this.getCircuit().addOperator(lIndex);
+            DBSPIndexOperator rIndex = new DBSPIndexOperator(
+                    join, this.declare("index", new DBSPRawTupleExpression(rightKey, DBSPTupleExpression.flatten(r))
+                            .closure(r.asParameter())),
+                    rightKey.getNonVoidType(), filteredRightType, false, filteredRight);
+            this.getCircuit().addOperator(rIndex);
+            DBSPVariablePath k = leftKey.getNonVoidType().var("k");
+            DBSPClosureExpression makePair = DBSPTupleExpression.flatten(l, r).pointwiseCast(pairType)
+                    .closure(k.asRefParameter(), l.asParameter(), r.asParameter());
+            DBSPJoinOperator pairs = new DBSPJoinOperator(join, pairType,
+                    this.declare("pair", makePair), left.isMultiset || right.isMultiset, lIndex, rIndex);
+            this.getCircuit().addOperator(pairs);
+            DBSPFilterOperator matching = new DBSPFilterOperator(join, this.declare("cond", condition), pairs);
+            this.getCircuit().addOperator(matching);
+            DBSPVariablePath p = pairType.ref().var("p");
+            keys = new DBSPMapOperator(join,
+                    this.declare("proj", DBSPTupleExpression.flatten(p).slice(0, leftElementType.size())
+                            .closure(p.asParameter())),
+                    leftElementType, matching);
+
+            DBSPVariablePath row = leftElementType.ref().var("l");
+            leftIndex = new DBSPIndexOperator(join,
+                    this.declare("index", new DBSPRawTupleExpression(
+                            DBSPTupleExpression.flatten(row), DBSPTupleExpression.flatten(row))
+                            .closure(row.asParameter())),
+                    leftElementType, leftElementType, false, left);
+            this.getCircuit().addOperator(leftIndex);
+        }
+        this.getCircuit().addOperator(keys);
+        DBSPOperator result;
+        if (joinType == JoinRelType.SEMI) {
+            DBSPOperator keySet = this.keySet(join, keys);
+            DBSPTypeTuple valueType = leftIndex.getNonVoidType().to(DBSPTypeIndexedZSet.class).elementType
+                    .to(DBSPTypeTuple.class);
+            DBSPVariablePath v = valueType.ref().var("v");
+            DBSPVariablePath key = keySet.getNonVoidType().to(DBSPTypeIndexedZSet.class).keyType.ref().var("k");
+            DBSPVariablePath empty = new DBSPTypeRawTuple().ref().var("e");
+            DBSPClosureExpression keepLeft = DBSPTupleExpression.flatten(v).pointwiseCast(resultType)
+                    .closure(key.asParameter(), v.asParameter(), empty.asParameter());
+            result = new DBSPSemiJoinOperator(join, resultType, this.declare("semi", keepLeft),
+                    left.isMultiset, leftIndex, keySet);
+        } else {
+            result = this.antiJoin(join, resultType, left, leftIndex, keys,
+                    v -> DBSPTupleExpression.flatten(v).pointwiseCast(resultType));
+        }
+        this.assignOperator(join, result);
+    }
+
+    /**
+     * The set of distinct keys in a Z-set, as an indexed Z-set with an empty value.
+     */
+    private DBSPOperator keySet(LogicalJoin join, DBSPOperator keys) {
+        DBSPOperator distinctKeys = new DBSPDistinctOperator(join, keys);
+        this.getCircuit().addOperator(distinctKeys);
+        DBSPType keyType = distinctKeys.getNonVoidType().to(DBSPTypeZSet.class).elementType;
+        DBSPVariablePath key = keyType.ref().var("k");
+        DBSPOperator keySet = new DBSPIndexOperator(join,
+                this.declare("index", new DBSPRawTupleExpression(
+                        new DBSPApplyMethodExpression("clone", keyType, key),
+                        new DBSPRawTupleExpression()).closure(key.asParameter())),
+                keyType, new DBSPTypeRawTuple(), false, distinctKeys);
+        this.getCircuit().addOperator(keySet);
+        return keySet;
+    }
+
+    /**
+     * Generate an anti-join that produces the rows of an input that have no matching key.
+     * @param join       Join that is being compiled.
+     * @param resultType Type of the result rows.
+     * @param input      Input whose unmatched rows are produced.
+     * @param index      The input indexed by key; may omit rows that cannot match.
+     * @param keys       Z-set with the keys that have a match; may contain duplicates.
+     * @param makeRow    Given a reference to an input row, builds the result row.
+     */
+    private DBSPOperator antiJoin(LogicalJoin join, DBSPTypeTuple resultType,
+                                  DBSPOperator input, DBSPOperator index, DBSPOperator keys,
+                                  Function<DBSPVariablePath, DBSPExpression> makeRow) {
+        DBSPOperator keySet = this.keySet(join, keys);
+        DBSPTypeTuple rowType = input.getNonVoidType().to(DBSPTypeZSet.class).elementType.to(DBSPTypeTuple.class);
+        DBSPOperator rows = input;
+        if (!resultType.sameType(rowType)) {
+            DBSPVariablePath row = rowType.ref().var("l");
+            rows = new DBSPMapOperator(join, this.declare("expand", makeRow.apply(row).closure(row.asParameter())),
+                    resultType, input);
+            this.getCircuit().addOperator(rows);
+        }
+        DBSPTypeTuple valueType = index.getNonVoidType().to(DBSPTypeIndexedZSet.class).elementType
+                .to(DBSPTypeTuple.class);
+        DBSPVariablePath v = valueType.ref().var("v");
+        DBSPVariablePath key = keySet.getNonVoidType().to(DBSPTypeIndexedZSet.class).keyType.ref().var("k");
+        DBSPVariablePath empty = new DBSPTypeRawTuple().ref().var("e");
+        DBSPClosureExpression unmatched = makeRow.apply(v)
+                .closure(key.asParameter(), v.asParameter(), empty.asParameter());
+        return new DBSPAntiJoinOperator(join, resultType, this.declare("anti", unmatched),
+                input.isMultiset, rows, index, keySet);
+    }
+
+    /**
+     * Add a constant to an integer key, saturating at the limits of the type.
+     */
+    private static DBSPExpression addOffset(DBSPExpression key, long offset, DBSPType keyType) {
+        if (offset == 0)
+            return key;
+        DBSPExpression literal;
+        if (keyType.to(DBSPTypeInteger.class).getWidth() == 64)
+            literal = new DBSPLongLiteral(offset);
+        else
+            literal = new DBSPIntegerLiteral((int) offset);
+        return new DBSPApplyMethodExpression("saturating_add", keyType, key, literal);
+    }
+
+    /**
+     * Compile a join whose condition requires a column of one input to lie within
+     * bounds computed from the other input into a range join.
+     * The probed input is indexed by the probed column, and the driving
+     * input by the two columns that the bounds are computed from.
+     * The range join looks up a half-open interval of keys, but the upper
+     * bound is inclusive and may be the largest value of the type; so the
+     * probed key is paired with false, and the interval of keys for the
+     * bounds [lower, upper] is [(lower, false), (upper, true)).
+     * The result contains all pairs that satisfy the range test; the caller
+     * still has to filter it with the join condition.
+     */
+    private DBSPOperator rangeJoin(LogicalJoin join, JoinConditionAnalyzer.RangeTest range,
+                                   DBSPTypeTuple resultType, boolean isMultiset,
+                                   DBSPOperator left, DBSPOperator right) {
+        DBSPOperator driving = range.probeLeft ? right : left;
+        DBSPOperator probed = range.probeLeft ? left : right;
+        DBSPTypeTuple drivingType = driving.getNonVoidType().to(DBSPTypeZSet.class).elementType
+                .to(DBSPTypeTuple.class);
+        DBSPTypeTuple probedType = probed.getNonVoidType().to(DBSPTypeZSet.class).elementType
+                .to(DBSPTypeTuple.class);
+        DBSPType keyType = range.resultType;
+
+        DBSPVariablePath d = drivingType.ref().var("d");
+        DBSPExpression bounds = new DBSPRawTupleExpression(
+                ExpressionCompiler.makeCast(d.field(range.lowerColumn), keyType),
+                ExpressionCompiler.makeCast(d.field(range.upperColumn), keyType));
+        DBSPIndexOperator drivingIndex = new DBSPIndexOperator(join,
+                this.declare("index", new DBSPRawTupleExpression(bounds, DBSPTupleExpression.flatten(d))
+                        .closure(d.asParameter())),
+                bounds.getNonVoidType(), drivingType, false, driving);
+        this.getCircuit().addOperator(drivingIndex);
+
+        DBSPVariablePath p = probedType.ref().var("p");
+        DBSPExpression probedKey = new DBSPRawTupleExpression(
+                ExpressionCompiler.makeCast(p.field(range.probedColumn), keyType), DBSPBoolLiteral.False);
+        DBSPIndexOperator probedIndex = new DBSPIndexOperator(join,
+                this.declare("index", new DBSPRawTupleExpression(probedKey, DBSPTupleExpression.flatten(p))
+                        .closure(p.asParameter())),
+                probedKey.getNonVoidType(), probedType, false, probed);
+        this.getCircuit().addOperator(probedIndex);
+
+        // The range of probed keys is [lower + lowerOffset, upper + upperOffset].
+        // Saturation can only make the range larger, and the join condition
+        // is checked again on the result.
+        DBSPVariablePath k = bounds.getNonVoidType().ref().var("k");
+        DBSPClosureExpression rangeFunction = new DBSPRawTupleExpression(
+                new DBSPRawTupleExpression(
+                        addOffset(k.field(0), range.lowerOffset, keyType), DBSPBoolLiteral.False),
+                new DBSPRawTupleExpression(
+                        addOffset(k.field(1), range.upperOffset, keyType), DBSPBoolLiteral.True))
+                .closure(k.asParameter());
+
+        DBSPVariablePath dk = bounds.getNonVoidType().var("dk");
+        DBSPVariablePath pk = probedKey.getNonVoidType().var("pk");
+        DBSPTupleExpression pair = range.probeLeft ?
+                DBSPTupleExpression.flatten(p, d) : DBSPTupleExpression.flatten(d, p);
+        DBSPClosureExpression makeTuple = pair.pointwiseCast(resultType)
+                .closure(dk.asRefParameter(), d.asParameter(), pk.asRefParameter(), p.asParameter());
+        return new DBSPRangeJoinOperator(join, resultType,
+                this.declare("range", rangeFunction), this.declare("pair", makeTuple),
+                isMultiset, drivingIndex, probedIndex);
+    }
+
+    /**
+     * A tree of inner joins whose conditions are conjunctions of equalities,
+     * flattened into a list of inputs and the equalities between pairs of inputs.
+     */
+    static class JoinTree {
+        final List<RelNode> inputs = new ArrayList<>();
+        /**
+         * Index of the first column of each input in the joined row.
+         */
+        final List<Integer> offsets = new ArrayList<>();
+        final List<JoinTreeEdge> edges = new ArrayList<>();
+        int columns = 0;
+
+        void addInput(RelNode input) {
+            this.inputs.add(input);
+            this.offsets.add(this.columns);
+            this.columns += input.getRowType().getFieldCount();
+        }
+
+        int inputOf(int column) {
+            for (int i = this.inputs.size() - 1; i >= 0; i--)
+                if (this.offsets.get(i) <= column)
+                    return i;
+            throw new RuntimeException("Column " + column + " out of range");
+        }
+    }
+
+    /**
+     * Equalities between the columns of two inputs of a JoinTree.
+     */
+    static class JoinTreeEdge {
+        final int left;
+        final int right;
+        final List<Integer> leftColumns = new ArrayList<>();
+        final List<Integer> rightColumns = new ArrayList<>();
+        final List<DBSPType> keyTypes = new ArrayList<>();
+
+        JoinTreeEdge(int left, int right) {
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Add the inputs of a tree of inner joins to a JoinTree.
+     * A join is flattened if all the equalities in its condition compare
+     * the columns of the same two inputs; other relations are inputs of the tree.
+     */
+    void flattenJoin(RelNode node, JoinTree tree) {
+        LogicalJoin join = ICastable.as(node, LogicalJoin.class);
+        if (join != null && join.getJoinType() == JoinRelType.INNER) {
+            int leftColumns = join.getLeft().getRowType().getFieldCount();
+            JoinConditionAnalyzer analyzer = new JoinConditionAnalyzer(leftColumns, this.typeCompiler);
+            JoinConditionAnalyzer.ConditionDecomposition decomposition = analyzer.analyze(join.getCondition());
+            if (!decomposition.comparisons.isEmpty() && decomposition.getLeftOver() == null) {
+                int inputs = tree.inputs.size();
+                int edges = tree.edges.size();
+                int offset = tree.columns;
+                this.flattenJoin(join.getLeft(), tree);
+                this.flattenJoin(join.getRight(), tree);
+                JoinTreeEdge edge = null;
+                for (JoinConditionAnalyzer.EqualityTest test: decomposition.comparisons) {
+                    int leftColumn = offset + test.leftColumn;
+                    int rightColumn = offset + leftColumns + test.rightColumn;
+                    int left = tree.inputOf(leftColumn);
+                    int right = tree.inputOf(rightColumn);
+                    if (edge == null) {
+                        edge = new JoinTreeEdge(left, right);
+                    } else if (edge.left != left || edge.right != right) {
+                        edge = null;
+                        break;
+                    }
+                    edge.leftColumns.add(leftColumn - tree.offsets.get(left));
+                    edge.rightColumns.add(rightColumn - tree.offsets.get(right));
+                    edge.keyTypes.add(test.resultType);
+                }
+                if (edge != null) {
+                    tree.edges.add(edge);
+                    return;
+                }
+                // The condition involves more than two inputs: undo the flattening
+                tree.inputs.subList(inputs, tree.inputs.size()).clear();
+                tree.offsets.subList(inputs, tree.offsets.size()).clear();
+                tree.edges.subList(edges, tree.edges.size()).clear();
+                tree.columns = offset;
+            }
+        }
+        tree.addInput(node);
+    }
+
+    /**
+     * Compile a flattened tree of inner joins to a single join operator.
+     * In an incremental circuit this avoids keeping the integrals of the intermediate joins.
+     */
+    private void multiJoin(LogicalJoin join, JoinTree tree) {
+        DBSPTypeTuple resultType = this.convertType(join.getRowType()).to(DBSPTypeTuple.class);
+        List<DBSPOperator> inputs = new ArrayList<>();
+        boolean isMultiset = false;
+        for (int i = 0; i < tree.inputs.size(); i++) {
+            Set<Integer> keyColumns = new TreeSet<>();
+            for (JoinTreeEdge edge: tree.edges) {
+                if (edge.left == i)
+                    keyColumns.addAll(edge.leftColumns);
+                if (edge.right == i)
+                    keyColumns.addAll(edge.rightColumns);
+            }
+            DBSPOperator input = this.getInputAs(tree.inputs.get(i), true);
+            isMultiset = isMultiset || input.isMultiset;
+            // Rows with null keys have no matches
+            inputs.add(this.filterNonNullKeys(join, new ArrayList<>(keyColumns), input));
+        }
+        List<DBSPTypeTuple> rowTypes = Linq.map(inputs,
+                i -> i.getNonVoidType().to(DBSPTypeZSet.class).elementType.to(DBSPTypeTuple.class));
+
+        List<DBSPMultiJoinOperator.JoinEdge> edges = new ArrayList<>();
+        List<DBSPOperator> indexes = new ArrayList<>();
+        for (JoinTreeEdge edge: tree.edges) {
+            DBSPVariablePath l = rowTypes.get(edge.left).ref().var("l");
+            DBSPVariablePath r = rowTypes.get(edge.right).ref().var("r");
+            DBSPExpression leftKey = new DBSPRawTupleExpression(Linq.zip(edge.leftColumns, edge.keyTypes,
+                    (c, t) -> ExpressionCompiler.makeCast(l.field(c), t)).toArray(new DBSPExpression[0]));
+            DBSPExpression rightKey = new DBSPRawTupleExpression(Linq.zip(edge.rightColumns, edge.keyTypes,
+                    (c, t) -> ExpressionCompiler.makeCast(r.field(c), t)).toArray(new DBSPExpression[0]));
+            // These indexes have the same shape as the ones of binary joins, so they can be shared.
+            DBSPIndexOperator leftIndex = new DBSPIndexOperator(join, this.declare("index",
+                    new DBSPRawTupleExpression(leftKey, DBSPTupleExpression.flatten(l)).closure(l.asParameter())),
+                    leftKey.getNonVoidType(), rowTypes.get(edge.left), false, inputs.get(edge.left));
+            this.getCircuit().addOperator(leftIndex);
+            indexes.add(leftIndex);
+            DBSPIndexOperator rightIndex = new DBSPIndexOperator(join, this.declare("index",
+                    new DBSPRawTupleExpression(rightKey, DBSPTupleExpression.flatten(r)).closure(r.asParameter())),
+                    rightKey.getNonVoidType(), rowTypes.get(edge.right), false, inputs.get(edge.right));
+            this.getCircuit().addOperator(rightIndex);
+            indexes.add(rightIndex);
+            edges.add(new DBSPMultiJoinOperator.JoinEdge(edge.left, edge.right,
+                    this.declare("key", leftKey.closure(l.asParameter())),
+                    this.declare("key", rightKey.closure(r.asParameter())),
+                    leftKey.getNonVoidType()));
+        }
+
+        DBSPVariablePath[] rows = new DBSPVariablePath[rowTypes.size()];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = rowTypes.get(i).ref().var("t" + i);
+        DBSPClosureExpression makeTuple = DBSPTupleExpression.flatten(rows)
+                .pointwiseCast(resultType)
+                .closure(Linq.map(rows, DBSPVariablePath::asParameter, DBSPClosureExpression.Parameter.class));
+        DBSPOperator result = new DBSPMultiJoinOperator(join, resultType,
+                this.declare("tuple", makeTuple), isMultiset, edges, indexes);
+        this.assignOperator(join, result);
+    }
+
     private void visitJoin(LogicalJoin join) {
         JoinRelType joinType = join.getJoinType();
-        if (joinType == JoinRelType.ANTI || joinType == JoinRelType.SEMI)
-            throw new Unimplemented(join);
+        if (joinType == JoinRelType.ANTI || joinType == JoinRelType.SEMI) {
+            this.visitSemiOrAntiJoin(join);
+            return;
+        }
+        if (joinType == JoinRelType.INNER && this.options.optimizerOptions.incrementalize) {
+            JoinTree tree = new JoinTree();
+            this.flattenJoin(join, tree);
+            if (tree.inputs.size() > 2) {
+                this.multiJoin(join, tree);
+                return;
+            }
+        }
 
         DBSPTypeTuple resultType = this.convertType(join.getRowType()).to(DBSPTypeTuple.class);
         if (join.getInputs().size() != 2)
@@ -552,13 +1143,25 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
         DBSPOperator right = this.getInputAs(join.getInput(1), true);
         DBSPTypeTuple leftElementType = left.getNonVoidType().to(DBSPTypeZSet.class).elementType
                 .to(DBSPTypeTuple.class);
+        DBSPTypeTuple originalLeftType = leftElementType;
+        DBSPTypeTuple originalRightType = right.getNonVoidType().to(DBSPTypeZSet.class).elementType
+                .to(DBSPTypeTuple.class);
 
         JoinConditionAnalyzer analyzer = new JoinConditionAnalyzer(
                 leftElementType.to(DBSPTypeTuple.class).size(), this.typeCompiler);
         JoinConditionAnalyzer.ConditionDecomposition decomposition = analyzer.analyze(join.getCondition());
+        // Without equality tests the join would be a cross product: use a range join if possible.
+        @Nullable
+        JoinConditionAnalyzer.RangeTest range = decomposition.comparisons.isEmpty() ? decomposition.range : null;
+        List<Integer> leftKeyColumns = Linq.map(decomposition.comparisons, c -> c.leftColumn);
+        List<Integer> rightKeyColumns = Linq.map(decomposition.comparisons, c -> c.rightColumn);
+        if (range != null) {
+            leftKeyColumns = range.leftColumns();
+            rightKeyColumns = range.rightColumns();
+        }
         // If any key field is nullable we need to filter the inputs; this will make key columns non-nullable
-        DBSPOperator filteredLeft = this.filterNonNullKeys(join, Linq.map(decomposition.comparisons, c -> c.leftColumn), left);
-        DBSPOperator filteredRight = this.filterNonNullKeys(join, Linq.map(decomposition.comparisons, c -> c.rightColumn), right);
+        DBSPOperator filteredLeft = this.filterNonNullKeys(join, leftKeyColumns, left);
+        DBSPOperator filteredRight = this.filterNonNullKeys(join, rightKeyColumns, right);
 
         leftElementType = filteredLeft.getNonVoidType().to(DBSPTypeZSet.class).elementType.to(DBSPTypeTuple.class);
         DBSPTypeTuple rightElementType = filteredRight.getNonVoidType().to(DBSPTypeZSet.class).elementType
@@ -596,28 +1199,38 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
             condition = new DBSPClosureExpression(join.getCondition(), condition, t.asParameter());
             condition = this.declare("cond", condition);
         }
-        DBSPVariablePath k = leftKey.getNonVoidType().var("k");
-
-        DBSPClosureExpression toLeftKey = new DBSPRawTupleExpression(leftKey, DBSPTupleExpression.flatten(l))
-                .closure(l.asParameter());
-        DBSPIndexOperator lindex = new DBSPIndexOperator(
-                join, this.declare("index", toLeftKey),
-                leftKey.getNonVoidType(), leftElementType, false, filteredLeft);
-        this.getCircuit().addOperator(lindex);
-
-        DBSPClosureExpression toRightKey = new DBSPRawTupleExpression(rightKey, DBSPTupleExpression.flatten(r))
-                .closure(r.asParameter());
-        DBSPIndexOperator rIndex = new DBSPIndexOperator(
-                join, this.declare("index", toRightKey),
-                rightKey.getNonVoidType(), rightElementType, false, filteredRight);
-        this.getCircuit().addOperator(rIndex);
-
-        // For outer joins additional columns may become nullable.
-        DBSPTupleExpression allFields = lr.pointwiseCast(resultType);
-        DBSPClosureExpression makeTuple = allFields.closure(k.asRefParameter(), l.asParameter(), r.asParameter());
-        DBSPJoinOperator joinResult = new DBSPJoinOperator(join, resultType,
-                this.declare("pair", makeTuple),
-                left.isMultiset || right.isMultiset, lindex, rIndex);
+        DBSPOperator joinResult;
+        @Nullable
+        DBSPIndexOperator lindex = null;
+        @Nullable
+        DBSPIndexOperator rIndex = null;
+        if (range != null) {
+            joinResult = this.rangeJoin(join, range, resultType,
+                    left.isMultiset || right.isMultiset, filteredLeft, filteredRight);
+        } else {
+            DBSPVariablePath k = leftKey.getNonVoidType().var("k");
+
+            DBSPClosureExpression toLeftKey = new DBSPRawTupleExpression(leftKey, DBSPTupleExpression.flatten(l))
+                    .closure(l.asParameter());
+            lindex = new DBSPIndexOperator(
+                    join, this.declare("index", toLeftKey),
+                    leftKey.getNonVoidType(), leftElementType, false, filteredLeft);
+            this.getCircuit().addOperator(lindex);
+
+            DBSPClosureExpression toRightKey = new DBSPRawTupleExpression(rightKey, DBSPTupleExpression.flatten(r))
+                    .closure(r.asParameter());
+            rIndex = new DBSPIndexOperator(
+                    join, this.declare("index", toRightKey),
+                    rightKey.getNonVoidType(), rightElementType, false, filteredRight);
+            this.getCircuit().addOperator(rIndex);
+
+            // For outer joins additional columns may become nullable.
+            DBSPTupleExpression allFields = lr.pointwiseCast(resultType);
+            DBSPClosureExpression makeTuple = allFields.closure(k.asRefParameter(), l.asParameter(), r.asParameter());
+            joinResult = new DBSPJoinOperator(join, resultType,
+                    this.declare("pair", makeTuple),
+                    left.isMultiset || right.isMultiset, lindex, rIndex);
+        }
 
         DBSPOperator inner = joinResult;
         if (condition != null) {
@@ -633,91 +1246,84 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
             // if blit it true we don't need to filter.
         }
 
-        // Handle outer joins
+        // Handle outer joins: add the rows of each side that have no match in the
+        // inner join, padded with nulls.  These are computed by anti-joins against
+        // the set of keys of the other side, which reuse the indexes of the inner join.
         DBSPOperator result = inner;
         DBSPVariablePath joinVar = resultType.var("j");
         if (joinType == JoinRelType.LEFT || joinType == JoinRelType.FULL) {
-            DBSPVariablePath lCasted = leftResultType.var("l");
             this.getCircuit().addOperator(result);
-            // project the join on the left columns
-            DBSPClosureExpression toLeftColumns =
-                    DBSPTupleExpression.flatten(joinVar)
-                            .slice(0, leftColumns)
-                            .pointwiseCast(leftResultType).closure(joinVar.asRefParameter());
-            DBSPOperator joinLeftColumns = new DBSPMapOperator(
-                    join, this.declare("proj", toLeftColumns),
-                    leftResultType, inner);
-            this.getCircuit().addOperator(joinLeftColumns);
-            DBSPOperator distJoin = new DBSPDistinctOperator(join, joinLeftColumns);
-            this.getCircuit().addOperator(distJoin);
-
-            // subtract from left relation
-            DBSPOperator leftCast = left;
-            if (!leftResultType.sameType(leftElementType)) {
-                DBSPClosureExpression castLeft =
-                    DBSPTupleExpression.flatten(l).pointwiseCast(leftResultType).closure(l.asParameter()
-                );
-                leftCast = new DBSPMapOperator(join, castLeft, leftResultType, left);
-                this.getCircuit().addOperator(leftCast);
+            DBSPOperator keys;
+            DBSPOperator index;
+            if (condition == null) {
+                boolean isMultiset = filteredRight.isMultiset || !this.areColumnsUnique(
+                        join.getRight(), Linq.map(decomposition.comparisons, c -> c.rightColumn));
+                keys = new DBSPMapOperator(join, this.declare("key", rightKey.closure(r.asParameter())),
+                        rightKey.getNonVoidType(), isMultiset, filteredRight);
+                index = Objects.requireNonNull(lindex);
+            } else {
+                // A row matches only if the condition holds too:
+                // use the left columns of the inner join result as keys.
+                DBSPClosureExpression toLeftColumns =
+                        DBSPTupleExpression.flatten(joinVar)
+                                .slice(0, leftColumns)
+                                .pointwiseCast(leftResultType).closure(joinVar.asRefParameter());
+                keys = new DBSPMapOperator(
+                        join, this.declare("proj", toLeftColumns),
+                        leftResultType, inner);
+                DBSPVariablePath row = originalLeftType.ref().var("l");
+                DBSPTupleExpression cast = DBSPTupleExpression.flatten(row).pointwiseCast(leftResultType);
+                index = new DBSPIndexOperator(join,
+                        this.declare("index", new DBSPRawTupleExpression(cast, DBSPTupleExpression.flatten(row))
+                                .closure(row.asParameter())),
+                        leftResultType, originalLeftType, false, left);
+                this.getCircuit().addOperator(index);
             }
-            DBSPOperator sub = new DBSPSubtractOperator(join, leftCast, distJoin);
-            this.getCircuit().addOperator(sub);
-            DBSPDistinctOperator dist = new DBSPDistinctOperator(join, sub);
-            this.getCircuit().addOperator(dist);
-
+            this.getCircuit().addOperator(keys);
             // fill nulls in the right relation fields
             DBSPTupleExpression rEmpty = new DBSPTupleExpression(
                     Linq.map(rightElementType.tupFields,
                              et -> DBSPLiteral.none(et.setMayBeNull(true)), DBSPExpression.class));
-            DBSPClosureExpression leftRow = DBSPTupleExpression.flatten(lCasted, rEmpty).closure(
-                    lCasted.asRefParameter());
-            DBSPOperator expand = new DBSPMapOperator(join,
-                    this.declare("expand", leftRow), resultType, dist);
-            this.getCircuit().addOperator(expand);
-            result = new DBSPSumOperator(join, result, expand);
+            DBSPOperator unmatched = this.antiJoin(join, resultType, left, index, keys,
+                    v -> DBSPTupleExpression.flatten(v, rEmpty).pointwiseCast(resultType));
+            this.getCircuit().addOperator(unmatched);
+            result = new DBSPSumOperator(join, result, unmatched);
         }
         if (joinType == JoinRelType.RIGHT || joinType == JoinRelType.FULL) {
-            DBSPVariablePath rCasted = rightResultType.var("r");
             this.getCircuit().addOperator(result);
-
-            // project the join on the right columns
-            DBSPClosureExpression toRightColumns =
-                    DBSPTupleExpression.flatten(joinVar)
-                            .slice(leftColumns, totalColumns)
-                            .pointwiseCast(rightResultType).closure(
-                    joinVar.asRefParameter());
-            DBSPOperator joinRightColumns = new DBSPMapOperator(
-                    join, this.declare("proj", toRightColumns),
-                    rightResultType, inner);
-            this.getCircuit().addOperator(joinRightColumns);
-            DBSPOperator distJoin = new DBSPDistinctOperator(join, joinRightColumns);
-            this.getCircuit().addOperator(distJoin);
-
-            // subtract from right relation
-            DBSPOperator rightCast = right;
-            if (!rightResultType.sameType(rightElementType)) {
-                DBSPClosureExpression castRight =
-                        DBSPTupleExpression.flatten(r).pointwiseCast(rightResultType).closure(
-                        r.asParameter());
-                rightCast = new DBSPMapOperator(join, castRight, rightResultType, right);
-                this.getCircuit().addOperator(rightCast);
+            DBSPOperator keys;
+            DBSPOperator index;
+            if (condition == null) {
+                boolean isMultiset = filteredLeft.isMultiset || !this.areColumnsUnique(
+                        join.getLeft(), Linq.map(decomposition.comparisons, c -> c.leftColumn));
+                keys = new DBSPMapOperator(join, this.declare("key", leftKey.closure(l.asParameter())),
+                        leftKey.getNonVoidType(), isMultiset, filteredLeft);
+                index = Objects.requireNonNull(rIndex);
+            } else {
+                DBSPClosureExpression toRightColumns =
+                        DBSPTupleExpression.flatten(joinVar)
+                                .slice(leftColumns, totalColumns)
+                                .pointwiseCast(rightResultType).closure(joinVar.asRefParameter());
+                keys = new DBSPMapOperator(
+                        join, this.declare("proj", toRightColumns),
+                        rightResultType, inner);
+                DBSPVariablePath row = originalRightType.ref().var("r");
+                DBSPTupleExpression cast = DBSPTupleExpression.flatten(row).pointwiseCast(rightResultType);
+                index = new DBSPIndexOperator(join,
+                        this.declare("index", new DBSPRawTupleExpression(cast, DBSPTupleExpression.flatten(row))
+                                .closure(row.asParameter())),
+                        rightResultType, originalRightType, false, right);
+                this.getCircuit().addOperator(index);
             }
-            DBSPOperator sub = new DBSPSubtractOperator(join, rightCast, distJoin);
-            this.getCircuit().addOperator(sub);
-            DBSPDistinctOperator dist = new DBSPDistinctOperator(join, sub);
-            this.getCircuit().addOperator(dist);
-
+            this.getCircuit().addOperator(keys);
             // fill nulls in the left relation fields
             DBSPTupleExpression lEmpty = new DBSPTupleExpression(
                     Linq.map(leftElementType.tupFields,
                             et -> DBSPLiteral.none(et.setMayBeNull(true)), DBSPExpression.class));
-            DBSPClosureExpression rightRow =
-                    DBSPTupleExpression.flatten(lEmpty, rCasted).closure(
-                    rCasted.asRefParameter());
-            DBSPOperator expand = new DBSPMapOperator(join,
-                    this.declare("expand", rightRow), resultType, dist);
-            this.getCircuit().addOperator(expand);
-            result = new DBSPSumOperator(join, result, expand);
+            DBSPOperator unmatched = this.antiJoin(join, resultType, right, index, keys,
+                    v -> DBSPTupleExpression.flatten(lEmpty, v).pointwiseCast(resultType));
+            this.getCircuit().addOperator(unmatched);
+            result = new DBSPSumOperator(join, result, unmatched);
         }
 
         this.assignOperator(join, Objects.requireNonNull(result));
@@ -952,12 +1558,88 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
         this.assignOperator(window, lastOperator);
     }
 
+    @Nullable
+    static Long getLimit(LogicalSort sort, @Nullable RexNode limit) {
+        if (limit == null)
+            return null;
+        if (!(limit instanceof RexLiteral))
+            throw new Unimplemented(sort);
+        return (long)RexLiteral.intValue(limit);
+    }
+
+    /**
+     * Keep only the first 'k' rows of the input of a sort,
+     * when all the sort keys are in the same direction.
+     * @param sort     Sort that is being compiled.
+     * @param k        Number of rows to keep.
+     * @param inputRowType  Type of the rows of the input.
+     * @param opInput  Input of the sort.
+     * @return  An operator producing the top k rows of the input, or 'null'
+     * if the order cannot be expressed by a top-k operator.
+     */
+    @Nullable
+    DBSPOperator topK(LogicalSort sort, long k, DBSPType inputRowType, DBSPOperator opInput) {
+        DBSPVariablePath t = inputRowType.var("t");
+        DBSPTopKOperator.Direction direction = DBSPTopKOperator.Direction.Ascending;
+        List<DBSPExpression> sortFields = new ArrayList<>();
+        for (RelFieldCollation collation: sort.getCollation().getFieldCollations()) {
+            DBSPTopKOperator.Direction fieldDirection;
+            switch (collation.getDirection()) {
+                case ASCENDING:
+                    fieldDirection = DBSPTopKOperator.Direction.Ascending;
+                    break;
+                case DESCENDING:
+                    fieldDirection = DBSPTopKOperator.Direction.Descending;
+                    break;
+                default:
+                    return null;
+            }
+            if (!sortFields.isEmpty() && fieldDirection != direction)
+                return null;
+            direction = fieldDirection;
+            sortFields.add(t.field(collation.getFieldIndex()));
+        }
+        // Index each row by the sort fields followed by the row itself,
+        // all in a single group.
+        DBSPExpression sortKey = new DBSPRawTupleExpression(sortFields.toArray(new DBSPExpression[0]));
+        DBSPExpression value = new DBSPRawTupleExpression(sortKey, DBSPTupleExpression.flatten(t));
+        DBSPType valueType = value.getNonVoidType();
+        DBSPExpression indexFunction = new DBSPRawTupleExpression(
+                new DBSPRawTupleExpression(), value).closure(t.asRefParameter());
+        DBSPIndexOperator index = new DBSPIndexOperator(
+                sort, this.declare("topKIndex", indexFunction),
+                new DBSPTypeRawTuple(), valueType, opInput.isMultiset, opInput);
+        this.getCircuit().addOperator(index);
+        // DBSP topk operators are incremental.
+        DBSPDifferentialOperator diff = new DBSPDifferentialOperator(sort, index);
+        this.getCircuit().addOperator(diff);
+        DBSPTopKOperator topK = new DBSPTopKOperator(sort, direction, k, diff);
+        this.getCircuit().addOperator(topK);
+        DBSPIntegralOperator integral = new DBSPIntegralOperator(sort, topK);
+        this.getCircuit().addOperator(integral);
+        DBSPVariablePath key = new DBSPTypeRawTuple().ref().var("k");
+        DBSPVariablePath v = valueType.ref().var("v");
+        DBSPExpression project = new DBSPApplyMethodExpression("clone", inputRowType, v.field(1)).closure(
+                new DBSPClosureExpression.Parameter(key, v));
+        DBSPMapOperator result = new DBSPMapOperator(sort, project, inputRowType, integral);
+        this.getCircuit().addOperator(result);
+        return result;
+    }
+
     public void visitSort(LogicalSort sort) {
         // Aggregate in a single group.
-        // TODO: make this more efficient?
         RelNode input = sort.getInput();
         DBSPType inputRowType = this.convertType(input.getRowType());
         DBSPOperator opInput = this.getOperator(input);
+        Long fetch = getLimit(sort, sort.fetch);
+        Long offset = getLimit(sort, sort.offset);
+        if (fetch != null) {
+            // Only the first offset + fetch rows can appear in the result.
+            long k = fetch + (offset == null ? 0 : offset);
+            DBSPOperator topK = this.topK(sort, k, inputRowType, opInput);
+            if (topK != null)
+                opInput = topK;
+        }
 
         DBSPVariablePath t = inputRowType.var("t");
         DBSPExpression emptyGroupKeys =
@@ -1019,25 +1701,35 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
             else
                 comparators = new DBSPApplyMethodExpression("then", DBSPTypeAny.instance, comparators, comparator);
         }
-        if (comparators == null)
+        if (comparators == null && fetch == null)
             throw new TranslationException("ORDER BY without order?", sort);
-        DBSPExpression comp = this.declare("comp", comparators);
         DBSPVariablePath k = new DBSPTypeRawTuple().ref().var("k");
         DBSPVariablePath v = vecType.ref().var("v");
         DBSPVariablePath v1 = vecType.var("v1");
 
-        DBSPVariablePath a = inputRowType.var("a");
-        DBSPVariablePath b = inputRowType.var("b");
-        DBSPExpression sorter =
-                new DBSPBlockExpression(
-                    Linq.list(
-                            new DBSPLetStatement(v1.variable,
-                                    v.applyClone(),true),
-                            new DBSPExpressionStatement(
-                                    new DBSPApplyMethodExpression("sort_unstable_by", vecType, v1,
-                                                    new DBSPApplyMethodExpression("compare", DBSPTypeAny.instance, comp, a, b).closure(
-                                                    a.asRefParameter(), b.asRefParameter())))),
-                    v1).closure(new DBSPClosureExpression.Parameter(k, v));
+        List<DBSPStatement> statements = new ArrayList<>();
+        statements.add(new DBSPLetStatement(v1.variable, v.applyClone(),true));
+        if (comparators != null) {
+            DBSPExpression comp = this.declare("comp", comparators);
+            DBSPVariablePath a = inputRowType.var("a");
+            DBSPVariablePath b = inputRowType.var("b");
+            statements.add(new DBSPExpressionStatement(
+                    new DBSPApplyMethodExpression("sort_unstable_by", vecType, v1,
+                            new DBSPApplyMethodExpression("compare", DBSPTypeAny.instance, comp, a, b).closure(
+                                    a.asRefParameter(), b.asRefParameter()))));
+        }
+        DBSPExpression result = v1;
+        if (fetch != null) {
+            DBSPExpression rows = new DBSPApplyMethodExpression("into_iter", DBSPTypeAny.instance, v1);
+            if (offset != null)
+                rows = new DBSPApplyMethodExpression("skip", DBSPTypeAny.instance, rows,
+                        new DBSPUSizeLiteral(offset));
+            rows = new DBSPApplyMethodExpression("take", DBSPTypeAny.instance, rows,
+                    new DBSPUSizeLiteral(fetch));
+            result = new DBSPApplyMethodExpression("collect", vecType, rows);
+        }
+        DBSPExpression sorter = new DBSPBlockExpression(statements, result)
+                .closure(new DBSPClosureExpression.Parameter(k, v));
         DBSPOperator sortElement = new DBSPMapOperator(sort,
                 this.declare("sort", sorter), vecType, agg);
         this.assignOperator(sort, sortElement);
@@ -1047,10 +1739,10 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
     public void visit(
             RelNode node, int ordinal,
             @org.checkerframework.checker.nullness.qual.Nullable RelNode parent) {
-        Logger.instance.from(this, 3)
+        Logger.instance.log(this, 3, stream -> stream
                 .append("Visiting ")
                 .append(node.toString())
-                .newline();
+                .newline());
         if (this.nodeOperator.containsKey(node))
             // We have already done this one.  This can happen because the
             // plan can be a DAG, not just a tree.
@@ -1079,9 +1771,9 @@ public class CalciteToDBSPCompiler extends RelVisitor implements IModule {
         if (statement.is(CreateViewStatement.class)) {
             CreateViewStatement view = statement.to(CreateViewStatement.class);
             RelNode rel = view.getRelNode();
-            Logger.instance.from(this, 2)
+            Logger.instance.log(this, 2, stream -> stream
                     .append(CalciteCompiler.getPlan(rel))
-                    .newline();
+                    .newline());
             this.go(rel);
             // TODO: connect the result of the query compilation with
             // the fields of rel; for now we assume that these are 1/1
@@ -274,10 +274,11 @@ public class ExpressionCompiler extends RexVisitorImpl<DBSPExpression> implement
 
     @Override
     public DBSPExpression visitCall(RexCall call) {
-        Logger.instance.from(this, 2)
-                .append(call.toString())
+        RexCall original = call;
+        Logger.instance.log(this, 2, stream -> stream
+                .append(original.toString())
                 .append(" ")
-                .append(call.getType().toString());
+                .append(original.getType().toString()));
         if (call.op.kind == SqlKind.SEARCH) {
             // TODO: ideally the optimizer should do this before handing the expression to us.
             // Then we can get rid of the rexBuilder field too.
@@ -484,10 +485,10 @@ public class ExpressionCompiler extends RexVisitorImpl<DBSPExpression> implement
     }
 
     DBSPExpression compile(RexNode expression) {
-        Logger.instance.from(this, 3)
+        Logger.instance.log(this, 3, stream -> stream
                 .append("Compiling ")
                 .append(expression.toString())
-                .newline();
+                .newline());
         return expression.accept(this);
     }
 }
@@ -23,26 +23,42 @@
 
 package org.dbsp.sqlCompiler.compiler.frontend;
 
+import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rex.*;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
 import org.dbsp.util.IModule;
+import org.dbsp.util.Linq;
 import org.dbsp.util.Logger;
 
 import javax.annotation.Nullable;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
 
 public class JoinConditionAnalyzer extends RexVisitorImpl<Void> implements IModule {
     private final int leftTableColumnCount;
     private final ConditionDecomposition result;
     private final TypeCompiler typeCompiler;
+    /**
+     * For each column that is compared with a column of the other table,
+     * the inclusive lower bounds and inclusive upper bounds found.
+     */
+    private final Map<Integer, List<OffsetColumn>> lowerBounds;
+    private final Map<Integer, List<OffsetColumn>> upperBounds;
+    /**
+     * Types of the columns that appear in bounds.
+     */
+    private final Map<Integer, DBSPType> columnTypes;
 
     public JoinConditionAnalyzer(int leftTableColumnCount, TypeCompiler typeCompiler) {
         super(true);
         this.leftTableColumnCount = leftTableColumnCount;
         this.result = new ConditionDecomposition();
         this.typeCompiler = typeCompiler;
+        this.lowerBounds = new LinkedHashMap<>();
+        this.upperBounds = new LinkedHashMap<>();
+        this.columnTypes = new HashMap<>();
     }
 
     /**
@@ -63,6 +79,71 @@ public class JoinConditionAnalyzer extends RexVisitorImpl<Void> implements IModu
         }
     }
 
+    /**
+     * An integer column of one of the two tables (numbered in the joined row)
+     * plus a constant offset.
+     */
+    static class OffsetColumn {
+        public final int column;
+        public final long offset;
+
+        OffsetColumn(int column, long offset) {
+            this.column = column;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Represents a range test in a join: a column of one table (the probed column)
+     * lies between two bounds computed from columns of the other table:
+     * lowerColumn + lowerOffset <= probedColumn <= upperColumn + upperOffset.
+     * Column numbers are relative to each table.
+     */
+    static class RangeTest {
+        /**
+         * True if the probed column belongs to the left table.
+         */
+        public final boolean probeLeft;
+        public final int probedColumn;
+        public final int lowerColumn;
+        public final long lowerOffset;
+        public final int upperColumn;
+        public final long upperOffset;
+        /**
+         * Integer type used for comparing the columns.
+         */
+        public final DBSPType resultType;
+
+        RangeTest(boolean probeLeft, int probedColumn, int lowerColumn, long lowerOffset,
+                  int upperColumn, long upperOffset, DBSPType resultType) {
+            this.probeLeft = probeLeft;
+            this.probedColumn = probedColumn;
+            this.lowerColumn = lowerColumn;
+            this.lowerOffset = lowerOffset;
+            this.upperColumn = upperColumn;
+            this.upperOffset = upperOffset;
+            this.resultType = resultType;
+        }
+
+        /**
+         * Columns of the left table used by the test.
+         */
+        List<Integer> leftColumns() {
+            if (this.probeLeft)
+                return Linq.list(this.probedColumn);
+            return Linq.list(this.lowerColumn, this.upperColumn);
+        }
+
+        /**
+         * Columns of the right table used by the test.
+         */
+        List<Integer> rightColumns() {
+            if (this.probeLeft)
+                return Linq.list(this.lowerColumn, this.upperColumn);
+            return Linq.list(this.probedColumn);
+        }
+    }
+
     /**
      * A join condition is decomposed into a list of equality comparisons
      * and another general-purpose boolean expression.
@@ -71,10 +152,17 @@ public class JoinConditionAnalyzer extends RexVisitorImpl<Void> implements IModu
         public final List<EqualityTest> comparisons;
         @Nullable
         RexNode            leftOver;
+        /**
+         * A range test implied by the leftOver, if any.
+         * The leftOver still has to be checked on the joined rows.
+         */
+        @Nullable
+        RangeTest          range;
 
         ConditionDecomposition() {
             this.comparisons = new ArrayList<>();
             this.leftOver = null;
+            this.range = null;
         }
 
         void setLeftOver(RexNode leftOver) {
@@ -105,10 +193,6 @@ public class JoinConditionAnalyzer extends RexVisitorImpl<Void> implements IModu
         }
     }
 
-    public boolean completed() {
-        return this.result.leftOver != null;
-    }
-
     @Nullable
     public static RexInputRef asInputRef(RexNode node) {
         if (!(node instanceof RexInputRef))
@@ -129,64 +213,219 @@ public class JoinConditionAnalyzer extends RexVisitorImpl<Void> implements IModu
         return ref.getIndex() < this.leftTableColumnCount;
     }
 
+    static RexNode stripCasts(RexNode node) {
+        while (node instanceof RexCall && ((RexCall) node).op.kind == SqlKind.CAST)
+            node = ((RexCall) node).operands.get(0);
+        return node;
+    }
+
+    /**
+     * The value of an exact integer literal, or null if the node is
+     * not such a literal.  The value of a DECIMAL literal is unscaled,
+     * so these are rejected even if they have an integer value.
+     */
+    @Nullable
+    static Long integerLiteralValue(RexNode node) {
+        if (!(node instanceof RexLiteral))
+            return null;
+        RexLiteral literal = (RexLiteral) node;
+        if (!SqlTypeName.INT_TYPES.contains(literal.getType().getSqlTypeName()))
+            return null;
+        int scale = literal.getType().getScale();
+        if (scale != 0 && scale != RelDataType.SCALE_NOT_SPECIFIED)
+            return null;
+        return literal.getValueAs(Long.class);
+    }
+
+    /**
+     * If the expression is an integer column plus or minus an integer literal
+     * return the corresponding OffsetColumn.
+     */
+    @Nullable
+    OffsetColumn asOffsetColumn(RexNode node) {
+        long offset = 0;
+        node = stripCasts(node);
+        if (node instanceof RexCall) {
+            RexCall call = (RexCall) node;
+            if (call.op.kind == SqlKind.PLUS || call.op.kind == SqlKind.MINUS) {
+                RexNode first = call.operands.get(0);
+                RexNode second = call.operands.get(1);
+                if (call.op.kind == SqlKind.PLUS && first instanceof RexLiteral) {
+                    RexNode tmp = first;
+                    first = second;
+                    second = tmp;
+                }
+                Long value = integerLiteralValue(second);
+                if (value == null || value == Long.MIN_VALUE)
+                    return null;
+                offset = call.op.kind == SqlKind.PLUS ? value : -value;
+                node = stripCasts(first);
+            }
+        }
+        RexInputRef ref = asInputRef(node);
+        if (ref == null)
+            return null;
+        DBSPType type = this.typeCompiler.convertType(ref.getType());
+        if (!type.is(DBSPTypeInteger.class))
+            return null;
+        this.columnTypes.put(ref.getIndex(), type);
+        return new OffsetColumn(ref.getIndex(), offset);
+    }
+
+    void addBound(Map<Integer, List<OffsetColumn>> bounds, int column, OffsetColumn bound) {
+        bounds.computeIfAbsent(column, c -> new ArrayList<>()).add(bound);
+    }
+
+    /**
+     * Record the bounds implied by a comparison between columns of the two tables.
+     */
+    void analyzeComparison(RexCall call) {
+        RexNode left = call.operands.get(0);
+        RexNode right = call.operands.get(1);
+        boolean strict;
+        switch (call.op.kind) {
+            case LESS_THAN:
+                strict = true;
+                break;
+            case LESS_THAN_OR_EQUAL:
+                strict = false;
+                break;
+            case GREATER_THAN:
+                strict = true;
+                left = call.operands.get(1);
+                right = call.operands.get(0);
+                break;
+            case GREATER_THAN_OR_EQUAL:
+                strict = false;
+                left = call.operands.get(1);
+                right = call.operands.get(0);
+                break;
+            default:
+                return;
+        }
+        // left <= right, or left < right if strict
+        OffsetColumn l = this.asOffsetColumn(left);
+        OffsetColumn r = this.asOffsetColumn(right);
+        if (l == null || r == null)
+            return;
+        if ((l.column < this.leftTableColumnCount) == (r.column < this.leftTableColumnCount))
+            return;
+        // l.column + l.offset <= r.column + r.offset
+        long lower, upper;
+        try {
+            // r.column >= l.column + l.offset - r.offset
+            lower = Math.addExact(Math.subtractExact(l.offset, r.offset), strict ? 1 : 0);
+            // l.column <= r.column + r.offset - l.offset
+            upper = Math.subtractExact(Math.subtractExact(r.offset, l.offset), strict ? 1 : 0);
+        } catch (ArithmeticException ex) {
+            return;
+        }
+        this.addBound(this.lowerBounds, r.column, new OffsetColumn(l.column, lower));
+        this.addBound(this.upperBounds, l.column, new OffsetColumn(r.column, upper));
+    }
+
+    /**
+     * Analyze one conjunct of the join condition.
+     * @return true if the conjunct is an equality test that was added to the result.
+     */
+    boolean analyzeConjunct(RexNode node) {
+        if (!(node instanceof RexCall))
+            return false;
+        RexCall call = (RexCall) node;
+        if (call.op.kind != SqlKind.EQUALS) {
+            this.analyzeComparison(call);
+            return false;
+        }
+        RexNode left = call.operands.get(0);
+        RexNode right = call.operands.get(1);
+        @Nullable
+        Boolean leftIsLeft = this.isLeftTableColumnReference(left);
+        @Nullable
+        Boolean rightIsLeft = this.isLeftTableColumnReference(right);
+        if (leftIsLeft == null || rightIsLeft == null)
+            return false;
+        if (leftIsLeft == rightIsLeft)
+            // Both columns refer to the same table.
+            return false;
+        DBSPType leftType = this.typeCompiler.convertType(left.getType());
+        DBSPType rightType = this.typeCompiler.convertType(right.getType());
+        DBSPType resultType = ExpressionCompiler.reduceType(leftType, rightType).setMayBeNull(false);
+        if (leftIsLeft) {
+            this.result.addEquality(left, right, resultType);
+        } else {
+            this.result.addEquality(right, left, resultType);
+        }
+        return true;
+    }
+
+    static boolean fitsInt(long value) {
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Find a column with both a lower and an upper bound.
+     */
+    @Nullable
+    RangeTest findRange() {
+        for (Map.Entry<Integer, List<OffsetColumn>> entry: this.lowerBounds.entrySet()) {
+            int probed = entry.getKey();
+            List<OffsetColumn> upper = this.upperBounds.get(probed);
+            if (upper == null)
+                continue;
+            OffsetColumn lo = entry.getValue().get(0);
+            OffsetColumn hi = upper.get(0);
+            DBSPType type = DBSPTypeInteger.signed32;
+            for (int column: Linq.list(probed, lo.column, hi.column))
+                type = ExpressionCompiler.reduceType(type, this.columnTypes.get(column));
+            if (!fitsInt(lo.offset) || !fitsInt(hi.offset))
+                type = DBSPTypeInteger.signed64;
+            boolean probeLeft = probed < this.leftTableColumnCount;
+            int shift = probeLeft ? this.leftTableColumnCount : 0;
+            return new RangeTest(probeLeft, probed - (probeLeft ? 0 : this.leftTableColumnCount),
+                    lo.column - shift, lo.offset, hi.column - shift, hi.offset, type);
+        }
+        return null;
+    }
+
     @Override
     public Void visitLiteral(RexLiteral lit) {
         this.result.setLeftOver(lit);
         return null;
     }
 
+    @Override
+    public Void visitInputRef(RexInputRef ref) {
+        this.result.setLeftOver(ref);
+        return null;
+    }
+
     @Override
     public Void visitCall(RexCall call) {
-        switch (call.op.kind) {
-            case AND:
-                call.operands.get(0).accept(this);
-                if (this.completed()) {
-                    // If we don't understand the left side we're done
-                    // and the leftOver is this call.
-                    this.result.setLeftOver(call);
-                    return null;
-                }
-                // Recurse on the right side.
-                call.operands.get(1).accept(this);
-                return null;
-            case EQUALS:
-                RexNode left = call.operands.get(0);
-                RexNode right = call.operands.get(1);
-                @Nullable
-                Boolean leftIsLeft = this.isLeftTableColumnReference(left);
-                @Nullable
-                Boolean rightIsLeft = this.isLeftTableColumnReference(right);
-                if (leftIsLeft == null || rightIsLeft == null) {
-                    this.result.setLeftOver(call);
-                    return null;
-                }
-                if (leftIsLeft == rightIsLeft) {
-                    // Both columns refer to the same table.
-                    this.result.setLeftOver(call);
-                    return null;
-                }
-                DBSPType leftType = this.typeCompiler.convertType(left.getType());
-                DBSPType rightType = this.typeCompiler.convertType(right.getType());
-                DBSPType resultType = ExpressionCompiler.reduceType(leftType, rightType).setMayBeNull(false);
-                if (leftIsLeft) {
-                    this.result.addEquality(left, right, resultType);
-                } else {
-                    this.result.addEquality(right, left, resultType);
-                }
-                return null;
-            default:
-                // We are done: we don't know how to handle this condition.
+        if (call.op.kind == SqlKind.AND) {
+            List<RexNode> unhandled = new ArrayList<>();
+            for (RexNode operand: call.operands) {
+                if (!this.analyzeConjunct(operand))
+                    unhandled.add(operand);
+            }
+            if (unhandled.size() == 1)
+                this.result.setLeftOver(unhandled.get(0));
+            else if (!unhandled.isEmpty())
+                // Checking the whole condition again is simpler than building a new conjunction.
                 this.result.setLeftOver(call);
-                return null;
+        } else if (!this.analyzeConjunct(call)) {
+            this.result.setLeftOver(call);
         }
+        return null;
     }
 
     JoinConditionAnalyzer.ConditionDecomposition analyze(RexNode expression) {
-        Logger.instance.from(this, 1)
+        Logger.instance.log(this, 1, stream -> stream
                 .append("Analyzing ")
                 .append(expression.toString())
-                .newline();
+                .newline());
         expression.accept(this);
+        if (this.result.leftOver != null)
+            this.result.range = this.findRange();
         return this.result;
     }
 }
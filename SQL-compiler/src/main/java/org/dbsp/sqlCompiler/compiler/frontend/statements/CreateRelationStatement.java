@@ -29,10 +29,14 @@ import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
 import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
 import org.apache.calcite.schema.impl.AbstractTable;
 import org.apache.calcite.sql.SqlIdentifier;
 import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.util.ImmutableBitSet;
 import org.dbsp.sqlCompiler.compiler.frontend.TypeCompiler;
+import org.dbsp.sqlCompiler.compiler.sqlparser.TableStatistics;
 import org.dbsp.sqlCompiler.ir.type.DBSPType;
 import org.dbsp.sqlCompiler.ir.type.DBSPTypeTuple;
 import org.dbsp.sqlCompiler.ir.type.DBSPTypeZSet;
@@ -59,6 +63,26 @@ public abstract class CreateRelationStatement extends FrontEndStatement {
     }
 
     public class EmulatedTable extends AbstractTable implements ScannableTable {
+        /**
+         * Statistics declared by the user, if any.
+         */
+        @Nullable
+        TableStatistics statistics = null;
+
+        public void setStatistics(@Nullable TableStatistics statistics) {
+            this.statistics = statistics;
+        }
+
+        /**
+         * Number of distinct values in the specified column, if declared.
+         */
+        @Nullable
+        public Double getDistinctValues(int column) {
+            if (this.statistics == null)
+                return null;
+            return this.statistics.getDistinctValues(CreateRelationStatement.this.columns.get(column).getName());
+        }
+
         @Override
         public Enumerable<Object[]> scan(DataContext root) {
             // We don't plan to use this method, but the optimizer requires this API
@@ -73,9 +97,34 @@ public abstract class CreateRelationStatement extends FrontEndStatement {
             return builder.build();
         }
 
+        @Override
+        public Statistic getStatistic() {
+            // Statistics are only estimates, so they only feed the cost model;
+            // the keys come exclusively from declared constraints.
+            @Nullable Double rowCount = this.statistics != null ? this.statistics.rowCount : null;
+            return Statistics.of(rowCount, CreateRelationStatement.this.getKeys(), null, null);
+        }
+
         public String getStatement() {
             return CreateRelationStatement.this.statement;
         }
+
+        /**
+         * A description of everything about this table that may influence
+         * the plans of the queries that use it: columns, keys, and statistics.
+         */
+        public String getSignature(RelDataTypeFactory typeFactory) {
+            return this.getRowType(typeFactory).getFullTypeString() +
+                    " keys=" + CreateRelationStatement.this.getKeys() +
+                    " " + this.statistics;
+        }
+    }
+
+    /**
+     * Sets of columns that are known to have distinct values in each row.
+     */
+    public List<ImmutableBitSet> getKeys() {
+        return new ArrayList<>();
     }
 
     public AbstractTable getEmulatedTable() {
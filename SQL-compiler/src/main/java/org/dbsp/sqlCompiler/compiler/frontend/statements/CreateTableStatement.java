@@ -25,6 +25,7 @@ package org.dbsp.sqlCompiler.compiler.frontend.statements;
 
 import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.util.ImmutableBitSet;
 
 import javax.annotation.Nullable;
 import java.util.List;
@@ -33,7 +34,19 @@ import java.util.List;
  * Describes a table as produced by a CREATE TABLE DDL statement.
  */
 public class CreateTableStatement extends CreateRelationStatement {
-    public CreateTableStatement(@Nullable SqlNode node, String statement, String tableName, @Nullable String comment, List<RelDataTypeField> columns) {
+    /**
+     * Columns of the PRIMARY KEY and UNIQUE constraints.
+     */
+    public final List<ImmutableBitSet> keys;
+
+    public CreateTableStatement(@Nullable SqlNode node, String statement, String tableName, @Nullable String comment,
+                                List<RelDataTypeField> columns, List<ImmutableBitSet> keys) {
         super(node, statement, tableName, comment, columns);
+        this.keys = keys;
+    }
+
+    @Override
+    public List<ImmutableBitSet> getKeys() {
+        return this.keys;
     }
 }
@@ -27,6 +27,7 @@ import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
 import org.dbsp.sqlCompiler.compiler.CompilerOptions;
 import org.dbsp.sqlCompiler.compiler.visitors.*;
 import org.dbsp.sqlCompiler.ir.CircuitVisitor;
+import org.dbsp.util.Profiler;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -34,25 +35,37 @@ import java.util.List;
 public class CircuitOptimizer {
     public final CompilerOptions.Optimizer options;
     public final CircuitVisitor optimizer;
+    final Profiler profiler;
 
     public CircuitOptimizer(CompilerOptions.Optimizer options) {
+        this(options, Profiler.disabled());
+    }
+
+    public CircuitOptimizer(CompilerOptions.Optimizer options, Profiler profiler) {
         this.options = options;
+        this.profiler = profiler;
         this.optimizer = this.getOptimizer();
     }
 
     CircuitVisitor getOptimizer() {
         List<CircuitVisitor> passes = new ArrayList<>();
         passes.add(new OptimizeDistinctVisitor());
+        passes.add(new FilterPushdownVisitor());
+        passes.add(new DeadColumnsVisitor());
+        // After the previous passes, so that operators are merged only
+        // if they are identical after filtering and pruning their columns.
+        passes.add(new CSEVisitor());
         if (this.options.incrementalize) {
             passes.add(new IncrementalizeVisitor());
             passes.add(new OptimizeIncrementalVisitor());
         }
+        passes.add(new FusionVisitor());
         DeadCodeVisitor dead = new DeadCodeVisitor();
         passes.add(dead);
         passes.add(new RemoveOperatorsVisitor(dead.reachable));
         if (this.options.incrementalize)
             passes.add(new NoIntegralVisitor());
-        return new PassesVisitor(passes);
+        return new PassesVisitor(this.profiler, passes);
     }
 
     public DBSPCircuit optimize(DBSPCircuit input) {
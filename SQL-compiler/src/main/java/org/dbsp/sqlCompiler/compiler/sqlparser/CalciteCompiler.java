@@ -41,11 +41,13 @@ import org.apache.calcite.rel.rules.*;
 import org.apache.calcite.rel.type.*;
 import org.apache.calcite.rex.RexBuilder;
 import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.schema.Table;
 import org.apache.calcite.sql.*;
 import org.apache.calcite.sql.ddl.SqlColumnDeclaration;
 import org.apache.calcite.sql.ddl.SqlCreateTable;
 import org.apache.calcite.sql.ddl.SqlCreateView;
 import org.apache.calcite.sql.ddl.SqlDropTable;
+import org.apache.calcite.sql.ddl.SqlKeyConstraint;
 import org.apache.calcite.sql.fun.SqlLibrary;
 import org.apache.calcite.sql.fun.SqlLibraryOperatorTableFactory;
 import org.apache.calcite.sql.parser.SqlParseException;
@@ -62,12 +64,14 @@ import org.apache.calcite.sql2rel.RelDecorrelator;
 import org.apache.calcite.sql2rel.SqlToRelConverter;
 import org.apache.calcite.sql2rel.StandardConvertletTable;
 import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
 import org.apache.calcite.util.Pair;
 import org.dbsp.sqlCompiler.compiler.CompilerOptions;
 import org.dbsp.sqlCompiler.compiler.frontend.statements.*;
 import org.dbsp.util.*;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -95,6 +99,14 @@ public class CalciteCompiler implements IModule {
     public final RelDataTypeFactory typeFactory;
     private final SqlToRelConverter.Config converterConfig;
     private final RewriteDivision astRewriter;
+    private final CompilerOptions options;
+    private final Profiler profiler;
+    private final Prepare.CatalogReader catalogReader;
+    /**
+     * Cache for the plans of views, if enabled.
+     */
+    @Nullable
+    private final CompilationCache cache;
 
     /**
      * This class rewrites instances of the division operator in the SQL AST
@@ -168,7 +180,43 @@ public class CalciteCompiler implements IModule {
 
     // Adapted from https://www.querifylabs.com/blog/assembling-a-query-optimizer-with-apache-calcite
     public CalciteCompiler(CompilerOptions options) {
+        this(options, Profiler.disabled());
+    }
+
+    /**
+     * @param options   Compilation options.
+     * @param profiler  Records the cost of each compilation phase.
+     */
+    public CalciteCompiler(CompilerOptions options, Profiler profiler) {
+        this(options, profiler, new Catalog("schema"));
+        if (options.ioOptions.statisticsFile != null) {
+            try {
+                Map<String, TableStatistics> statistics = TableStatistics.load(options.ioOptions.statisticsFile);
+                for (Map.Entry<String, TableStatistics> entry: statistics.entrySet())
+                    this.setStatistics(entry.getKey(), entry.getValue());
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    /**
+     * Create a compiler which knows all the tables and views declared in 'source'.
+     * Calcite compilers are not thread-safe; this is used to compile several views
+     * concurrently, each on a separate compiler.
+     */
+    public CalciteCompiler(CalciteCompiler source) {
+        this(source.options, source.profiler, new Catalog(source.catalog));
+    }
+
+    private CalciteCompiler(CompilerOptions options, Profiler profiler, Catalog catalog) {
+        this.options = options;
+        this.profiler = profiler;
         this.astRewriter = new RewriteDivision();
+        if (options.ioOptions.cacheDirectory != null)
+            this.cache = new CompilationCache(options.ioOptions.cacheDirectory);
+        else
+            this.cache = null;
         Properties connConfigProp = new Properties();
         connConfigProp.put(CalciteConnectionProperty.CASE_SENSITIVE.camelName(), Boolean.TRUE.toString());
         connConfigProp.put(CalciteConnectionProperty.UNQUOTED_CASING.camelName(), Casing.UNCHANGED.toString());
@@ -181,7 +229,7 @@ public class CalciteCompiler implements IModule {
                 .withParserFactory(SqlDdlParserImpl.FACTORY)
                 .withConformance(conformance);
         this.typeFactory = new SqlTypeFactoryImpl(RelDataTypeSystem.DEFAULT);
-        this.catalog = new Catalog("schema");
+        this.catalog = catalog;
         CalciteSchema rootSchema = CalciteSchema.createRootSchema(false, false);
         rootSchema.add(catalog.schemaName, this.catalog);
         // Register new types
@@ -192,7 +240,7 @@ public class CalciteCompiler implements IModule {
         rootSchema.add("BOOL", factory -> factory.createSqlType(SqlTypeName.BOOLEAN));
         // TODO: not entirely correct
         rootSchema.add("UINT64", factory -> factory.createSqlType(SqlTypeName.INTEGER));
-        Prepare.CatalogReader catalogReader = new CalciteCatalogReader(
+        this.catalogReader = new CalciteCatalogReader(
                 rootSchema, Collections.singletonList(catalog.schemaName), this.typeFactory, connectionConfig);
 
         SqlFunction division = new SqlDivideFunction();
@@ -215,7 +263,7 @@ public class CalciteCompiler implements IModule {
 
         this.validator = SqlValidatorUtil.newValidator(
                 operatorTable,
-                catalogReader,
+                this.catalogReader,
                 this.typeFactory,
                 validatorConfig
         );
@@ -230,7 +278,7 @@ public class CalciteCompiler implements IModule {
         this.converter = new SqlToRelConverter(
                 (type, query, schema, path) -> null,
                 this.validator,
-                catalogReader,
+                this.catalogReader,
                 this.cluster,
                 StandardConvertletTable.INSTANCE,
                 this.converterConfig
@@ -238,35 +286,59 @@ public class CalciteCompiler implements IModule {
     }
 
     /**
-     * Policy which decides whether to run the busy join optimization.
-     * @param rootRel Current plan.
+     * Declare statistics for a table.  They are used to choose the order of joins.
+     * @param tableName   Table described.
+     * @param statistics  Statistics of the table.
      */
-    public static boolean avoidBushyJoin(RelNode rootRel) {
-        class OuterJoinFinder extends RelVisitor {
-            public int outerJoinCount = 0;
-            public int joinCount = 0;
-            @Override public void visit(RelNode node, int ordinal,
-                                        @org.checkerframework.checker.nullness.qual.Nullable RelNode parent) {
-                if (node instanceof Join) {
-                    Join join = (Join)node;
-                    ++joinCount;
-                    if (join.getJoinType().isOuterJoin())
-                        ++outerJoinCount;
-                }
-                super.visit(node, ordinal, parent);
-            }
+    public void setStatistics(String tableName, TableStatistics statistics) {
+        this.catalog.setStatistics(tableName, statistics);
+    }
 
-            void run(RelNode node) {
-                this.go(node);
+    /**
+     * Counts the joins and the outer joins in a plan.
+     */
+    static class JoinCounter extends RelVisitor {
+        public int outerJoinCount = 0;
+        public int joinCount = 0;
+        @Override public void visit(RelNode node, int ordinal,
+                                    @org.checkerframework.checker.nullness.qual.Nullable RelNode parent) {
+            if (node instanceof Join) {
+                Join join = (Join)node;
+                ++joinCount;
+                if (join.getJoinType().isOuterJoin())
+                    ++outerJoinCount;
             }
+            super.visit(node, ordinal, parent);
         }
 
-        OuterJoinFinder finder = new OuterJoinFinder();
-        finder.run(rootRel);
+        JoinCounter run(RelNode node) {
+            this.go(node);
+            return this;
+        }
+    }
+
+    /**
+     * Policy which decides whether to run the busy join optimization.
+     * @param rootRel Current plan.
+     */
+    public static boolean avoidBushyJoin(RelNode rootRel) {
+        JoinCounter finder = new JoinCounter().run(rootRel);
         // Bushy join optimization fails when the query contains outer joins.
         return (finder.outerJoinCount > 0) || (finder.joinCount < 3);
     }
 
+    /**
+     * Policy which decides whether to reorder joins using the table statistics.
+     * The cost model of the rule is the one of incremental circuits.
+     * @param rootRel Current plan.
+     */
+    boolean useJoinStatistics(RelNode rootRel) {
+        if (!this.options.optimizerOptions.incrementalize || !this.catalog.hasStatistics())
+            return false;
+        JoinCounter finder = new JoinCounter().run(rootRel);
+        return (finder.outerJoinCount == 0) && (finder.joinCount > 1);
+    }
+
     /**
      * Helper function used to assemble sequence of optimization rules
      * into an optimization plan.  The rules are executed in sequence.
@@ -283,7 +355,7 @@ public class CalciteCompiler implements IModule {
      * We do program-dependent optimization, since some optimizations
      * are buggy and don't always work.
      */
-    static List<HepProgram> getOptimizationStages(RelNode rel) {
+    List<HepProgram> getOptimizationStages(RelNode rel) {
         HepProgram constantFold = createProgram(
                 CoreRules.FILTER_REDUCE_EXPRESSIONS,
                 CoreRules.PROJECT_REDUCE_EXPRESSIONS,
@@ -306,6 +378,10 @@ public class CalciteCompiler implements IModule {
         HepProgram distinctAggregates = createProgram(
                 // Convert DISTINCT aggregates into separate computations and join the results
                 CoreRules.AGGREGATE_EXPAND_DISTINCT_AGGREGATES_TO_JOIN);
+        HepProgram semiJoins = createProgram(
+                // Convert joins with a DISTINCT relation whose columns are not used into semi-joins
+                CoreRules.PROJECT_TO_SEMI_JOIN,
+                CoreRules.JOIN_TO_SEMI_JOIN);
         HepProgram multiJoins = new HepProgramBuilder()
                 // Join order optimization
                 .addRuleInstance(CoreRules.FILTER_INTO_JOIN)
@@ -314,6 +390,14 @@ public class CalciteCompiler implements IModule {
                 .addRuleInstance(CoreRules.PROJECT_MULTI_JOIN_MERGE)
                 .addRuleInstance(CoreRules.MULTI_JOIN_OPTIMIZE_BUSHY)
                 .build();
+        HepProgram incrementalJoins = new HepProgramBuilder()
+                // Join order optimization using the table statistics
+                .addRuleInstance(CoreRules.FILTER_INTO_JOIN)
+                .addMatchOrder(HepMatchOrder.BOTTOM_UP)
+                .addRuleInstance(CoreRules.JOIN_TO_MULTI_JOIN)
+                .addRuleInstance(CoreRules.PROJECT_MULTI_JOIN_MERGE)
+                .addRuleInstance(IncrementalJoinOrderRule.INSTANCE)
+                .build();
         HepProgram mergeNodes = createProgram(
                 CoreRules.PROJECT_MERGE,
                 CoreRules.MINUS_MERGE,
@@ -331,9 +415,11 @@ public class CalciteCompiler implements IModule {
         HepProgram window = createProgram(
                 CoreRules.PROJECT_TO_LOGICAL_PROJECT_AND_WINDOW
         );
+            if (this.useJoinStatistics(rel))
+                return Linq.list(constantFold, removeEmpty, window, distinctAggregates, semiJoins, incrementalJoins, mergeNodes, remove);
             if (avoidBushyJoin(rel))
-                return Linq.list(constantFold, removeEmpty, window, distinctAggregates, mergeNodes, remove);
-            return Linq.list(constantFold, removeEmpty, window, distinctAggregates, multiJoins, mergeNodes, remove);
+                return Linq.list(constantFold, removeEmpty, window, distinctAggregates, semiJoins, mergeNodes, remove);
+            return Linq.list(constantFold, removeEmpty, window, distinctAggregates, semiJoins, multiJoins, mergeNodes, remove);
             /*
         return Linq.list(
                 CoreRules.PROJECT_JOIN_TRANSPOSE)
@@ -353,6 +439,38 @@ public class CalciteCompiler implements IModule {
                 SqlExplainLevel.NON_COST_ATTRIBUTES);
     }
 
+    /**
+     * The key of a view in the compilation cache.  The plan of a view depends
+     * on its definition, on the schemas and statistics of the relations it uses,
+     * and on whether the circuit is incrementalized.
+     */
+    String getCacheKey(SqlCreateView view) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(view)
+                .append("\n")
+                .append(this.options.optimizerOptions.incrementalize)
+                .append("\n")
+                .append(this.catalog.hasStatistics())
+                .append("\n");
+        Map<String, Table> tables = this.catalog.getTableMap();
+        for (String name: new TreeSet<>(Catalog.getNames(view.query))) {
+            Table table = tables.get(name);
+            if (table instanceof CreateRelationStatement.EmulatedTable)
+                builder.append(name)
+                        .append(": ")
+                        .append(((CreateRelationStatement.EmulatedTable) table).getSignature(this.typeFactory))
+                        .append("\n");
+        }
+        return CompilationCache.getKey(builder.toString());
+    }
+
+    /**
+     * Make a view compiled by another compiler visible to the statements compiled by this one.
+     */
+    public void addView(CreateViewStatement view) {
+        this.catalog.addTable(view.tableName, view.getEmulatedTable());
+    }
+
     public RexBuilder getRexBuilder() {
         return this.cluster.getRexBuilder();
     }
@@ -381,47 +499,85 @@ public class CalciteCompiler implements IModule {
         return sqlParser.parseStmtList();
     }
 
-    RelNode optimize(RelNode rel) {
-        // Without the following some optimization rules do nothing.
-        Logger.instance.from(this, 2)
-                .append("Before optimizer")
+    /**
+     * Number of operators in a plan.
+     */
+    static long countNodes(RelNode rel) {
+        long[] count = new long[1];
+        new RelVisitor() {
+            @Override public void visit(RelNode node, int ordinal,
+                                        @org.checkerframework.checker.nullness.qual.Nullable RelNode parent) {
+                count[0]++;
+                super.visit(node, ordinal, parent);
+            }
+        }.go(rel);
+        return count[0];
+    }
+
+    /**
+     * Number of operators in a plan, as reported to the profiler.
+     * The plan is only traversed if profiling is enabled.
+     */
+    long profiledNodes(RelNode rel) {
+        if (!this.profiler.enabled)
+            return 0;
+        return countNodes(rel);
+    }
+
+    /**
+     * Validate a query and convert it to a plan.
+     */
+    RelRoot convertQuery(SqlNode query) {
+        Profiler.Phase phase = this.profiler.start("validate");
+        SqlNode validated = this.validator.validate(query);
+        phase.end();
+        phase = this.profiler.start("SqlToRel");
+        RelRoot root = this.converter.convertQuery(validated, false, true);
+        phase.after("nodes", this.profiledNodes(root.rel))
+                .end();
+        return root;
+    }
+
+    /**
+     * Log a plan; the plan is only printed if logging is enabled.
+     */
+    void logPlan(int level, String title, RelNode rel) {
+        Logger.instance.log(this, level, stream -> stream
+                .append(title)
                 .increase()
                 .append(getPlan(rel))
                 .decrease()
-                .newline();
+                .newline());
+    }
+
+    RelNode optimize(RelNode rel) {
+        // Without the following some optimization rules do nothing.
+        this.logPlan(2, "Before optimizer", rel);
 
         RelBuilder relBuilder = this.converterConfig.getRelBuilderFactory().create(
                 cluster, null);
         // This converts correlated sub-queries into standard joins.
+        Profiler.Phase phase = this.profiler.start("decorrelate")
+                .before("nodes", this.profiledNodes(rel));
         rel = RelDecorrelator.decorrelateQuery(rel, relBuilder);
-        Logger.instance.from(this, 2)
-                .append("After decorrelator")
-                .increase()
-                .append(getPlan(rel))
-                .decrease()
-                .newline();
+        phase.after("nodes", this.profiledNodes(rel))
+                .end();
+        this.logPlan(2, "After decorrelator", rel);
 
         int stage = 0;
-        for (HepProgram program: getOptimizationStages(rel)) {
+        for (HepProgram program: this.getOptimizationStages(rel)) {
+            phase = this.profiler.start("HepProgram stage " + stage)
+                    .before("nodes", this.profiledNodes(rel));
             HepPlanner planner = new HepPlanner(program);
             planner.setRoot(rel);
             rel = planner.findBestExp();
-            Logger.instance.from(this, 3)
-                    .append("After optimizer stage ")
-                    .append(stage)
-                    .increase()
-                    .append(getPlan(rel))
-                    .decrease()
-                    .newline();
+            phase.after("nodes", this.profiledNodes(rel))
+                    .end();
+            this.logPlan(3, "After optimizer stage " + stage, rel);
             stage++;
         }
 
-        Logger.instance.from(this, 2)
-                .append("After optimizer ")
-                .increase()
-                .append(getPlan(rel))
-                .decrease()
-                .newline();
+        this.logPlan(2, "After optimizer ", rel);
         return rel;
     }
 
@@ -445,11 +601,43 @@ public class CalciteCompiler implements IModule {
                 result.add(field);
                 continue;
             }
+            if (col.getKind().equals(SqlKind.PRIMARY_KEY) || col.getKind().equals(SqlKind.UNIQUE))
+                // Handled by getKeys
+                continue;
             throw new Unimplemented(col);
         }
         return result;
     }
 
+    /**
+     * The sets of columns declared by the PRIMARY KEY and UNIQUE constraints in a table definition.
+     * A UNIQUE constraint allows multiple rows with NULL values, so it only
+     * defines a key if all its columns are NOT NULL.
+     */
+    List<ImmutableBitSet> getKeys(SqlNodeList list, List<RelDataTypeField> columns) {
+        List<ImmutableBitSet> result = new ArrayList<>();
+        for (SqlNode col: Objects.requireNonNull(list)) {
+            boolean primary = col.getKind().equals(SqlKind.PRIMARY_KEY);
+            if (!primary && !col.getKind().equals(SqlKind.UNIQUE))
+                continue;
+            SqlKeyConstraint constraint = (SqlKeyConstraint) col;
+            SqlNodeList keyColumns = (SqlNodeList) constraint.getOperandList().get(1);
+            ImmutableBitSet.Builder key = ImmutableBitSet.builder();
+            boolean nullable = false;
+            for (SqlNode keyColumn: keyColumns) {
+                String name = Catalog.identifierToString((SqlIdentifier) keyColumn);
+                List<RelDataTypeField> fields = Linq.where(columns, c -> c.getName().equals(name));
+                if (fields.isEmpty())
+                    throw new TranslationException("Column not found", keyColumn);
+                key.set(fields.get(0).getIndex());
+                nullable = nullable || fields.get(0).getType().isNullable();
+            }
+            if (primary || !nullable)
+                result.add(key.build());
+        }
+        return result;
+    }
+
     public List<RelDataTypeField> getColumnTypes(RelRoot relRoot) {
         List<RelDataTypeField> columns = new ArrayList<>();
         RelDataType rowType = relRoot.rel.getRowType();
@@ -478,40 +666,53 @@ public class CalciteCompiler implements IModule {
                 SqlCreateTable ct = (SqlCreateTable)node;
                 String tableName = Catalog.identifierToString(ct.name);
                 List<RelDataTypeField> cols;
+                List<ImmutableBitSet> keys = new ArrayList<>();
                 if (ct.columnList != null) {
                     cols = this.getColumnTypes(Objects.requireNonNull(ct.columnList));
+                    keys = this.getKeys(ct.columnList, cols);
                 } else {
                     if (ct.query == null)
                         throw new UnsupportedException(node);
-                    Logger.instance.from(this, 1)
+                    Logger.instance.log(this, 1, stream -> stream
                             .append(ct.query.toString())
-                            .newline();
-                    RelRoot relRoot = this.converter.convertQuery(ct.query, true, true);
+                            .newline());
+                    RelRoot relRoot = this.convertQuery(ct.query);
                     cols = this.getColumnTypes(relRoot);
                 }
-                CreateTableStatement table = new CreateTableStatement(node, sqlStatement, tableName, comment, cols);
+                CreateTableStatement table = new CreateTableStatement(node, sqlStatement, tableName, comment, cols, keys);
                 this.catalog.addTable(tableName, table.getEmulatedTable());
                 return table;
             }
 
             if (node.getKind().equals(SqlKind.CREATE_VIEW)) {
                 SqlCreateView cv = (SqlCreateView) node;
-                SqlNode query = cv.query;
-                Logger.instance.from(this, 2)
+                String viewName = Catalog.identifierToString(cv.name);
+                String key = null;
+                if (this.cache != null) {
+                    key = this.getCacheKey(cv);
+                    CompilationCache.Entry entry = this.cache.get(key, this.cluster, this.catalogReader, this.catalog);
+                    if (entry != null) {
+                        CreateViewStatement view = new CreateViewStatement(node, sqlStatement,
+                                viewName, comment, entry.columns, cv.query, RelRoot.of(entry.plan, SqlKind.SELECT));
+                        this.catalog.addTable(viewName, view.getEmulatedTable());
+                        return view;
+                    }
+                }
+                Logger.instance.log(this, 2, stream -> stream
+                        .append(cv.query.toString())
+                        .newline());
+                SqlNode query = Objects.requireNonNull(cv.query.accept(this.astRewriter));
+                Logger.instance.log(this, 2, stream -> stream
                         .append(query.toString())
-                        .newline();
-                query = query.accept(this.astRewriter);
-                Logger.instance.from(this, 2)
-                        .append(Objects.requireNonNull(query).toString())
-                        .newline();
-                RelRoot relRoot = this.converter.convertQuery(query, true, true);
+                        .newline());
+                RelRoot relRoot = this.convertQuery(query);
                 List<RelDataTypeField> columns = this.getColumnTypes(relRoot);
                 RelNode optimized = this.optimize(relRoot.rel);
                 relRoot = relRoot.withRel(optimized);
-                String viewName = Catalog.identifierToString(cv.name);
+                if (this.cache != null)
+                    this.cache.put(Objects.requireNonNull(key), columns, optimized, this.catalogReader, this.catalog);
                 CreateViewStatement view = new CreateViewStatement(node, sqlStatement,
-                        Catalog.identifierToString(cv.name), comment,
-                        columns, cv.query, relRoot);
+                        viewName, comment, columns, cv.query, relRoot);
                 // From Calcite's point of view we treat this view just as another table.
                 this.catalog.addTable(viewName, view.getEmulatedTable());
                 return view;
@@ -526,7 +727,7 @@ public class CalciteCompiler implements IModule {
                     throw new Unimplemented(table);
                 SqlIdentifier id = (SqlIdentifier) table;
                 TableModifyStatement stat = new TableModifyStatement(node, sqlStatement, id.toString(), insert.getSource(), comment);
-                RelRoot values = this.converter.convertQuery(stat.data, true, true);
+                RelRoot values = this.convertQuery(stat.data);
                 values = values.withRel(this.optimize(values.rel));
                 stat.setTranslation(values.rel);
                 return stat;
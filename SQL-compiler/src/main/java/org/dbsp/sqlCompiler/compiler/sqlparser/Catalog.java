@@ -29,9 +29,13 @@ import org.apache.calcite.sql.SqlIdentifier;
 import org.apache.calcite.sql.SqlNode;
 import org.apache.calcite.sql.SqlWriter;
 import org.apache.calcite.sql.pretty.SqlPrettyWriter;
+import org.apache.calcite.sql.util.SqlBasicVisitor;
+import org.dbsp.sqlCompiler.compiler.frontend.statements.CreateRelationStatement;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Maintains the catalog: a mapping from table names to table objects.
@@ -39,10 +43,25 @@ import java.util.Map;
 public class Catalog extends AbstractSchema {
     public final String schemaName;
     private final Map<String, Table> tableMap;
+    /**
+     * Statistics declared for tables; they may be declared before the tables are created.
+     */
+    private final Map<String, TableStatistics> statistics;
 
     public Catalog(String schemaName) {
         this.schemaName = schemaName;
         this.tableMap = new HashMap<>();
+        this.statistics = new HashMap<>();
+    }
+
+    /**
+     * A catalog containing the same tables and statistics as 'other'.
+     * Changes to the new catalog are not reflected in 'other'.
+     */
+    public Catalog(Catalog other) {
+        this.schemaName = other.schemaName;
+        this.tableMap = new HashMap<>(other.tableMap);
+        this.statistics = new HashMap<>(other.statistics);
     }
 
     public static String identifierToString(SqlIdentifier identifier) {
@@ -53,6 +72,22 @@ public class Catalog extends AbstractSchema {
 
     public void addTable(String name, Table table) {
         this.tableMap.put(name, table);
+        if (table instanceof CreateRelationStatement.EmulatedTable)
+            ((CreateRelationStatement.EmulatedTable) table).setStatistics(this.statistics.get(name));
+    }
+
+    public void setStatistics(String tableName, TableStatistics statistics) {
+        this.statistics.put(tableName, statistics);
+        Table table = this.tableMap.get(tableName);
+        if (table instanceof CreateRelationStatement.EmulatedTable)
+            ((CreateRelationStatement.EmulatedTable) table).setStatistics(statistics);
+    }
+
+    /**
+     * True if statistics have been declared for some table.
+     */
+    public boolean hasStatistics() {
+        return !this.statistics.isEmpty();
     }
 
     @Override
@@ -66,6 +101,22 @@ public class Catalog extends AbstractSchema {
         return writer.toString();
     }
 
+    /**
+     * All the names that appear in identifiers in the specified SQL tree;
+     * this is a superset of the names of the relations it refers to.
+     */
+    public static Set<String> getNames(SqlNode node) {
+        Set<String> result = new HashSet<>();
+        node.accept(new SqlBasicVisitor<Void>() {
+            @Override
+            public Void visit(SqlIdentifier id) {
+                result.addAll(id.names);
+                return null;
+            }
+        });
+        return result;
+    }
+
     public void dropTable(String tableName) {
         this.tableMap.remove(tableName);
     }
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.sqlCompiler.compiler.sqlparser;
+
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptSchema;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.externalize.RelJson;
+import org.apache.calcite.rel.externalize.RelJsonReader;
+import org.apache.calcite.rel.externalize.RelJsonWriter;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.schema.Schema;
+import org.apache.calcite.util.JsonBuilder;
+import org.dbsp.util.IModule;
+import org.dbsp.util.Logger;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A cache on disk for the optimized plans of views.  When a program
+ * is recompiled after a few views have changed, only the plans of these
+ * views (and of the views that depend on their schema) have to be recomputed.
+ * For each view the cache stores two JSON files, named after a hash of the
+ * view definition and of the schemas of the relations it refers to:
+ * the optimized plan, and the type of the view.
+ */
+public class CompilationCache implements IModule {
+    /**
+     * A digest of the code of the compiler and of Calcite, which is part of
+     * every key, so that entries written by a different build are never used.
+     * Computed when first needed.
+     */
+    @Nullable
+    static String buildDigest = null;
+
+    /**
+     * A view definition retrieved from the cache.
+     */
+    public static class Entry {
+        public final List<RelDataTypeField> columns;
+        public final RelNode plan;
+
+        Entry(List<RelDataTypeField> columns, RelNode plan) {
+            this.columns = columns;
+            this.plan = plan;
+        }
+    }
+
+    final File directory;
+
+    public CompilationCache(String directory) {
+        this.directory = new File(directory);
+        if (!this.directory.isDirectory() && !this.directory.mkdirs())
+            throw new RuntimeException("Cannot create cache directory " + directory);
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    static String toHex(byte[] hash) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b: hash)
+            builder.append(String.format("%02x", b));
+        return builder.toString();
+    }
+
+    /**
+     * Add to a digest the contents of the jar or of the directory
+     * from which the specified class was loaded.
+     */
+    static void digestCode(MessageDigest digest, Class<?> clazz) throws IOException, URISyntaxException {
+        CodeSource source = clazz.getProtectionDomain().getCodeSource();
+        if (source == null)
+            throw new RuntimeException("Cannot find the code of " + clazz.getName());
+        Path location = Paths.get(source.getLocation().toURI());
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(location)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path file: files) {
+            digest.update(location.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(Files.readAllBytes(file));
+        }
+    }
+
+    /**
+     * A digest of the code which produces the plans: the compiler and Calcite.
+     */
+    static synchronized String getBuildDigest() {
+        if (buildDigest == null) {
+            MessageDigest digest = createDigest();
+            try {
+                digestCode(digest, CompilationCache.class);
+                digestCode(digest, RelNode.class);
+            } catch (IOException | URISyntaxException ex) {
+                throw new RuntimeException(ex);
+            }
+            buildDigest = toHex(digest.digest());
+        }
+        return buildDigest;
+    }
+
+    /**
+     * Compute the key of a view.
+     * @param description  Description of the view and of everything its plan depends on.
+     */
+    public static String getKey(String description) {
+        MessageDigest digest = createDigest();
+        byte[] hash = digest.digest((getBuildDigest() + "\n" + description).getBytes(StandardCharsets.UTF_8));
+        return toHex(hash);
+    }
+
+    Path getPlanFile(String key) {
+        return new File(this.directory, key + ".plan.json").toPath();
+    }
+
+    Path getTypeFile(String key) {
+        return new File(this.directory, key + ".type.json").toPath();
+    }
+
+    /**
+     * A description of a plan which includes the types of all expressions.
+     * Two plans with the same description are interchangeable.
+     */
+    static String describe(RelNode rel) {
+        StringBuilder builder = new StringBuilder();
+        describe(rel, builder);
+        return builder.toString();
+    }
+
+    static void describe(RelNode rel, StringBuilder builder) {
+        builder.append(rel.getRelTypeName())
+                .append(" ")
+                .append(rel.getRowType().getFullTypeString())
+                .append("\n");
+        rel.accept(new RexShuttle() {
+            @Override
+            public RexNode visitCall(RexCall call) {
+                builder.append(call)
+                        .append(": ")
+                        .append(call.getType().getFullTypeString())
+                        .append("\n");
+                return super.visitCall(call);
+            }
+
+            @Override
+            public RexNode visitLiteral(RexLiteral literal) {
+                builder.append(literal)
+                        .append(": ")
+                        .append(literal.getType().getFullTypeString())
+                        .append("\n");
+                return literal;
+            }
+        });
+        for (RelNode input: rel.getInputs())
+            describe(input, builder);
+    }
+
+    RelNode readPlan(String json, RelOptCluster cluster, RelOptSchema relOptSchema, Schema schema)
+            throws IOException {
+        RelJsonReader reader = new RelJsonReader(cluster, relOptSchema, schema);
+        return reader.read(json);
+    }
+
+    /**
+     * Look up a view in the cache.
+     * @param key           Key of the view.
+     * @param cluster       Cluster where the plan is created.
+     * @param relOptSchema  Schema used to resolve the tables the plan refers to.
+     * @param schema        Schema containing the tables.
+     * @return              The cached view, or null if it is not in the cache.
+     */
+    @Nullable
+    public Entry get(String key, RelOptCluster cluster, RelOptSchema relOptSchema, Schema schema) {
+        Path planFile = this.getPlanFile(key);
+        Path typeFile = this.getTypeFile(key);
+        if (!Files.exists(planFile) || !Files.exists(typeFile))
+            return null;
+        try {
+            String plan = new String(Files.readAllBytes(planFile), StandardCharsets.UTF_8);
+            String type = new String(Files.readAllBytes(typeFile), StandardCharsets.UTF_8);
+            RelNode rel = this.readPlan(plan, cluster, relOptSchema, schema);
+            RelDataType columns = RelJsonReader.readType(cluster.getTypeFactory(), type);
+            Logger.instance.log(this, 1, stream -> stream
+                    .append("Cache hit ")
+                    .append(key)
+                    .newline());
+            return new Entry(columns.getFieldList(), rel);
+        } catch (IOException | RuntimeException ex) {
+            // Treat a corrupted entry as a miss; it will be overwritten
+            Logger.instance.log(this, 1, stream -> stream
+                    .append("Cannot read cache entry ")
+                    .append(key)
+                    .append(": ")
+                    .append(ex.getMessage())
+                    .newline());
+            return null;
+        }
+    }
+
+    /**
+     * Store a view in the cache.  Plans which cannot be read back
+     * exactly as they were written are not stored.
+     * @param key           Key of the view.
+     * @param columns       Columns of the view.
+     * @param plan          Optimized plan of the view.
+     * @param relOptSchema  Schema used to resolve the tables the plan refers to.
+     * @param schema        Schema containing the tables.
+     */
+    public void put(String key, List<RelDataTypeField> columns, RelNode plan,
+                    RelOptSchema relOptSchema, Schema schema) {
+        RelJsonWriter writer = new RelJsonWriter();
+        RelDataTypeFactory typeFactory = plan.getCluster().getTypeFactory();
+        try {
+            plan.explain(writer);
+            String json = writer.asString();
+            RelNode read = this.readPlan(json, plan.getCluster(), relOptSchema, schema);
+            if (!describe(read).equals(describe(plan))) {
+                Logger.instance.log(this, 1, stream -> stream
+                        .append("Plan cannot be cached ")
+                        .append(key)
+                        .newline());
+                return;
+            }
+            JsonBuilder builder = new JsonBuilder();
+            Object type = new RelJson(builder).toJson(typeFactory.createStructType(columns));
+            this.write(this.getTypeFile(key), builder.toJsonString(type));
+            this.write(this.getPlanFile(key), json);
+        } catch (IOException | RuntimeException ex) {
+            Logger.instance.log(this, 1, stream -> stream
+                    .append("Plan cannot be cached ")
+                    .append(key)
+                    .append(": ")
+                    .append(ex.getMessage())
+                    .newline());
+        }
+    }
+
+    /**
+     * Write a file atomically, so that compilers running concurrently
+     * never observe a partially written entry.
+     */
+    void write(Path file, String contents) throws IOException {
+        Path temp = Files.createTempFile(this.directory.toPath(), "entry", ".tmp");
+        Files.write(temp, contents.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.dbsp.sqlCompiler.compiler.sqlparser;
+
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelRule;
+import org.apache.calcite.plan.hep.HepRelVertex;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.rules.MultiJoin;
+import org.apache.calcite.rex.*;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.tools.RelBuilderFactory;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.dbsp.sqlCompiler.compiler.frontend.statements.CreateRelationStatement;
+import org.dbsp.util.Linq;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses the order of the inputs of a MultiJoin (an n-way inner join) using a
+ * cost model for incremental circuits, and replaces the MultiJoin with a
+ * left-deep tree of binary joins.
+ * In an incremental circuit each join keeps a trace (the integral) of both inputs,
+ * and in each step it looks up the changes of each input in the trace of the other.
+ * If L and R are the sizes of the inputs and O the size of the output, the cost
+ * of a join is estimated as
+ *   L + R + DELTA * (L * log(R) + R * log(L) + O)
+ * where DELTA is the expected fraction of each collection that changes in one step.
+ * Sizes are estimated from the statistics of the tables.
+ */
+public class IncrementalJoinOrderRule extends RelRule<IncrementalJoinOrderRule.Config> {
+    public static final IncrementalJoinOrderRule INSTANCE = Config.DEFAULT.toRule();
+    /**
+     * Fraction of a collection that is expected to change in one step.
+     */
+    static final double DELTA = 0.01;
+    /**
+     * Joins with more inputs are not reordered: the search is exponential in the number of inputs.
+     */
+    static final int MAX_INPUTS = 12;
+
+    /**
+     * Configuration of the rule.  Calcite generates the configurations of its
+     * own rules with Immutables, which this project does not use.
+     */
+    public static final class Config implements RelRule.Config {
+        public static final Config DEFAULT = new Config(RelFactories.LOGICAL_BUILDER,
+                "IncrementalJoinOrderRule", b -> b.operand(MultiJoin.class).anyInputs());
+
+        final RelBuilderFactory relBuilderFactory;
+        final String description;
+        final OperandTransform operandSupplier;
+
+        Config(RelBuilderFactory relBuilderFactory, String description, OperandTransform operandSupplier) {
+            this.relBuilderFactory = relBuilderFactory;
+            this.description = description;
+            this.operandSupplier = operandSupplier;
+        }
+
+        @Override
+        public IncrementalJoinOrderRule toRule() {
+            return new IncrementalJoinOrderRule(this);
+        }
+
+        @Override
+        public RelBuilderFactory relBuilderFactory() {
+            return this.relBuilderFactory;
+        }
+
+        @Override
+        public Config withRelBuilderFactory(RelBuilderFactory factory) {
+            return new Config(factory, this.description, this.operandSupplier);
+        }
+
+        @Override
+        public String description() {
+            return this.description;
+        }
+
+        @Override
+        public Config withDescription(String description) {
+            return new Config(this.relBuilderFactory, description, this.operandSupplier);
+        }
+
+        @Override
+        public OperandTransform operandSupplier() {
+            return this.operandSupplier;
+        }
+
+        @Override
+        public Config withOperandSupplier(OperandTransform transform) {
+            return new Config(this.relBuilderFactory, this.description, transform);
+        }
+    }
+
+    IncrementalJoinOrderRule(Config config) {
+        super(config);
+    }
+
+    static double log2(double value) {
+        return Math.log(1 + value) / Math.log(2);
+    }
+
+    static double joinCost(double left, double right, double output) {
+        return left + right + DELTA * (left * log2(right) + right * log2(left) + output);
+    }
+
+    /**
+     * Estimate the number of distinct values of a column of a join input.
+     */
+    static double distinctValues(RelMetadataQuery mq, RelNode input, int column, double rows) {
+        RelNode stripped = input instanceof HepRelVertex ? ((HepRelVertex) input).getCurrentRel() : input;
+        if (stripped instanceof TableScan) {
+            CreateRelationStatement.EmulatedTable table =
+                    stripped.getTable() == null ? null :
+                    stripped.getTable().unwrap(CreateRelationStatement.EmulatedTable.class);
+            if (table != null) {
+                Double result = table.getDistinctValues(column);
+                if (result != null)
+                    return result;
+            }
+        }
+        Double result = mq.getDistinctRowCount(input, ImmutableBitSet.of(column), null);
+        if (result != null)
+            return result;
+        return rows;
+    }
+
+    /**
+     * Describes the inputs of a MultiJoin and the conjuncts of its condition.
+     */
+    static class JoinGraph {
+        final List<RelNode> inputs;
+        /**
+         * Index of the first field of each input in the MultiJoin row.
+         */
+        final int[] offsets;
+        final double[] rows;
+        final List<RexNode> conjuncts;
+        /**
+         * For each conjunct the bitmask of the inputs it refers to.
+         */
+        final int[] conjunctInputs;
+        final double[] selectivity;
+
+        JoinGraph(RelMetadataQuery mq, MultiJoin join) {
+            this.inputs = join.getInputs();
+            int n = this.inputs.size();
+            this.offsets = new int[n + 1];
+            this.rows = new double[n];
+            for (int i = 0; i < n; i++) {
+                RelNode input = this.inputs.get(i);
+                this.offsets[i + 1] = this.offsets[i] + input.getRowType().getFieldCount();
+                Double count = mq.getRowCount(input);
+                this.rows[i] = count == null ? 1 : Math.max(1, count);
+            }
+            this.conjuncts = RelOptUtil.conjunctions(join.getJoinFilter());
+            this.conjunctInputs = new int[this.conjuncts.size()];
+            this.selectivity = new double[this.conjuncts.size()];
+            for (int c = 0; c < this.conjuncts.size(); c++) {
+                RexNode conjunct = this.conjuncts.get(c);
+                for (int field: RelOptUtil.InputFinder.bits(conjunct))
+                    this.conjunctInputs[c] |= 1 << this.inputOf(field);
+                this.selectivity[c] = this.selectivity(mq, conjunct);
+            }
+        }
+
+        int inputOf(int field) {
+            for (int i = 0; i < this.inputs.size(); i++)
+                if (field < this.offsets[i + 1])
+                    return i;
+            throw new RuntimeException("Field " + field + " out of range");
+        }
+
+        double selectivity(RelMetadataQuery mq, RexNode conjunct) {
+            if (conjunct.isA(SqlKind.EQUALS)) {
+                RexCall call = (RexCall) conjunct;
+                RexNode left = call.operands.get(0);
+                RexNode right = call.operands.get(1);
+                if (left instanceof RexInputRef && right instanceof RexInputRef) {
+                    // The selectivity of an equi-join is 1 / max(distinct values of the two columns)
+                    double max = 1;
+                    for (RexNode operand: Linq.list(left, right)) {
+                        int field = ((RexInputRef) operand).getIndex();
+                        int input = this.inputOf(field);
+                        double distinct = distinctValues(mq, this.inputs.get(input),
+                                field - this.offsets[input], this.rows[input]);
+                        max = Math.max(max, distinct);
+                    }
+                    return 1 / max;
+                }
+            }
+            return RelMdUtil.guessSelectivity(conjunct);
+        }
+
+        /**
+         * Estimated size of the join of the inputs in the specified set.
+         */
+        double size(int set) {
+            double result = 1;
+            for (int i = 0; i < this.inputs.size(); i++)
+                if ((set & (1 << i)) != 0)
+                    result *= this.rows[i];
+            for (int c = 0; c < this.conjuncts.size(); c++)
+                if ((this.conjunctInputs[c] & ~set) == 0)
+                    result *= this.selectivity[c];
+            return Math.max(1, result);
+        }
+
+        /**
+         * Find the order of the inputs of the cheapest left-deep join tree
+         * by dynamic programming over the sets of inputs.
+         */
+        int[] bestOrder() {
+            int n = this.inputs.size();
+            int[] result = new int[n];
+            if (n > MAX_INPUTS) {
+                for (int i = 0; i < n; i++)
+                    result[i] = i;
+                return result;
+            }
+            int sets = 1 << n;
+            double[] size = new double[sets];
+            double[] cost = new double[sets];
+            // Input joined last in the best plan for each set
+            int[] last = new int[sets];
+            for (int set = 1; set < sets; set++) {
+                size[set] = this.size(set);
+                if (Integer.bitCount(set) == 1) {
+                    last[set] = Integer.numberOfTrailingZeros(set);
+                    continue;
+                }
+                cost[set] = Double.MAX_VALUE;
+                // Iterate downwards to preserve the original order when costs are equal.
+                for (int i = n - 1; i >= 0; i--) {
+                    if ((set & (1 << i)) == 0)
+                        continue;
+                    int previous = set & ~(1 << i);
+                    double c = cost[previous] + joinCost(size[previous], this.rows[i], size[set]);
+                    if (c < cost[set]) {
+                        cost[set] = c;
+                        last[set] = i;
+                    }
+                }
+            }
+            int set = sets - 1;
+            for (int k = n - 1; k >= 0; k--) {
+                result[k] = last[set];
+                set &= ~(1 << last[set]);
+            }
+            return result;
+        }
+    }
+
+    static RexNode remap(RexNode expression, int[] newPosition) {
+        return expression.accept(new RexShuttle() {
+            @Override
+            public RexNode visitInputRef(RexInputRef ref) {
+                return new RexInputRef(newPosition[ref.getIndex()], ref.getType());
+            }
+        });
+    }
+
+    @Override
+    public void onMatch(RelOptRuleCall call) {
+        MultiJoin multiJoin = call.rel(0);
+        if (multiJoin.isFullOuterJoin() ||
+                !Linq.all(multiJoin.getJoinTypes(), t -> t == JoinRelType.INNER))
+            return;
+        JoinGraph graph = new JoinGraph(call.getMetadataQuery(), multiJoin);
+        int[] order = graph.bestOrder();
+
+        RelBuilder builder = call.builder();
+        int[] newPosition = new int[multiJoin.getRowType().getFieldCount()];
+        boolean[] used = new boolean[graph.conjuncts.size()];
+        int width = 0;
+        int placed = 0;
+        for (int k = 0; k < order.length; k++) {
+            int input = order[k];
+            builder.push(graph.inputs.get(input));
+            for (int f = graph.offsets[input]; f < graph.offsets[input + 1]; f++)
+                newPosition[f] = width + f - graph.offsets[input];
+            width += graph.offsets[input + 1] - graph.offsets[input];
+            placed |= 1 << input;
+            if (k == 0)
+                continue;
+            List<RexNode> conditions = new ArrayList<>();
+            for (int c = 0; c < graph.conjuncts.size(); c++) {
+                if (used[c] || (graph.conjunctInputs[c] & ~placed) != 0)
+                    continue;
+                used[c] = true;
+                conditions.add(remap(graph.conjuncts.get(c), newPosition));
+            }
+            builder.join(JoinRelType.INNER, conditions);
+        }
+        @Nullable
+        RexNode postFilter = multiJoin.getPostJoinFilter();
+        if (postFilter != null)
+            builder.filter(remap(postFilter, newPosition));
+        // Restore the original order of the fields
+        List<RexNode> fields = new ArrayList<>();
+        for (int position: newPosition)
+            fields.add(builder.field(position));
+        builder.project(fields, multiJoin.getRowType().getFieldNames());
+        call.transformTo(builder.build());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.dbsp.sqlCompiler.compiler.sqlparser;
+
+import javax.annotation.Nullable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Statistics declared by the user for a table.
+ * They are used to estimate the cost of query plans.
+ */
+public class TableStatistics {
+    /**
+     * Number of rows of the table, if known.
+     */
+    @Nullable
+    public Double rowCount;
+    /**
+     * For each column name the number of distinct values, if known.
+     */
+    public final Map<String, Double> distinctValues;
+
+    public TableStatistics() {
+        this.rowCount = null;
+        this.distinctValues = new HashMap<>();
+    }
+
+    public TableStatistics setRowCount(double rowCount) {
+        this.rowCount = rowCount;
+        return this;
+    }
+
+    public TableStatistics setDistinctValues(String column, double count) {
+        this.distinctValues.put(column, count);
+        return this;
+    }
+
+    @Nullable
+    public Double getDistinctValues(String column) {
+        return this.distinctValues.get(column);
+    }
+
+    @Override
+    public String toString() {
+        // Sorted, so that equal statistics have the same representation
+        return "rows=" + this.rowCount + ", distinct=" + new TreeMap<>(this.distinctValues);
+    }
+
+    /**
+     * Parse statistics from properties of the form
+     * TABLE.rows=1000
+     * TABLE.COLUMN.distinct=10
+     * @return A map from table name to the table statistics.
+     */
+    public static Map<String, TableStatistics> parse(Properties properties) {
+        Map<String, TableStatistics> result = new HashMap<>();
+        for (String key: properties.stringPropertyNames()) {
+            String[] parts = key.split("\\.");
+            String value = properties.getProperty(key);
+            double number;
+            try {
+                number = Double.parseDouble(value);
+            } catch (NumberFormatException ex) {
+                throw new RuntimeException("Illegal value for statistic " + key + ": " + value);
+            }
+            TableStatistics stats = result.computeIfAbsent(parts[0], t -> new TableStatistics());
+            if (parts.length == 2 && parts[1].equals("rows"))
+                stats.setRowCount(number);
+            else if (parts.length == 3 && parts[2].equals("distinct"))
+                stats.setDistinctValues(parts[1], number);
+            else
+                throw new RuntimeException("Unexpected statistic " + key);
+        }
+        return result;
+    }
+
+    /**
+     * Read statistics from a properties file.
+     */
+    public static Map<String, TableStatistics> load(String file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream stream = new FileInputStream(file)) {
+            properties.load(stream);
+        }
+        return parse(properties);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.sqlCompiler.compiler.visitors;
+
+import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.IDBSPInnerDeclaration;
+import org.dbsp.sqlCompiler.circuit.IDBSPInnerNode;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.pattern.DBSPIdentifierPattern;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.util.IndentStream;
+import org.dbsp.util.Linq;
+import org.dbsp.util.Logger;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Common-subexpression elimination for circuits.
+ * Two operators are merged if they have the same class, perform the same
+ * operation, produce the same type, have the same inputs, and their
+ * functions have the same structure.  The functions are compared after
+ * replacing each reference to a circuit declaration with the declaration's
+ * initializer, since the compiler gives every closure a fresh name, and
+ * after renaming the closure parameters.  In particular identical indexes of
+ * the same collection are merged, so all joins that use them share one
+ * arrangement (DBSP caches the trace built for each stream).
+ * Each operator lists the values its result depends on in
+ * {@link DBSPOperator#getEquivalenceKey}; operators which do not,
+ * such as sources and sinks, are never merged.
+ */
+public class CSEVisitor extends CircuitCloneVisitor {
+    /**
+     * Maps a structural description of an operator to the first
+     * operator in the result circuit with that description.
+     */
+    final Map<String, DBSPOperator> canonical = new HashMap<>();
+
+    public CSEVisitor() {
+        super(false);
+    }
+
+    /**
+     * Renders inner nodes as Rust, but expands references to circuit
+     * declarations into the declaration contents.  The parameters of
+     * closures are given canonical names, so that closures which only
+     * differ in the names of their parameters have the same rendering.
+     */
+    static class ExpandDeclarationsVisitor extends ToRustInnerVisitor {
+        final DBSPCircuit circuit;
+        /**
+         * Canonical names of the closure parameters in scope.
+         * They are not legal identifiers, so they cannot clash with other names.
+         */
+        final Map<String, String> parameterNames = new HashMap<>();
+        int closureDepth = 0;
+
+        ExpandDeclarationsVisitor(IndentStream builder, DBSPCircuit circuit) {
+            super(builder);
+            this.circuit = circuit;
+        }
+
+        @Override
+        public boolean preorder(DBSPClosureExpression expression) {
+            Map<String, String> saved = new HashMap<>(this.parameterNames);
+            for (int i = 0; i < expression.parameters.length; i++) {
+                DBSPIdentifierPattern pattern = expression.parameters[i].pattern.as(DBSPIdentifierPattern.class);
+                if (pattern != null)
+                    this.parameterNames.put(pattern.identifier, "#" + this.closureDepth + "_" + i);
+            }
+            this.closureDepth++;
+            super.preorder(expression);
+            this.closureDepth--;
+            this.parameterNames.clear();
+            this.parameterNames.putAll(saved);
+            return false;
+        }
+
+        @Override
+        public boolean preorder(DBSPIdentifierPattern pattern) {
+            this.builder.append(pattern.mutable ? "mut " : "")
+                    .append(this.parameterNames.getOrDefault(pattern.identifier, pattern.identifier));
+            return false;
+        }
+
+        @Override
+        public boolean preorder(DBSPVariablePath expression) {
+            String parameter = this.parameterNames.get(expression.variable);
+            if (parameter != null) {
+                this.builder.append(parameter);
+                return false;
+            }
+            IDBSPInnerDeclaration decl = this.circuit.declarations.get(expression.variable);
+            if (decl != null && decl.is(DBSPLetStatement.class)) {
+                DBSPLetStatement let = decl.to(DBSPLetStatement.class);
+                if (let.initializer != null) {
+                    let.initializer.accept(this);
+                    return false;
+                }
+            }
+            return super.preorder(expression);
+        }
+    }
+
+    /**
+     * A string which describes the structure of an inner node, where
+     * all references to declarations in the circuit have been expanded.
+     */
+    public static String structure(DBSPCircuit circuit, IDBSPInnerNode node) {
+        StringBuilder builder = new StringBuilder();
+        ExpandDeclarationsVisitor visitor = new ExpandDeclarationsVisitor(new IndentStream(builder), circuit);
+        node.accept(visitor);
+        return builder.toString();
+    }
+
+    /**
+     * A string describing the structure of the operator, or null if the
+     * operator cannot be merged with other operators.
+     */
+    @Nullable
+    String getKey(DBSPOperator operator, List<DBSPOperator> sources) {
+        List<Object> equivalenceKey = operator.getEquivalenceKey();
+        if (equivalenceKey == null)
+            return null;
+        StringBuilder builder = new StringBuilder();
+        builder.append(operator.getClass().getSimpleName())
+                .append(":")
+                .append(operator.operation)
+                .append(":")
+                .append(operator.isMultiset)
+                .append(":")
+                .append(structure(this.getCircuit(), operator.outputType))
+                .append(":")
+                .append(String.join(",", Linq.map(sources, s -> Long.toString(s.id))))
+                .append(":");
+        for (Object value: equivalenceKey) {
+            if (value instanceof IDBSPInnerNode)
+                builder.append(structure(this.getCircuit(), (IDBSPInnerNode) value));
+            else
+                builder.append(value);
+            builder.append(":");
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public void replace(DBSPOperator operator) {
+        if (this.visited.contains(operator)) {
+            super.replace(operator);
+            return;
+        }
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        String key = this.getKey(operator, sources);
+        if (key == null) {
+            super.replace(operator);
+            return;
+        }
+        DBSPOperator existing = this.canonical.get(key);
+        if (existing != null) {
+            Logger.instance.log(this, 1, stream -> stream
+                    .append(this.toString())
+                    .append(" merging ")
+                    .append(operator.toString())
+                    .append(" with ")
+                    .append(existing.toString())
+                    .newline());
+            this.visited.add(operator);
+            this.map(operator, existing, false);
+            return;
+        }
+        super.replace(operator);
+        this.canonical.put(key, this.mapped(operator));
+    }
+}
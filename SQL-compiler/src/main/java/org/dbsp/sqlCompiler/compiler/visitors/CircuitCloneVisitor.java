@@ -27,6 +27,10 @@ import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
 import org.dbsp.sqlCompiler.circuit.IDBSPInnerDeclaration;
 import org.dbsp.sqlCompiler.circuit.operator.*;
 import org.dbsp.sqlCompiler.ir.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
 import org.dbsp.util.IModule;
 import org.dbsp.util.Linq;
 import org.dbsp.util.Logger;
@@ -65,14 +69,36 @@ public class CircuitCloneVisitor extends CircuitVisitor
         return Utilities.getExists(this.remap, original);
     }
 
+    /**
+     * Find the closure computed by an operator function.
+     * @param function  An operator function; may be a reference to
+     *                  a declaration in the circuit being visited.
+     * @return null if the function is not a closure.
+     */
+    @Nullable
+    public DBSPClosureExpression resolveClosure(@Nullable DBSPExpression function) {
+        if (function == null)
+            return null;
+        if (function.is(DBSPVariablePath.class)) {
+            String name = function.to(DBSPVariablePath.class).variable;
+            IDBSPInnerDeclaration decl = this.getCircuit().declarations.get(name);
+            if (decl == null || !decl.is(DBSPLetStatement.class))
+                return null;
+            function = decl.to(DBSPLetStatement.class).initializer;
+            if (function == null)
+                return null;
+        }
+        return function.as(DBSPClosureExpression.class);
+    }
+
     void map(DBSPOperator old, DBSPOperator newOp, boolean add) {
-        Logger.instance.from(this, 1)
+        Logger.instance.log(this, 1, stream -> stream
                 .append(this.toString())
                 .append(":")
                 .append(old.toString())
                 .append(" -> ")
                 .append(newOp.toString())
-                .newline();
+                .newline());
         Utilities.putNew(this.remap, old, newOp);
         if (add)
             this.addOperator(newOp);
@@ -83,11 +109,11 @@ public class CircuitCloneVisitor extends CircuitVisitor
     }
 
     void addOperator(DBSPOperator operator) {
-        Logger.instance.from(this, 1)
+        Logger.instance.log(this, 1, stream -> stream
                 .append(this.toString())
                 .append(" adding ")
                 .append(operator.toString())
-                .newline();
+                .newline());
         this.getResult().addOperator(operator);
     }
 
@@ -103,7 +129,7 @@ public class CircuitCloneVisitor extends CircuitVisitor
             return;
         this.visited.add(operator);
         List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
-        Logger.instance.from(this, 1)
+        Logger.instance.log(this, 1, stream -> stream
                 .append(this.toString())
                 .append(" replacing inputs of ")
                 .increase()
@@ -114,7 +140,7 @@ public class CircuitCloneVisitor extends CircuitVisitor
                 .append("with:")
                 .join(", ", Linq.map(sources, DBSPOperator::toString))
                 .newline()
-                .decrease();
+                .decrease());
         DBSPOperator result = operator.replaceInputs(sources, this.force);
         this.map(operator, result);
     }
@@ -211,6 +237,46 @@ public class CircuitCloneVisitor extends CircuitVisitor
         this.replace(operator);
     }
 
+    @Override
+    public void postorder(DBSPSemiJoinOperator operator) {
+        this.replace(operator);
+    }
+
+    @Override
+    public void postorder(DBSPIncrementalSemiJoinOperator operator) {
+        this.replace(operator);
+    }
+
+    @Override
+    public void postorder(DBSPAntiJoinOperator operator) {
+        this.replace(operator);
+    }
+
+    @Override
+    public void postorder(DBSPIncrementalAntiJoinOperator operator) {
+        this.replace(operator);
+    }
+
+    @Override
+    public void postorder(DBSPRangeJoinOperator operator) {
+        this.replace(operator);
+    }
+
+    @Override
+    public void postorder(DBSPIncrementalRangeJoinOperator operator) {
+        this.replace(operator);
+    }
+
+    @Override
+    public void postorder(DBSPMultiJoinOperator operator) {
+        this.replace(operator);
+    }
+
+    @Override
+    public void postorder(DBSPIncrementalMultiJoinOperator operator) {
+        this.replace(operator);
+    }
+
     @Override
     public void postorder(DBSPIncrementalDistinctOperator operator) {
         this.replace(operator);
@@ -221,6 +287,26 @@ public class CircuitCloneVisitor extends CircuitVisitor
         this.replace(operator);
     }
 
+    @Override
+    public void postorder(DBSPLinearAggregateOperator operator) {
+        this.replace(operator);
+    }
+
+    @Override
+    public void postorder(DBSPMinMaxOperator operator) {
+        this.replace(operator);
+    }
+
+    @Override
+    public void postorder(DBSPIncrementalMinMaxOperator operator) {
+        this.replace(operator);
+    }
+
+    @Override
+    public void postorder(DBSPTopKOperator operator) {
+        this.replace(operator);
+    }
+
     public DBSPCircuit getResult() {
         return Objects.requireNonNull(this.result);
     }
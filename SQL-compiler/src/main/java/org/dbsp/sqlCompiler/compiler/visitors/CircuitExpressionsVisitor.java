@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.dbsp.sqlCompiler.compiler.visitors;
+
+import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.IDBSPInnerDeclaration;
+import org.dbsp.sqlCompiler.circuit.operator.*;
+import org.dbsp.sqlCompiler.ir.CircuitVisitor;
+import org.dbsp.sqlCompiler.ir.InnerVisitor;
+
+/**
+ * Applies an inner visitor to all the declarations, functions, and
+ * output types of the operators in a circuit.
+ */
+public class CircuitExpressionsVisitor extends CircuitVisitor {
+    final InnerVisitor visitor;
+
+    public CircuitExpressionsVisitor(InnerVisitor visitor) {
+        super(true);
+        this.visitor = visitor;
+    }
+
+    @Override
+    public boolean preorder(DBSPCircuit circuit) {
+        super.preorder(circuit);
+        for (IDBSPInnerDeclaration decl : circuit.declarations.values())
+            decl.accept(this.visitor);
+        return true;
+    }
+
+    @Override
+    public boolean preorder(DBSPOperator operator) {
+        if (operator.function != null)
+            operator.function.accept(this.visitor);
+        operator.outputType.accept(this.visitor);
+        return true;
+    }
+
+    @Override
+    public boolean preorder(DBSPAggregateOperator operator) {
+        if (operator.linearFunction != null)
+            operator.linearFunction.accept(this.visitor);
+        if (operator.linearPostprocess != null)
+            operator.linearPostprocess.accept(this.visitor);
+        return super.preorder(operator);
+    }
+
+    @Override
+    public boolean preorder(DBSPLinearAggregateOperator operator) {
+        operator.postprocess.accept(this.visitor);
+        return super.preorder(operator);
+    }
+
+    @Override
+    public boolean preorder(DBSPWindowAggregateOperator operator) {
+        operator.aggregator.accept(this.visitor);
+        operator.window.accept(this.visitor);
+        return super.preorder(operator);
+    }
+
+    @Override
+    public boolean preorder(DBSPRangeJoinOperator operator) {
+        operator.rangeFunction.accept(this.visitor);
+        return super.preorder(operator);
+    }
+
+    @Override
+    public boolean preorder(DBSPIncrementalRangeJoinOperator operator) {
+        operator.rangeFunction.accept(this.visitor);
+        return super.preorder(operator);
+    }
+
+    @Override
+    public boolean preorder(DBSPMultiJoinOperator operator) {
+        for (DBSPMultiJoinOperator.JoinEdge edge : operator.edges) {
+            edge.leftKey.accept(this.visitor);
+            edge.rightKey.accept(this.visitor);
+        }
+        return super.preorder(operator);
+    }
+
+    @Override
+    public boolean preorder(DBSPIncrementalMultiJoinOperator operator) {
+        for (DBSPMultiJoinOperator.JoinEdge edge : operator.edges) {
+            edge.leftKey.accept(this.visitor);
+            edge.rightKey.accept(this.visitor);
+        }
+        return super.preorder(operator);
+    }
+}
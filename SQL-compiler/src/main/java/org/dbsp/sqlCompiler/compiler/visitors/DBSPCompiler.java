@@ -23,18 +23,32 @@
 
 package org.dbsp.sqlCompiler.compiler.visitors;
 
+import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.sql.SqlNode;
 import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.ddl.SqlCreateView;
 import org.apache.calcite.sql.parser.SqlParseException;
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
 import org.dbsp.sqlCompiler.compiler.CompilerOptions;
 import org.dbsp.sqlCompiler.compiler.sqlparser.CalciteCompiler;
+import org.dbsp.sqlCompiler.compiler.sqlparser.Catalog;
+import org.dbsp.sqlCompiler.compiler.sqlparser.TableStatistics;
+import org.dbsp.sqlCompiler.compiler.frontend.statements.CreateViewStatement;
 import org.dbsp.sqlCompiler.compiler.frontend.statements.FrontEndStatement;
 import org.dbsp.sqlCompiler.compiler.frontend.CalciteToDBSPCompiler;
 import org.dbsp.sqlCompiler.compiler.frontend.TableContents;
 import org.dbsp.util.IModule;
+import org.dbsp.util.Profiler;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * This class compiles SQL statements into DBSP circuits.
@@ -51,10 +65,15 @@ public class DBSPCompiler implements IModule {
     final CalciteCompiler frontend;
     final CalciteToDBSPCompiler midend;
     public final CompilerOptions options;
+    /**
+     * Records the cost of each compilation phase; enabled by the --profile option.
+     */
+    public final Profiler profiler;
 
     public DBSPCompiler(CompilerOptions options) {
         this.options = options;
-        this.frontend = new CalciteCompiler(options);
+        this.profiler = new Profiler(options.ioOptions.profileFile != null);
+        this.frontend = new CalciteCompiler(options, this.profiler);
         this.midend = new CalciteToDBSPCompiler(this.frontend, true, options);
     }
 
@@ -81,20 +100,136 @@ public class DBSPCompiler implements IModule {
         this.midend.generateOutputForNextView(generate);
     }
 
+    /**
+     * Declare statistics for a table; they are used to choose the order of joins.
+     */
+    public void setTableStatistics(String tableName, TableStatistics statistics) {
+        this.frontend.setStatistics(tableName, statistics);
+    }
+
+    /**
+     * Translate a statement compiled by Calcite to DBSP.
+     */
+    void translate(FrontEndStatement statement) {
+        if (!this.profiler.enabled) {
+            // Statements may be compiled before a circuit is created
+            this.midend.compile(statement);
+            return;
+        }
+        DBSPCircuit circuit = this.midend.getCircuit();
+        Profiler.Phase phase = this.profiler.start("CalciteToDBSPCompiler")
+                .before("operators", circuit.operators.size())
+                .before("declarations", circuit.declarations.size());
+        this.midend.compile(statement);
+        phase.after("operators", circuit.operators.size())
+                .after("declarations", circuit.declarations.size())
+                .end();
+    }
+
     public void compileStatement(String statement, @Nullable String comment) throws SqlParseException {
+        Profiler.Phase phase = this.profiler.start("parse");
         SqlNode node = this.frontend.parse(statement);
+        phase.end();
         FrontEndStatement fe = this.frontend.compile(statement, node, comment);
-        this.midend.compile(fe);
+        this.translate(fe);
     }
 
     public void compileStatements(String statements) throws SqlParseException {
+        Profiler.Phase phase = this.profiler.start("parse");
         SqlNodeList nodes = this.frontend.parseStatements(statements);
+        phase.after("statements", nodes.size())
+                .end();
+        if (this.options.threads > 1) {
+            this.compileInParallel(nodes);
+            return;
+        }
         for (SqlNode node: nodes) {
             FrontEndStatement fe = this.frontend.compile(node.toString(), node, null);
-            this.midend.compile(fe);
+            this.translate(fe);
         }
     }
 
+    /**
+     * Compile a list of statements, running the Calcite compiler on consecutive
+     * CREATE VIEW statements in parallel.  The resulting circuit is the same
+     * as the one produced by compiling the statements sequentially.
+     */
+    void compileInParallel(SqlNodeList nodes) {
+        ForkJoinPool pool = new ForkJoinPool(this.options.threads);
+        try {
+            List<SqlNode> views = new ArrayList<>();
+            for (SqlNode node: nodes) {
+                if (node.getKind().equals(SqlKind.CREATE_VIEW)) {
+                    views.add(node);
+                    continue;
+                }
+                this.compileViews(pool, views);
+                views.clear();
+                FrontEndStatement fe = this.frontend.compile(node.toString(), node, null);
+                this.translate(fe);
+            }
+            this.compileViews(pool, views);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compile a sequence of CREATE VIEW statements.
+     * Calcite compilers are not thread-safe, so each view is compiled by a separate compiler,
+     * once all the previous views it may refer to have been compiled.
+     * The views are then translated to DBSP in the original order.
+     */
+    void compileViews(ForkJoinPool pool, List<SqlNode> views) {
+        FrontEndStatement[] compiled = new FrontEndStatement[views.size()];
+        List<Set<String>> names = new ArrayList<>();
+        for (SqlNode node: views)
+            names.add(Catalog.getNames(((SqlCreateView) node).query));
+
+        int done = 0;
+        while (done < views.size()) {
+            List<Integer> ready = new ArrayList<>();
+            List<Callable<FrontEndStatement>> tasks = new ArrayList<>();
+            Set<String> pending = new HashSet<>();
+            for (int i = 0; i < views.size(); i++) {
+                if (compiled[i] != null)
+                    continue;
+                SqlCreateView view = (SqlCreateView) views.get(i);
+                boolean isReady = true;
+                for (String name: names.get(i)) {
+                    if (pending.contains(name)) {
+                        isReady = false;
+                        break;
+                    }
+                }
+                pending.add(Catalog.identifierToString(view.name));
+                if (!isReady)
+                    continue;
+                ready.add(i);
+                tasks.add(() -> new CalciteCompiler(this.frontend).compile(view.toString(), view, null));
+            }
+
+            List<Future<FrontEndStatement>> results = pool.invokeAll(tasks);
+            for (int i = 0; i < ready.size(); i++) {
+                int index = ready.get(i);
+                try {
+                    compiled[index] = results.get(i).get();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) ex.getCause();
+                    throw new RuntimeException(ex.getCause());
+                }
+                this.frontend.addView((CreateViewStatement) compiled[index]);
+                done++;
+            }
+        }
+
+        for (FrontEndStatement fe: compiled)
+            this.translate(fe);
+    }
+
     public DBSPCircuit getResult() {
         return this.midend.getCircuit();
     }
@@ -49,10 +49,10 @@ public class DeadCodeVisitor extends CircuitVisitor implements IModule {
     }
 
     public void keep(DBSPOperator operator) {
-        Logger.instance.from(this, 1)
+        Logger.instance.log(this, 1, stream -> stream
                 .append(operator.toString())
                 .append(" reachable")
-                .newline();
+                .newline());
         this.reachable.add(operator);
     }
 
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.sqlCompiler.compiler.visitors;
+
+import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.operator.*;
+import org.dbsp.sqlCompiler.ir.expression.*;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeIndexedZSet;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeRawTuple;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeRef;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeTuple;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeZSet;
+import org.dbsp.util.Linq;
+import org.dbsp.util.Utilities;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Removes tuple fields which are not used downstream.
+ * A backwards analysis computes for each operator the fields of its
+ * output (for indexed collections, of its values) that its consumers read.
+ * Map, Join, Index and MapIndex operators are then rewritten to produce
+ * only these fields, and the closures of their consumers are renumbered.
+ * Filter, Negate, Integral and Differential operators pass the narrowed
+ * tuples through.  All other operators are assumed to need every field.
+ * Operators that do not contribute to any output are removed, since their
+ * uses would make the analysis imprecise.
+ */
+public class DeadColumnsVisitor extends CircuitCloneVisitor {
+    /**
+     * For each operator in the original circuit the fields of its output that are used.
+     */
+    final Map<DBSPOperator, Set<Integer>> used = new HashMap<>();
+    /**
+     * Operators in the original circuit whose output fields are all used.
+     */
+    final Set<DBSPOperator> needsAll = new HashSet<>();
+    /**
+     * For operators in the original circuit whose output was narrowed,
+     * the original index of each field in the narrowed output.
+     */
+    final Map<DBSPOperator, List<Integer>> layout = new HashMap<>();
+    final DeadCodeVisitor dead = new DeadCodeVisitor();
+
+    public DeadColumnsVisitor() {
+        super(false);
+    }
+
+    @Override
+    public boolean preorder(DBSPCircuit circuit) {
+        super.preorder(circuit);
+        this.dead.apply(circuit);
+        List<DBSPOperator> consumers = new ArrayList<>(circuit.operators);
+        consumers.addAll(circuit.outputOperators);
+        Collections.reverse(consumers);
+        for (DBSPOperator operator: consumers)
+            if (this.dead.reachable.contains(operator))
+                this.analyze(operator);
+        return true;
+    }
+
+    /**
+     * Record that the specified fields of an operator output are used.
+     * @param fields  If null all fields are used.
+     */
+    void use(DBSPOperator operator, @Nullable Set<Integer> fields) {
+        if (fields == null)
+            this.needsAll.add(operator);
+        else
+            this.used.computeIfAbsent(operator, o -> new HashSet<>()).addAll(fields);
+    }
+
+    /**
+     * Record the fields of 'input' read by the specified parameter of a closure.
+     * Parameter 0 receives a whole tuple from a collection; the
+     * other parameters receive the values of an indexed collection.
+     */
+    void useParameter(DBSPOperator input, @Nullable DBSPClosureExpression closure, int parameter) {
+        if (closure == null || closure.parameters.length <= parameter) {
+            this.use(input, null);
+            return;
+        }
+        if (parameter == 0 && !input.outputType.is(DBSPTypeZSet.class)) {
+            // The closure receives a key-value pair from an indexed collection.
+            this.use(input, null);
+            return;
+        }
+        String name = FieldSubstitutionVisitor.parameterName(closure.parameters[parameter]);
+        if (name == null) {
+            this.use(input, null);
+            return;
+        }
+        FieldUsageVisitor visitor = new FieldUsageVisitor(name);
+        closure.body.accept(visitor);
+        this.use(input, visitor.wholeUse ? null : visitor.used);
+    }
+
+    /**
+     * Pass the fields used from an operator to its input.
+     */
+    void passThrough(DBSPOperator operator) {
+        DBSPOperator input = operator.inputs.get(0);
+        if (this.needsAll.contains(operator))
+            this.use(input, null);
+        else
+            this.use(input, this.used.getOrDefault(operator, new HashSet<>()));
+    }
+
+    static boolean isPassThrough(DBSPOperator operator) {
+        return operator.is(DBSPNegateOperator.class) ||
+                operator.is(DBSPIntegralOperator.class) ||
+                operator.is(DBSPDifferentialOperator.class);
+    }
+
+    static boolean isJoin(DBSPOperator operator) {
+        return operator.is(DBSPJoinOperator.class) || operator.is(DBSPIncrementalJoinOperator.class);
+    }
+
+    void analyze(DBSPOperator operator) {
+        DBSPClosureExpression closure = this.resolveClosure(operator.function);
+        // All consumers of this operator have already been analyzed;
+        // only the fields that will be kept are relevant.
+        List<Integer> fields = this.narrowing(operator, closure);
+        if (fields != null)
+            closure = narrow(Objects.requireNonNull(closure), fields);
+        if (operator.is(DBSPMapOperator.class) ||
+                operator.is(DBSPIndexOperator.class) ||
+                operator.is(DBSPMapIndexOperator.class)) {
+            this.useParameter(operator.inputs.get(0), closure, 0);
+        } else if (operator.is(DBSPFilterOperator.class)) {
+            this.passThrough(operator);
+            this.useParameter(operator.inputs.get(0), closure, 0);
+        } else if (isPassThrough(operator)) {
+            this.passThrough(operator);
+        } else if (isJoin(operator)) {
+            this.useParameter(operator.inputs.get(0), closure, 1);
+            this.useParameter(operator.inputs.get(1), closure, 2);
+        } else {
+            for (DBSPOperator input: operator.inputs)
+                this.use(input, null);
+        }
+    }
+
+    /**
+     * The tuple produced by the closure of an operator that can be narrowed.
+     */
+    @Nullable
+    static DBSPTupleExpression producedTuple(DBSPOperator operator, DBSPClosureExpression closure) {
+        if (operator.is(DBSPMapOperator.class) || isJoin(operator))
+            return closure.body.as(DBSPTupleExpression.class);
+        if (operator.is(DBSPIndexOperator.class) || operator.is(DBSPMapIndexOperator.class)) {
+            DBSPRawTupleExpression keyValue = closure.body.as(DBSPRawTupleExpression.class);
+            if (keyValue == null || keyValue.fields.length != 2)
+                return null;
+            return keyValue.fields[1].as(DBSPTupleExpression.class);
+        }
+        return null;
+    }
+
+    /**
+     * The original indexes of the fields that an operator should produce,
+     * or null if the operator should not be narrowed.
+     */
+    @Nullable
+    List<Integer> narrowing(DBSPOperator operator, @Nullable DBSPClosureExpression closure) {
+        if (closure == null || this.needsAll.contains(operator) || !this.used.containsKey(operator))
+            return null;
+        DBSPTupleExpression tuple = producedTuple(operator, closure);
+        if (tuple == null)
+            return null;
+        List<Integer> fields = new ArrayList<>(this.used.get(operator));
+        if (fields.size() >= tuple.size())
+            return null;
+        Collections.sort(fields);
+        return fields;
+    }
+
+    /**
+     * Rewrite the closure so that it only produces the specified fields.
+     */
+    static DBSPClosureExpression narrow(DBSPClosureExpression closure, List<Integer> fields) {
+        DBSPExpression body = closure.body;
+        DBSPTupleExpression tuple;
+        DBSPRawTupleExpression keyValue = body.as(DBSPRawTupleExpression.class);
+        if (keyValue != null)
+            tuple = keyValue.fields[1].to(DBSPTupleExpression.class);
+        else
+            tuple = body.to(DBSPTupleExpression.class);
+        DBSPTupleExpression narrowed = new DBSPTupleExpression(
+                tuple.getNode(), Linq.map(fields, tuple::get));
+        if (keyValue != null)
+            body = new DBSPRawTupleExpression(keyValue.fields[0], narrowed);
+        else
+            body = narrowed;
+        return new DBSPClosureExpression(closure.getNode(), body, closure.parameters);
+    }
+
+    /**
+     * The type of the tuples (or of the values, for indexed collections) produced by an operator.
+     */
+    static DBSPType elementType(DBSPOperator operator) {
+        DBSPTypeZSet zset = operator.outputType.as(DBSPTypeZSet.class);
+        if (zset != null)
+            return zset.elementType;
+        return operator.outputType.to(DBSPTypeIndexedZSet.class).elementType;
+    }
+
+    /**
+     * Rewrite a closure whose parameter now receives a narrowed tuple.
+     * @param closure    Closure to rewrite.
+     * @param parameter  Index of the parameter that receives narrowed data.
+     * @param input      Original operator that produces the parameter.
+     * @param newInput   Operator that produces the parameter in the result circuit.
+     */
+    DBSPClosureExpression renumber(DBSPClosureExpression closure, int parameter,
+                                   DBSPOperator input, DBSPOperator newInput) {
+        List<Integer> fields = this.layout.get(input);
+        if (fields == null)
+            return closure;
+        DBSPClosureExpression.Parameter param = closure.parameters[parameter];
+        String name = Objects.requireNonNull(FieldSubstitutionVisitor.parameterName(param));
+        DBSPType type = elementType(newInput);
+        if (Objects.requireNonNull(param.type).is(DBSPTypeRef.class))
+            type = type.ref();
+        DBSPVariablePath var = new DBSPVariablePath(name, type);
+        int width = elementType(input).to(DBSPTypeTuple.class).size();
+        DBSPExpression[] replacements = new DBSPExpression[width];
+        for (int i = 0; i < fields.size(); i++)
+            replacements[fields.get(i)] = var.field(i);
+        DBSPExpression body = FieldSubstitutionVisitor.substitute(closure.body, name, replacements);
+        if (body == null)
+            throw new RuntimeException("Could not renumber fields of " + closure);
+        DBSPClosureExpression.Parameter[] parameters = Arrays.copyOf(closure.parameters, closure.parameters.length);
+        parameters[parameter] = new DBSPClosureExpression.Parameter(param.pattern, type);
+        return new DBSPClosureExpression(closure.getNode(), body, parameters);
+    }
+
+    /**
+     * Build the operator which replaces 'operator' in the result circuit.
+     * @return null if the operator does not need to change.
+     */
+    @Nullable
+    DBSPOperator rewrite(DBSPOperator operator) {
+        List<DBSPOperator> inputs = Linq.map(operator.inputs, this::mapped);
+        boolean inputsNarrowed = Linq.any(operator.inputs, this.layout::containsKey);
+        DBSPClosureExpression closure = this.resolveClosure(operator.function);
+        List<Integer> fields = this.narrowing(operator, closure);
+        if (!inputsNarrowed && fields == null)
+            return null;
+
+        if (operator.is(DBSPFilterOperator.class)) {
+            DBSPClosureExpression condition = this.renumber(
+                    Objects.requireNonNull(closure), 0, operator.inputs.get(0), inputs.get(0));
+            this.inheritLayout(operator);
+            return new DBSPFilterOperator(operator.getNode(), condition, inputs.get(0));
+        } else if (isPassThrough(operator)) {
+            this.inheritLayout(operator);
+            return operator.replaceInputs(inputs, false);
+        }
+
+        Objects.requireNonNull(closure);
+        // Narrow first: the dropped fields may read input fields which are no longer available.
+        if (fields != null) {
+            closure = narrow(closure, fields);
+            Utilities.putNew(this.layout, operator, fields);
+        }
+        if (isJoin(operator)) {
+            closure = this.renumber(closure, 1, operator.inputs.get(0), inputs.get(0));
+            closure = this.renumber(closure, 2, operator.inputs.get(1), inputs.get(1));
+        } else {
+            closure = this.renumber(closure, 0, operator.inputs.get(0), inputs.get(0));
+        }
+        DBSPType resultType = closure.getNonVoidResultType();
+        if (operator.is(DBSPMapOperator.class)) {
+            return new DBSPMapOperator(operator.getNode(), closure, resultType, inputs.get(0));
+        } else if (operator.is(DBSPJoinOperator.class)) {
+            return new DBSPJoinOperator(operator.getNode(), resultType, closure,
+                    operator.isMultiset, inputs.get(0), inputs.get(1));
+        } else if (operator.is(DBSPIncrementalJoinOperator.class)) {
+            return new DBSPIncrementalJoinOperator(operator.getNode(), resultType, closure,
+                    operator.isMultiset, inputs.get(0), inputs.get(1));
+        } else if (operator.is(DBSPIndexOperator.class)) {
+            DBSPIndexOperator index = operator.to(DBSPIndexOperator.class);
+            DBSPType valueType = resultType.to(DBSPTypeRawTuple.class).tupFields[1];
+            return new DBSPIndexOperator(operator.getNode(), closure, index.keyType,
+                    valueType, operator.isMultiset, inputs.get(0));
+        } else if (operator.is(DBSPMapIndexOperator.class)) {
+            DBSPMapIndexOperator index = operator.to(DBSPMapIndexOperator.class);
+            DBSPType valueType = resultType.to(DBSPTypeRawTuple.class).tupFields[1];
+            return new DBSPMapIndexOperator(operator.getNode(), closure, index.keType,
+                    valueType, inputs.get(0));
+        }
+        throw new RuntimeException("Unexpected operator with narrowed inputs " + operator);
+    }
+
+    void inheritLayout(DBSPOperator operator) {
+        List<Integer> fields = this.layout.get(operator.inputs.get(0));
+        if (fields != null)
+            Utilities.putNew(this.layout, operator, fields);
+    }
+
+    @Override
+    public void replace(DBSPOperator operator) {
+        if (this.visited.contains(operator))
+            return;
+        if (!this.dead.reachable.contains(operator)) {
+            this.visited.add(operator);
+            return;
+        }
+        DBSPOperator result = this.rewrite(operator);
+        if (result == null) {
+            super.replace(operator);
+            return;
+        }
+        this.visited.add(operator);
+        this.map(operator, result);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.sqlCompiler.compiler.visitors;
+
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+import org.dbsp.sqlCompiler.ir.pattern.DBSPIdentifierPattern;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+
+import javax.annotation.Nullable;
+
+/**
+ * Replaces each field access v.i of a variable v with a given expression.
+ * This is used to compose closures whose parameter is a tuple with
+ * closures that produce tuples.
+ * The substitution fails if the variable is used in any other way,
+ * or if the variable is shadowed by an inner declaration.
+ */
+public class FieldSubstitutionVisitor extends InnerRewriteVisitor {
+    final String variable;
+    final DBSPExpression[] fields;
+    boolean failed = false;
+
+    public FieldSubstitutionVisitor(String variable, DBSPExpression[] fields) {
+        this.variable = variable;
+        this.fields = fields;
+    }
+
+    @Override
+    public boolean preorder(DBSPFieldExpression expression) {
+        if (expression.expression.is(DBSPVariablePath.class)) {
+            DBSPVariablePath var = expression.expression.to(DBSPVariablePath.class);
+            if (var.variable.equals(this.variable)) {
+                if (expression.fieldNo < this.fields.length)
+                    this.set(this.fields[expression.fieldNo]);
+                else
+                    this.failed = true;
+                return false;
+            }
+        }
+        return super.preorder(expression);
+    }
+
+    @Override
+    public boolean preorder(DBSPVariablePath expression) {
+        if (expression.variable.equals(this.variable))
+            this.failed = true;
+        return super.preorder(expression);
+    }
+
+    @Override
+    public boolean preorder(DBSPClosureExpression expression) {
+        for (DBSPClosureExpression.Parameter param: expression.parameters)
+            if (this.variable.equals(parameterName(param)))
+                this.failed = true;
+        return super.preorder(expression);
+    }
+
+    @Override
+    public boolean preorder(DBSPLetStatement statement) {
+        if (statement.variable.equals(this.variable))
+            this.failed = true;
+        return super.preorder(statement);
+    }
+
+    /**
+     * The name of the variable bound by a closure parameter, or null
+     * if the parameter is not a simple identifier.
+     */
+    @Nullable
+    public static String parameterName(DBSPClosureExpression.Parameter parameter) {
+        DBSPIdentifierPattern id = parameter.pattern.as(DBSPIdentifierPattern.class);
+        if (id == null)
+            return null;
+        return id.identifier;
+    }
+
+    /**
+     * Substitute in 'expression' each field access variable.i with fields[i].
+     * @return null if the substitution is not possible.
+     */
+    @Nullable
+    public static DBSPExpression substitute(DBSPExpression expression, String variable, DBSPExpression[] fields) {
+        FieldSubstitutionVisitor visitor = new FieldSubstitutionVisitor(variable, fields);
+        DBSPExpression result = visitor.transform(expression);
+        if (visitor.failed)
+            return null;
+        return result;
+    }
+}
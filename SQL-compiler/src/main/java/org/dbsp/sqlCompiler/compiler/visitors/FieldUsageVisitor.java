@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.sqlCompiler.compiler.visitors;
+
+import org.dbsp.sqlCompiler.ir.InnerVisitor;
+import org.dbsp.sqlCompiler.ir.expression.DBSPFieldExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPVariablePath;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Computes the fields of a tuple variable which are used by an expression.
+ */
+public class FieldUsageVisitor extends InnerVisitor {
+    final String variable;
+    /**
+     * Indexes of the fields that are accessed.
+     */
+    public final Set<Integer> used = new HashSet<>();
+    /**
+     * True if the variable is used in a position other than a field access.
+     */
+    public boolean wholeUse = false;
+
+    public FieldUsageVisitor(String variable) {
+        super(true);
+        this.variable = variable;
+    }
+
+    @Override
+    public boolean preorder(DBSPFieldExpression expression) {
+        if (expression.expression.is(DBSPVariablePath.class)) {
+            DBSPVariablePath var = expression.expression.to(DBSPVariablePath.class);
+            if (var.variable.equals(this.variable)) {
+                this.used.add(expression.fieldNo);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean preorder(DBSPVariablePath expression) {
+        if (expression.variable.equals(this.variable))
+            this.wholeUse = true;
+        return true;
+    }
+
+    /**
+     * True if the variable does not appear at all.
+     */
+    public boolean unused() {
+        return !this.wholeUse && this.used.isEmpty();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.sqlCompiler.compiler.visitors;
+
+import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.operator.*;
+import org.dbsp.sqlCompiler.ir.expression.DBSPClosureExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPRawTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.util.Linq;
+import org.dbsp.util.Logger;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Moves filters closer to the circuit inputs.
+ * A filter is pushed through Map, Sum, Subtract, Negate, Distinct, Filter,
+ * Integral and Differential operators, and into the input of a Join when
+ * the filter condition only depends on fields coming from one side of the join.
+ * The filter closure is rewritten by substituting the fields of the filtered row
+ * with the expressions that compute them.
+ * An operator is only rewritten if the filter is its only consumer.
+ * The original operators become dead; the DeadCodeVisitor removes them.
+ */
+public class FilterPushdownVisitor extends CircuitCloneVisitor {
+    /**
+     * For each operator in the original circuit the number of operators that consume its output.
+     */
+    final Map<DBSPOperator, Integer> fanout = new HashMap<>();
+    /**
+     * Operators in the result circuit which have multiple consumers;
+     * these cannot be rewritten.
+     */
+    final Set<DBSPOperator> shared = new HashSet<>();
+
+    public FilterPushdownVisitor() {
+        super(false);
+    }
+
+    @Override
+    public boolean preorder(DBSPCircuit circuit) {
+        List<DBSPOperator> consumers = new ArrayList<>(circuit.operators);
+        consumers.addAll(circuit.outputOperators);
+        for (DBSPOperator op: consumers)
+            for (DBSPOperator input: op.inputs)
+                this.fanout.merge(input, 1, Integer::sum);
+        return super.preorder(circuit);
+    }
+
+    void markShared(DBSPOperator operator) {
+        if (this.fanout.getOrDefault(operator, 0) > 1)
+            this.shared.add(this.mapped(operator));
+    }
+
+    @Override
+    public void replace(DBSPOperator operator) {
+        super.replace(operator);
+        this.markShared(operator);
+    }
+
+    @Override
+    public void postorder(DBSPFilterOperator operator) {
+        if (this.visited.contains(operator))
+            return;
+        DBSPOperator input = this.mapped(operator.input());
+        DBSPClosureExpression condition = this.resolveClosure(operator.getFunction());
+        DBSPOperator result = null;
+        if (condition != null)
+            result = this.push(operator.getNode(), condition, input);
+        if (result == null) {
+            this.replace(operator);
+            return;
+        }
+        Logger.instance.log(this, 1, stream -> stream
+                .append(this.toString())
+                .append(" pushed ")
+                .append(operator.toString())
+                .append(" below ")
+                .append(input.toString())
+                .newline());
+        this.visited.add(operator);
+        this.map(operator, result, false);
+        this.markShared(operator);
+    }
+
+    /**
+     * Create an operator that filters the input, pushing the filter
+     * further down if possible.
+     */
+    DBSPOperator filter(@Nullable Object node, DBSPClosureExpression condition, DBSPOperator input) {
+        DBSPOperator result = this.push(node, condition, input);
+        if (result != null)
+            return result;
+        result = new DBSPFilterOperator(node, condition, input);
+        this.addOperator(result);
+        return result;
+    }
+
+    /**
+     * Add a new operator which replaces 'operator' and reads from 'inputs'.
+     */
+    DBSPOperator rebuild(DBSPOperator operator, List<DBSPOperator> inputs) {
+        DBSPOperator result = operator.replaceInputs(inputs, false);
+        this.addOperator(result);
+        return result;
+    }
+
+    /**
+     * Try to compute filter(input) by moving the filter below the input operator.
+     * @param node       Calcite node that produced the filter.
+     * @param condition  Filter condition.
+     * @param input      Operator whose output is filtered.
+     * @return null if the filter cannot be pushed.
+     */
+    @Nullable
+    DBSPOperator push(@Nullable Object node, DBSPClosureExpression condition, DBSPOperator input) {
+        if (this.shared.contains(input) || condition.parameters.length != 1)
+            return null;
+        String row = FieldSubstitutionVisitor.parameterName(condition.parameters[0]);
+        if (row == null)
+            return null;
+
+        if (input.is(DBSPSumOperator.class) ||
+                input.is(DBSPSubtractOperator.class) ||
+                input.is(DBSPNegateOperator.class) ||
+                input.is(DBSPDistinctOperator.class) ||
+                input.is(DBSPIncrementalDistinctOperator.class) ||
+                input.is(DBSPFilterOperator.class) ||
+                input.is(DBSPIntegralOperator.class) ||
+                input.is(DBSPDifferentialOperator.class)) {
+            // These operators commute with filters.
+            List<DBSPOperator> inputs = Linq.map(input.inputs, i -> this.filter(node, condition, i));
+            return this.rebuild(input, inputs);
+        } else if (input.is(DBSPMapOperator.class)) {
+            DBSPClosureExpression map = this.resolveClosure(input.function);
+            if (map == null || map.parameters.length != 1)
+                return null;
+            DBSPTupleExpression fields = map.body.as(DBSPTupleExpression.class);
+            if (fields == null)
+                return null;
+            DBSPExpression body = FieldSubstitutionVisitor.substitute(condition.body, row, fields.fields);
+            if (body == null)
+                return null;
+            DBSPClosureExpression newCondition = new DBSPClosureExpression(
+                    condition.getNode(), body, map.parameters);
+            DBSPOperator filtered = this.filter(node, newCondition, input.inputs.get(0));
+            return this.rebuild(input, Linq.list(filtered));
+        } else if (input.is(DBSPJoinOperator.class) || input.is(DBSPIncrementalJoinOperator.class)) {
+            return this.pushIntoJoin(node, condition, row, input);
+        }
+        return null;
+    }
+
+    @Nullable
+    DBSPOperator pushIntoJoin(@Nullable Object node, DBSPClosureExpression condition,
+                              String row, DBSPOperator join) {
+        DBSPClosureExpression pair = this.resolveClosure(join.function);
+        if (pair == null || pair.parameters.length != 3)
+            return null;
+        DBSPTupleExpression fields = pair.body.as(DBSPTupleExpression.class);
+        if (fields == null)
+            return null;
+        DBSPExpression body = FieldSubstitutionVisitor.substitute(condition.body, row, fields.fields);
+        if (body == null)
+            return null;
+
+        // Find out which of the key, left, and right values the condition uses.
+        List<FieldUsageVisitor> usage = new ArrayList<>();
+        for (DBSPClosureExpression.Parameter param: pair.parameters) {
+            String name = FieldSubstitutionVisitor.parameterName(param);
+            if (name == null)
+                return null;
+            FieldUsageVisitor visitor = new FieldUsageVisitor(name);
+            body.accept(visitor);
+            usage.add(visitor);
+        }
+        if (!usage.get(0).unused())
+            return null;
+        int side;
+        if (usage.get(2).unused())
+            side = 0;
+        else if (usage.get(1).unused())
+            side = 1;
+        else
+            return null;
+
+        DBSPOperator index = join.inputs.get(side);
+        if (!index.is(DBSPIndexOperator.class) || this.shared.contains(index))
+            return null;
+        DBSPClosureExpression indexClosure = this.resolveClosure(index.function);
+        if (indexClosure == null || indexClosure.parameters.length != 1)
+            return null;
+        DBSPRawTupleExpression keyValue = indexClosure.body.as(DBSPRawTupleExpression.class);
+        if (keyValue == null || keyValue.fields.length != 2)
+            return null;
+        DBSPTupleExpression value = keyValue.fields[1].as(DBSPTupleExpression.class);
+        if (value == null)
+            return null;
+        String valueVar = usage.get(side + 1).variable;
+        body = FieldSubstitutionVisitor.substitute(body, valueVar, value.fields);
+        if (body == null)
+            return null;
+        DBSPClosureExpression newCondition = new DBSPClosureExpression(
+                condition.getNode(), body, indexClosure.parameters);
+        DBSPOperator filtered = this.filter(node, newCondition, index.inputs.get(0));
+        DBSPOperator newIndex = this.rebuild(index, Linq.list(filtered));
+        List<DBSPOperator> joinInputs = new ArrayList<>(join.inputs);
+        joinInputs.set(side, newIndex);
+        return this.rebuild(join, joinInputs);
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.dbsp.sqlCompiler.compiler.visitors;
+
+import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.operator.*;
+import org.dbsp.sqlCompiler.compiler.frontend.TypeCompiler;
+import org.dbsp.sqlCompiler.ir.expression.*;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPBoolLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.pattern.DBSPIdentifierPattern;
+import org.dbsp.sqlCompiler.ir.pattern.DBSPTupleStructPattern;
+import org.dbsp.sqlCompiler.ir.pattern.DBSPWildcardPattern;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
+import org.dbsp.sqlCompiler.ir.type.DBSPType;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeZSet;
+import org.dbsp.util.Linq;
+import org.dbsp.util.Logger;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Fuses chains of Map, Filter, FlatMap and Index operators into a single operator
+ * with a composed closure, so that DBSP does not materialize the intermediate batches.
+ * A chain containing only maps becomes a Map, or a MapIndex if it ends in an Index.
+ * A chain containing only filters becomes a Filter.
+ * Any other chain becomes a FlatMap whose closure returns an Option.
+ * An operator is only fused with its input if it is the only consumer of the input.
+ * The original operators become dead; the DeadCodeVisitor removes them.
+ */
+public class FusionVisitor extends CircuitCloneVisitor {
+    enum Kind {
+        Map,
+        Filter,
+        FlatMap,
+        Index
+    }
+
+    /**
+     * One operator in a chain of fused operators.
+     */
+    static class Step {
+        public final Kind kind;
+        public final DBSPOperator operator;
+        public final DBSPClosureExpression closure;
+        /**
+         * Name of the closure parameter.
+         */
+        public final String parameter;
+
+        Step(Kind kind, DBSPOperator operator, DBSPClosureExpression closure, String parameter) {
+            this.kind = kind;
+            this.operator = operator;
+            this.closure = closure;
+            this.parameter = parameter;
+        }
+    }
+
+    /**
+     * A sequence of steps applied to the output of an input operator.
+     */
+    static class Chain {
+        /**
+         * Operator in the result circuit which produces the chain input.
+         */
+        public final DBSPOperator input;
+        public final List<Step> steps;
+
+        Chain(DBSPOperator input, List<Step> steps) {
+            this.input = input;
+            this.steps = steps;
+        }
+
+        boolean all(Kind kind) {
+            return Linq.all(this.steps, s -> s.kind == kind);
+        }
+
+        boolean canAppend(Step step) {
+            if (step.kind == Kind.Index)
+                return this.all(Kind.Map);
+            return true;
+        }
+
+        Chain append(Step step) {
+            List<Step> steps = new ArrayList<>(this.steps);
+            steps.add(step);
+            return new Chain(this.input, steps);
+        }
+    }
+
+    /**
+     * For each operator in the original circuit the number of operators that consume its output.
+     */
+    final Map<DBSPOperator, Integer> fanout = new HashMap<>();
+    /**
+     * For operators in the result circuit the chain of steps they compute.
+     */
+    final Map<DBSPOperator, Chain> chains = new HashMap<>();
+    /**
+     * Used to ignore consumers which are dead.
+     */
+    final DeadCodeVisitor dead = new DeadCodeVisitor();
+
+    public FusionVisitor() {
+        super(false);
+    }
+
+    @Override
+    public boolean preorder(DBSPCircuit circuit) {
+        this.dead.apply(circuit);
+        List<DBSPOperator> consumers = new ArrayList<>(circuit.operators);
+        consumers.addAll(circuit.outputOperators);
+        for (DBSPOperator op: consumers) {
+            if (!this.dead.reachable.contains(op))
+                continue;
+            for (DBSPOperator input: op.inputs)
+                this.fanout.merge(input, 1, Integer::sum);
+        }
+        return super.preorder(circuit);
+    }
+
+    /**
+     * Describe an operator as a step in a chain.
+     * @return null if the operator cannot be fused.
+     */
+    @Nullable
+    Step getStep(DBSPOperator operator) {
+        Kind kind;
+        if (operator.is(DBSPMapOperator.class))
+            kind = Kind.Map;
+        else if (operator.is(DBSPFilterOperator.class))
+            kind = Kind.Filter;
+        else if (operator.is(DBSPFlatMapOperator.class))
+            kind = Kind.FlatMap;
+        else if (operator.is(DBSPIndexOperator.class))
+            kind = Kind.Index;
+        else
+            return null;
+        if (!operator.inputs.get(0).outputType.is(DBSPTypeZSet.class))
+            return null;
+        DBSPClosureExpression closure = this.resolveClosure(operator.function);
+        if (closure == null || closure.parameters.length != 1)
+            return null;
+        String parameter = FieldSubstitutionVisitor.parameterName(closure.parameters[0]);
+        if (parameter == null)
+            return null;
+        if (kind == Kind.FlatMap) {
+            // Only flat maps that produce at most one output row can be fused.
+            DBSPType element = operator.getNonVoidType().to(DBSPTypeZSet.class).elementType;
+            if (!closure.body.getNonVoidType().sameType(element.setMayBeNull(true)))
+                return null;
+        }
+        return new Step(kind, operator, closure, parameter);
+    }
+
+    @Override
+    public void replace(DBSPOperator operator) {
+        if (this.visited.contains(operator))
+            return;
+        Step step = this.getStep(operator);
+        if (step == null) {
+            super.replace(operator);
+            return;
+        }
+        DBSPOperator input = this.mapped(operator.inputs.get(0));
+        Chain chain = this.chains.get(input);
+        if (chain == null ||
+                this.fanout.getOrDefault(operator.inputs.get(0), 0) != 1 ||
+                !chain.canAppend(step)) {
+            super.replace(operator);
+            if (step.kind != Kind.Index)
+                this.chains.put(this.mapped(operator), new Chain(input, Linq.list(step)));
+            return;
+        }
+
+        chain = chain.append(step);
+        DBSPOperator result = this.build(chain);
+        Logger.instance.log(this, 1, stream -> stream
+                .append(this.toString())
+                .append(" fused ")
+                .append(operator.toString())
+                .append(" with ")
+                .append(input.toString())
+                .newline());
+        this.visited.add(operator);
+        this.map(operator, result);
+        if (step.kind != Kind.Index)
+            this.chains.put(result, chain);
+    }
+
+    /**
+     * Create an operator which computes all the steps of a chain.
+     */
+    DBSPOperator build(Chain chain) {
+        Step first = chain.steps.get(0);
+        Step last = chain.steps.get(chain.steps.size() - 1);
+        @Nullable Object node = last.operator.getNode();
+        DBSPClosureExpression.Parameter parameter = first.closure.parameters[0];
+        if (chain.all(Kind.Filter)) {
+            DBSPExpression body = this.compose(chain.steps, 0, null, false);
+            DBSPClosureExpression condition = new DBSPClosureExpression(last.closure.getNode(), body, parameter);
+            return new DBSPFilterOperator(node, condition, chain.input);
+        }
+        boolean maps = chain.all(Kind.Map) ||
+                (last.kind == Kind.Index && chain.steps.subList(0, chain.steps.size() - 1)
+                        .stream().allMatch(s -> s.kind == Kind.Map));
+        DBSPExpression body = this.compose(chain.steps, 0, null, !maps);
+        DBSPClosureExpression closure = new DBSPClosureExpression(last.closure.getNode(), body, parameter);
+        if (last.kind == Kind.Index) {
+            DBSPIndexOperator index = last.operator.to(DBSPIndexOperator.class);
+            return new DBSPMapIndexOperator(node, closure, index.keyType, index.elementType, chain.input);
+        }
+        DBSPType element = last.operator.getNonVoidType().to(DBSPTypeZSet.class).elementType;
+        if (maps)
+            return new DBSPMapOperator(node, closure, element, chain.input);
+        return new DBSPFlatMapOperator(node, closure, TypeCompiler.makeZSet(element), chain.input);
+    }
+
+    /**
+     * Generate an expression that applies steps starting at 'index' to a row.
+     * @param steps    Steps of the chain.
+     * @param index    Index of first step to apply.
+     * @param row      Expression holding a reference to the row processed.
+     *                 If null the row is the parameter of the first step.
+     * @param optional If true the result is an Option that is None
+     *                 when the row is dropped by some step.
+     */
+    DBSPExpression compose(List<Step> steps, int index, @Nullable DBSPExpression row, boolean optional) {
+        Step step = steps.get(index);
+        boolean isLast = index == steps.size() - 1;
+        DBSPExpression body = step.closure.body;
+        List<DBSPStatement> statements = new ArrayList<>();
+        DBSPVariablePath parameter;
+        if (row == null) {
+            parameter = new DBSPVariablePath(step.parameter,
+                    step.operator.inputs.get(0).getNonVoidType().to(DBSPTypeZSet.class).elementType.ref());
+        } else {
+            parameter = new DBSPVariablePath(step.parameter, row.getNonVoidType());
+            if (!row.is(DBSPVariablePath.class) ||
+                    !row.to(DBSPVariablePath.class).variable.equals(step.parameter))
+                statements.add(new DBSPLetStatement(step.parameter, row));
+        }
+
+        DBSPExpression result;
+        switch (step.kind) {
+            case Map: {
+                if (isLast) {
+                    result = optional ? new DBSPSomeExpression(body) : body;
+                } else {
+                    String value = "v" + index;
+                    statements.add(new DBSPLetStatement(value, body));
+                    DBSPVariablePath var = new DBSPVariablePath(value, body.getNonVoidType());
+                    result = this.compose(steps, index + 1, new DBSPBorrowExpression(var), optional);
+                }
+                break;
+            }
+            case Index:
+                result = body;
+                break;
+            case Filter: {
+                DBSPExpression rest;
+                if (!isLast)
+                    rest = this.compose(steps, index + 1, parameter, optional);
+                else if (optional)
+                    rest = new DBSPSomeExpression(
+                            new DBSPApplyMethodExpression("clone", parameter.getNonVoidType().deref(), parameter));
+                else
+                    return body;
+                DBSPExpression otherwise = optional ?
+                        DBSPLiteral.none(rest.getNonVoidType()) : new DBSPBoolLiteral(false);
+                result = new DBSPIfExpression(null, body, rest, otherwise);
+                break;
+            }
+            case FlatMap: {
+                if (isLast) {
+                    result = body;
+                } else {
+                    String value = "v" + index;
+                    DBSPVariablePath var = new DBSPVariablePath(value, body.getNonVoidType().setMayBeNull(false));
+                    DBSPExpression rest = this.compose(steps, index + 1, new DBSPBorrowExpression(var), optional);
+                    List<DBSPMatchExpression.Case> cases = new ArrayList<>();
+                    cases.add(new DBSPMatchExpression.Case(
+                            DBSPTupleStructPattern.somePattern(new DBSPIdentifierPattern(value)), rest));
+                    cases.add(new DBSPMatchExpression.Case(
+                            DBSPWildcardPattern.instance, DBSPLiteral.none(rest.getNonVoidType())));
+                    result = new DBSPMatchExpression(body, cases, rest.getNonVoidType());
+                }
+                break;
+            }
+            default:
+                throw new RuntimeException("Unexpected step " + step.kind);
+        }
+        if (statements.isEmpty())
+            return result;
+        return new DBSPBlockExpression(statements, result);
+    }
+}
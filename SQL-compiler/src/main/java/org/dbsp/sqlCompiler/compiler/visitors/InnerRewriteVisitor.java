@@ -0,0 +1,291 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.sqlCompiler.compiler.visitors;
+
+import org.dbsp.sqlCompiler.ir.InnerVisitor;
+import org.dbsp.sqlCompiler.ir.expression.*;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLiteral;
+import org.dbsp.sqlCompiler.ir.statement.DBSPExpressionStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
+import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeUser;
+import org.dbsp.util.Linq;
+import org.dbsp.util.Unimplemented;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Rebuilds an expression tree bottom-up.
+ * By default the result is a copy of the original expression.
+ * Subclasses override preorder methods for the nodes they want to replace
+ * and call 'this.set' with the replacement.
+ * Types and patterns are not rewritten.
+ */
+public class InnerRewriteVisitor extends InnerVisitor {
+    /**
+     * Result produced by the last node visited.
+     */
+    @Nullable
+    private DBSPExpression lastResult = null;
+    @Nullable
+    private DBSPStatement lastStatement = null;
+
+    public InnerRewriteVisitor() {
+        super(true);
+    }
+
+    protected void set(DBSPExpression expression) {
+        this.lastResult = expression;
+    }
+
+    public DBSPExpression transform(DBSPExpression expression) {
+        this.lastResult = null;
+        expression.accept(this);
+        return Objects.requireNonNull(this.lastResult);
+    }
+
+    @Nullable
+    DBSPExpression transformN(@Nullable DBSPExpression expression) {
+        if (expression == null)
+            return null;
+        return this.transform(expression);
+    }
+
+    DBSPExpression[] transform(DBSPExpression[] expressions) {
+        return Linq.map(expressions, this::transform, DBSPExpression.class);
+    }
+
+    public DBSPStatement transform(DBSPStatement statement) {
+        this.lastStatement = null;
+        statement.accept(this);
+        return Objects.requireNonNull(this.lastStatement);
+    }
+
+    @Override
+    public boolean preorder(DBSPExpression expression) {
+        throw new Unimplemented(expression);
+    }
+
+    @Override
+    public boolean preorder(DBSPStatement statement) {
+        throw new Unimplemented(statement);
+    }
+
+    @Override
+    public boolean preorder(DBSPLiteral expression) {
+        this.set(expression);
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPVariablePath expression) {
+        this.set(expression);
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPPathExpression expression) {
+        this.set(expression);
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPEnumValue expression) {
+        this.set(expression);
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPStructExpression expression) {
+        DBSPExpression[] arguments = this.transform(expression.arguments);
+        if (expression.is(DBSPSomeExpression.class)) {
+            this.set(new DBSPSomeExpression(arguments[0]));
+        } else {
+            DBSPExpression function = this.transform(expression.function);
+            this.set(new DBSPStructExpression(function, expression.getNonVoidType(), arguments));
+        }
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPBorrowExpression expression) {
+        DBSPExpression source = this.transform(expression.expression);
+        this.set(new DBSPBorrowExpression(source, expression.mut));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPClosureExpression expression) {
+        DBSPExpression body = this.transform(expression.body);
+        this.set(new DBSPClosureExpression(expression.getNode(), body, expression.parameters));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPQualifyTypeExpression expression) {
+        DBSPExpression source = this.transform(expression.expression);
+        this.set(new DBSPQualifyTypeExpression(source, expression.types));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPMatchExpression expression) {
+        DBSPExpression matched = this.transform(expression.matched);
+        List<DBSPMatchExpression.Case> cases = Linq.map(expression.cases,
+                c -> new DBSPMatchExpression.Case(c.against, this.transform(c.result)));
+        this.set(new DBSPMatchExpression(matched, cases, expression.getNonVoidType()));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPBinaryExpression expression) {
+        DBSPExpression left = this.transform(expression.left);
+        DBSPExpression right = this.transform(expression.right);
+        this.set(new DBSPBinaryExpression(expression.getNode(), expression.getNonVoidType(),
+                expression.operation, left, right));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPUnaryExpression expression) {
+        DBSPExpression source = this.transform(expression.left);
+        this.set(new DBSPUnaryExpression(expression.getNode(), expression.getNonVoidType(),
+                expression.operation, source));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPDerefExpression expression) {
+        DBSPExpression source = this.transform(expression.expression);
+        this.set(source.deref());
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPApplyMethodExpression expression) {
+        DBSPExpression self = this.transform(expression.self);
+        DBSPExpression[] arguments = this.transform(expression.arguments);
+        this.set(new DBSPApplyMethodExpression(expression.function, expression.getType(), self, arguments));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPApplyExpression expression) {
+        DBSPExpression function = this.transform(expression.function);
+        DBSPExpression[] arguments = this.transform(expression.arguments);
+        this.set(new DBSPApplyExpression(function, expression.getType(), arguments));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPForExpression expression) {
+        DBSPExpression iterated = this.transform(expression.iterated);
+        DBSPExpression block = this.transform(expression.block);
+        this.set(new DBSPForExpression(expression.pattern, iterated, block.to(DBSPBlockExpression.class)));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPTupleExpression expression) {
+        DBSPExpression[] fields = this.transform(expression.fields);
+        this.set(new DBSPTupleExpression(expression.getNode(), fields));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPRawTupleExpression expression) {
+        DBSPExpression[] fields = this.transform(expression.fields);
+        this.set(new DBSPRawTupleExpression(fields));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPFieldExpression expression) {
+        DBSPExpression source = this.transform(expression.expression);
+        this.set(new DBSPFieldExpression(null, source, expression.fieldNo));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPIfExpression expression) {
+        DBSPExpression condition = this.transform(expression.condition);
+        DBSPExpression positive = this.transform(expression.positive);
+        DBSPExpression negative = this.transform(expression.negative);
+        this.set(new DBSPIfExpression(expression.getNode(), condition, positive, negative));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPBlockExpression expression) {
+        List<DBSPStatement> contents = Linq.map(expression.contents, this::transform);
+        DBSPExpression last = this.transformN(expression.lastExpression);
+        this.set(new DBSPBlockExpression(contents, last));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPAssignmentExpression expression) {
+        DBSPExpression left = this.transform(expression.left);
+        DBSPExpression right = this.transform(expression.right);
+        this.set(new DBSPAssignmentExpression(left, right));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPAsExpression expression) {
+        DBSPExpression source = this.transform(expression.source);
+        this.set(new DBSPAsExpression(source, expression.getNonVoidType()));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPRangeExpression expression) {
+        DBSPExpression left = this.transformN(expression.left);
+        DBSPExpression right = this.transformN(expression.right);
+        DBSPTypeUser type = expression.getNonVoidType().to(DBSPTypeUser.class);
+        this.set(new DBSPRangeExpression(left, right, expression.endInclusive, type.typeArgs[0]));
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPExpressionStatement statement) {
+        DBSPExpression expression = this.transform(statement.expression);
+        this.lastStatement = new DBSPExpressionStatement(expression);
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPLetStatement statement) {
+        if (statement.initializer != null) {
+            DBSPExpression init = this.transform(statement.initializer);
+            this.lastStatement = new DBSPLetStatement(statement.variable, init, statement.mutable);
+        } else {
+            this.lastStatement = new DBSPLetStatement(statement.variable, statement.type, statement.mutable);
+        }
+        return false;
+    }
+}
@@ -41,6 +41,11 @@ public class OptimizeDistinctVisitor extends CircuitCloneVisitor {
             this.map(distinct, input);
             return;
         }
+        if (input.is(DBSPMapOperator.class) && !input.isMultiset) {
+            // distinct(map) = map if the map preserves a key of its input
+            this.map(distinct, input, false);
+            return;
+        }
         if (input.is(DBSPJoinOperator.class) ||
             input.is(DBSPMapOperator.class) ||
             input.is(DBSPSumOperator.class)) {
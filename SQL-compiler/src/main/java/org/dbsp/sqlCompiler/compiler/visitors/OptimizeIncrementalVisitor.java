@@ -28,6 +28,7 @@ import org.dbsp.util.Linq;
 import org.dbsp.util.UnsupportedException;
 
 import java.util.List;
+import java.util.Objects;
 
 /**
  * This visitor optimizes incremental circuits by pushing integral operators
@@ -106,6 +107,68 @@ public class OptimizeIncrementalVisitor extends CircuitCloneVisitor {
         super.postorder(operator);
     }
 
+    @Override
+    public void postorder(DBSPSemiJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        if (Linq.all(sources, s -> s.is(DBSPIntegralOperator.class))) {
+            List<DBSPOperator> sourceSource = Linq.map(sources, s -> s.inputs.get(0));
+            DBSPOperator replace = new DBSPIncrementalSemiJoinOperator(operator.getNode(), operator.elementResultType,
+                    operator.getFunction(), operator.isMultiset, sourceSource.get(0), sourceSource.get(1));
+            this.addOperator(replace);
+            DBSPIntegralOperator integral = new DBSPIntegralOperator(operator.getNode(), replace);
+            this.map(operator, integral);
+            return;
+        }
+        super.postorder(operator);
+    }
+
+    @Override
+    public void postorder(DBSPAntiJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        if (Linq.all(sources, s -> s.is(DBSPIntegralOperator.class))) {
+            List<DBSPOperator> sourceSource = Linq.map(sources, s -> s.inputs.get(0));
+            DBSPOperator replace = new DBSPIncrementalAntiJoinOperator(operator.getNode(), operator.elementResultType,
+                    operator.getFunction(), operator.isMultiset,
+                    sourceSource.get(0), sourceSource.get(1), sourceSource.get(2));
+            this.addOperator(replace);
+            DBSPIntegralOperator integral = new DBSPIntegralOperator(operator.getNode(), replace);
+            this.map(operator, integral);
+            return;
+        }
+        super.postorder(operator);
+    }
+
+    @Override
+    public void postorder(DBSPRangeJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        if (Linq.all(sources, s -> s.is(DBSPIntegralOperator.class))) {
+            List<DBSPOperator> sourceSource = Linq.map(sources, s -> s.inputs.get(0));
+            DBSPOperator replace = new DBSPIncrementalRangeJoinOperator(operator.getNode(), operator.elementResultType,
+                    operator.rangeFunction, operator.getFunction(), operator.isMultiset,
+                    sourceSource.get(0), sourceSource.get(1));
+            this.addOperator(replace);
+            DBSPIntegralOperator integral = new DBSPIntegralOperator(operator.getNode(), replace);
+            this.map(operator, integral);
+            return;
+        }
+        super.postorder(operator);
+    }
+
+    @Override
+    public void postorder(DBSPMultiJoinOperator operator) {
+        List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
+        if (Linq.all(sources, s -> s.is(DBSPIntegralOperator.class))) {
+            List<DBSPOperator> sourceSource = Linq.map(sources, s -> s.inputs.get(0));
+            DBSPOperator replace = new DBSPIncrementalMultiJoinOperator(operator.getNode(), operator.elementResultType,
+                    operator.getFunction(), operator.isMultiset, operator.edges, sourceSource);
+            this.addOperator(replace);
+            DBSPIntegralOperator integral = new DBSPIntegralOperator(operator.getNode(), replace);
+            this.map(operator, integral);
+            return;
+        }
+        super.postorder(operator);
+    }
+
     @Override
     public void postorder(DBSPSumOperator operator) {
         List<DBSPOperator> sources = Linq.map(operator.inputs, this::mapped);
@@ -151,9 +214,32 @@ public class OptimizeIncrementalVisitor extends CircuitCloneVisitor {
     public void postorder(DBSPAggregateOperator operator) {
         DBSPOperator source = this.mapped(operator.input());
         if (source.is(DBSPIntegralOperator.class)) {
-            DBSPOperator replace = new DBSPIncrementalAggregateOperator(
-                    source.getNode(), operator.getFunction(),
-                    operator.keyType, operator.outputElementType, source.inputs.get(0));
+            DBSPOperator replace;
+            if (operator.isLinear()) {
+                replace = new DBSPLinearAggregateOperator(
+                        source.getNode(), Objects.requireNonNull(operator.linearFunction),
+                        Objects.requireNonNull(operator.linearPostprocess),
+                        operator.keyType, operator.outputElementType, source.inputs.get(0));
+            } else {
+                replace = new DBSPIncrementalAggregateOperator(
+                        source.getNode(), operator.getFunction(),
+                        operator.keyType, operator.outputElementType, source.inputs.get(0));
+            }
+            this.addOperator(replace);
+            DBSPIntegralOperator integral = new DBSPIntegralOperator(operator.getNode(), replace);
+            this.map(operator, integral);
+            return;
+        }
+        super.postorder(operator);
+    }
+
+    @Override
+    public void postorder(DBSPMinMaxOperator operator) {
+        DBSPOperator source = this.mapped(operator.input());
+        if (source.is(DBSPIntegralOperator.class)) {
+            DBSPOperator replace = new DBSPIncrementalMinMaxOperator(
+                    source.getNode(), operator.aggregation,
+                    operator.keyType, operator.valueType, source.inputs.get(0));
             this.addOperator(replace);
             DBSPIntegralOperator integral = new DBSPIntegralOperator(operator.getNode(), replace);
             this.map(operator, integral);
@@ -28,19 +28,29 @@ import org.dbsp.sqlCompiler.ir.CircuitVisitor;
 import org.dbsp.util.IModule;
 import org.dbsp.util.Linq;
 import org.dbsp.util.Logger;
+import org.dbsp.util.Profiler;
 
 import java.util.List;
 
 public class PassesVisitor extends CircuitVisitor implements IModule {
     public final List<CircuitVisitor> passes;
+    final Profiler profiler;
 
     public PassesVisitor(CircuitVisitor... passes) {
-        super(false);
-        this.passes = Linq.list(passes);
+        this(Profiler.disabled(), Linq.list(passes));
     }
 
     public PassesVisitor(List<CircuitVisitor> passes) {
+        this(Profiler.disabled(), passes);
+    }
+
+    /**
+     * @param profiler  Records the cost of each pass.
+     * @param passes    Passes to execute in order.
+     */
+    public PassesVisitor(Profiler profiler, List<CircuitVisitor> passes) {
         super(false);
+        this.profiler = profiler;
         this.passes = passes;
     }
 
@@ -48,24 +58,30 @@ public class PassesVisitor extends CircuitVisitor implements IModule {
     public DBSPCircuit apply(DBSPCircuit circuit) {
         int count = 0;
         if (this.getDebugLevel() >= 3) {
-            Logger.instance.from(this, 3)
+            Logger.instance.log(this, 3, stream -> stream
                     .append("Writing circuit to before.jpg")
-                    .newline();
+                    .newline());
             ToDotVisitor.toDot("0before.jpg", true, circuit);
         }
         ++count;
         for (CircuitVisitor pass: this.passes) {
-            Logger.instance.from(this, 1)
+            Logger.instance.log(this, 1, stream -> stream
                     .append("Executing ")
                     .append(pass.toString())
-                    .newline();
+                    .newline());
+            Profiler.Phase phase = this.profiler.start(pass.toString())
+                    .before("operators", circuit.operators.size())
+                    .before("declarations", circuit.declarations.size());
             circuit = pass.apply(circuit);
+            phase.after("operators", circuit.operators.size())
+                    .after("declarations", circuit.declarations.size())
+                    .end();
             if (this.getDebugLevel() >= 3) {
                 String name = count + pass.toString().replace(" ", "_") + ".jpg";
-                Logger.instance.from(this, 3)
+                Logger.instance.log(this, 3, stream -> stream
                         .append("Writing circuit to ")
                         .append(name)
-                        .newline();
+                        .newline());
                 ToDotVisitor.toDot(name, true, circuit);
             }
             ++count;
@@ -47,10 +47,10 @@ public class RemoveOperatorsVisitor extends CircuitCloneVisitor {
         if (this.keep.contains(node)) {
             this.replace(node);
         } else {
-            Logger.instance.from(this, 2)
+            Logger.instance.log(this, 2, stream -> stream
                     .append("Removing ")
                     .append(node.toString())
-                    .newline();
+                    .newline());
         }
         return false;
     }
@@ -61,10 +61,10 @@ public class RemoveOperatorsVisitor extends CircuitCloneVisitor {
             DBSPOperator input = this.mapped(node.input());
             this.map(node, input, false);
         } else {
-            Logger.instance.from(this, 2)
+            Logger.instance.log(this, 2, stream -> stream
                     .append("Removing ")
                     .append(node.toString())
-                    .newline();
+                    .newline());
         }
         return false;
     }
@@ -72,9 +72,9 @@ public class RemoveOperatorsVisitor extends CircuitCloneVisitor {
     @Override
     public void startVisit(IDBSPOuterNode node) {
         super.startVisit(node);
-        Logger.instance.from(this, 2)
+        Logger.instance.log(this, 2, stream -> stream
                 .append("Keeping ")
                 .append(this.keep.toString())
-                .newline();
+                .newline());
     }
 }
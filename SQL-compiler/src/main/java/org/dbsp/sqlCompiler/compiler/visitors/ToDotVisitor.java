@@ -81,10 +81,10 @@ public class ToDotVisitor extends CircuitVisitor implements IModule {
 
     public static DBSPCircuit toDot(String fileName, boolean toJpg, DBSPCircuit circuit) {
         try {
-            Logger.instance.from("ToDotVisitor", 1)
+            Logger.instance.log("ToDotVisitor", 1, stream -> stream
                     .append("Writing circuit to ")
                     .append(fileName)
-                    .newline();
+                    .newline());
             File tmp = File.createTempFile("tmp", ".dot");
             PrintWriter writer = new PrintWriter(tmp.getAbsolutePath());
             IndentStream stream = new IndentStream(writer);
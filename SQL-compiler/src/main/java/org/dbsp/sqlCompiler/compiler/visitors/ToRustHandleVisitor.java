@@ -24,11 +24,11 @@
 package org.dbsp.sqlCompiler.compiler.visitors;
 
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
-import org.dbsp.sqlCompiler.circuit.IDBSPInnerDeclaration;
 import org.dbsp.sqlCompiler.circuit.IDBSPOuterNode;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSinkOperator;
 import org.dbsp.sqlCompiler.circuit.operator.DBSPSourceOperator;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeTuple;
 import org.dbsp.sqlCompiler.ir.type.DBSPTypeZSet;
 import org.dbsp.util.IndentStream;
 import org.dbsp.util.Utilities;
@@ -36,15 +36,27 @@ import org.dbsp.util.Utilities;
 /**
  * Generate Rust for a circuit, but with an API using handles.
  * Output generated has this structure:
- * pub fn test_circuit(workers: usize) -> (DBSPHandle, Catalog) {
+ * pub struct test_circuit_inputs {
+ *     pub test_input1: dbsp::CollectionHandle<TestStruct, Weight>,
+ * }
+ * impl test_circuit_inputs {
+ *     pub fn append_test_input1(&self, weight: Weight, c0: Vec<i32>, c1: Vec<String>) {
+ *         ...
+ *     }
+ * }
+ * pub fn test_circuit_with_inputs(workers: usize) -> (DBSPHandle, Catalog, test_circuit_inputs) {
  *     let mut catalog = Catalog::new();
  *     let (circuit, handles) = Runtime::init_circuit(workers, |circuit| {
- *         let (input, handle0) = circuit.add_input_zset::<TestStruct, i32>();
+ *         let (input, handle0) = circuit.add_input_zset::<TestStruct, Weight>();
  *         let handle1 = input.output();
  *         (handle0, handle1)
  *     }).unwrap();
- *     catalog.register_input_zset_handle("test_input1", handles.0);
+ *     catalog.register_input_zset_handle("test_input1", handles.0.clone());
  *     catalog.register_output_batch_handle("test_output1", handles.1);
+ *     (circuit, catalog, test_circuit_inputs { test_input1: handles.0, })
+ * }
+ * pub fn test_circuit(workers: usize) -> (DBSPHandle, Catalog) {
+ *     let (circuit, catalog, _) = test_circuit_with_inputs(workers);
  *     (circuit, catalog)
  * }
  */
@@ -55,6 +67,8 @@ public class ToRustHandleVisitor extends ToRustVisitor {
     public ToRustHandleVisitor(IndentStream builder, String functionName) {
         super(builder);
         this.functionName = functionName;
+        // The circuit is built by Runtime::init_circuit, which may use multiple workers
+        this.multiWorker = true;
     }
 
     @Override
@@ -85,34 +99,122 @@ public class ToRustHandleVisitor extends ToRustVisitor {
         return false;
     }
 
+    String inputsStructName() {
+        return this.functionName + "_inputs";
+    }
+
+    /**
+     * Generate a structure holding the typed handles of all the inputs,
+     * with a method for each input which appends a batch of rows given by columns.
+     * The batch is built in one pass without going through the catalog.
+     */
+    void generateInputs(DBSPCircuit circuit) {
+        this.builder.append("#[allow(non_camel_case_types)]")
+                .newline()
+                .append("pub struct ")
+                .append(this.inputsStructName())
+                .append(" {")
+                .increase();
+        for (DBSPSourceOperator i : circuit.inputOperators) {
+            DBSPTypeZSet type = i.getNonVoidType().to(DBSPTypeZSet.class);
+            this.builder.append("pub ")
+                    .append(i.outputName)
+                    .append(": dbsp::CollectionHandle<");
+            type.elementType.accept(this.innerVisitor);
+            this.builder.append(", ");
+            type.weightType.accept(this.innerVisitor);
+            this.builder.append(">,")
+                    .newline();
+        }
+        this.builder.decrease()
+                .append("}")
+                .newline()
+                .newline()
+                .append("impl ")
+                .append(this.inputsStructName())
+                .append(" {")
+                .increase();
+        for (DBSPSourceOperator i : circuit.inputOperators) {
+            DBSPTypeZSet type = i.getNonVoidType().to(DBSPTypeZSet.class);
+            DBSPTypeTuple tuple = type.elementType.to(DBSPTypeTuple.class);
+            int columns = tuple.tupFields.length;
+            this.builder.append("/// Append to ")
+                    .append(i.outputName)
+                    .append(" a batch of rows with the same weight; column vector i holds field i of all rows.")
+                    .newline()
+                    .append("pub fn append_")
+                    .append(i.outputName)
+                    .append("(&self, weight: ");
+            type.weightType.accept(this.innerVisitor);
+            for (int c = 0; c < columns; c++) {
+                this.builder.append(", c")
+                        .append(c)
+                        .append(": Vec<");
+                tuple.tupFields[c].accept(this.innerVisitor);
+                this.builder.append(">");
+            }
+            this.builder.append(") {")
+                    .increase()
+                    .append("let len = c0.len();")
+                    .newline();
+            for (int c = 1; c < columns; c++)
+                this.builder.append("assert_eq!(c")
+                        .append(c)
+                        .append(".len(), len);")
+                        .newline()
+                        .append("let mut c")
+                        .append(c)
+                        .append(" = c")
+                        .append(c)
+                        .append(".into_iter();")
+                        .newline();
+            this.builder.append("let mut batch = Vec::with_capacity(len);")
+                    .newline()
+                    .append("for c0 in c0 {")
+                    .increase()
+                    .append("batch.push((Tuple")
+                    .append(columns)
+                    .append("::new(c0");
+            for (int c = 1; c < columns; c++)
+                this.builder.append(", c")
+                        .append(c)
+                        .append(".next().unwrap()");
+            this.builder.append("), weight));")
+                    .newline()
+                    .decrease()
+                    .append("}")
+                    .newline()
+                    .append("self.")
+                    .append(i.outputName)
+                    .append(".append(&mut batch);")
+                    .newline()
+                    .decrease()
+                    .append("}")
+                    .newline();
+        }
+        this.builder.decrease()
+                .append("}")
+                .newline()
+                .newline();
+    }
+
     @Override
     public boolean preorder(DBSPCircuit circuit) {
         this.setCircuit(circuit);
+        this.generateParts(circuit);
+        this.generateInputs(circuit);
         this.builder.append("pub fn ")
                 .append(this.functionName)
-                .append("(workers: usize) -> (DBSPHandle, Catalog) {")
+                .append("_with_inputs(workers: usize) -> (DBSPHandle, Catalog, ")
+                .append(this.inputsStructName())
+                .append(") {")
                 .increase()
                 .append("let mut catalog = Catalog::new();")
                 .newline()
                 .append("let (circuit, handles) = Runtime::init_circuit(workers, |circuit| {")
                 .increase();
 
-        for (IDBSPInnerDeclaration decl : circuit.declarations.values()) {
-            decl.accept(this.innerVisitor);
-            this.builder.newline();
-        }
-        for (DBSPOperator i : circuit.inputOperators) {
-            i.accept(this);
-            this.builder.newline();
-        }
-        for (DBSPOperator op : circuit.operators) {
-            op.accept(this);
-            this.builder.newline();
-        }
-        for (DBSPOperator o : circuit.outputOperators) {
-            o.accept(this);
-            this.builder.newline();
-        }
+        this.generateOperators(circuit);
         this.builder.append("(");
         for (int i = 0; i < this.handleCount; i++)
             this.builder.append("handle")
@@ -130,7 +232,7 @@ public class ToRustHandleVisitor extends ToRustVisitor {
                     .append(Utilities.escapeString(i.getName()))
                     .append(", handles.")
                     .append(this.handleCount++)
-                    .append(");")
+                    .append(".clone());")
                     .newline();
         }
         for (DBSPOperator o : circuit.outputOperators) {
@@ -142,7 +244,29 @@ public class ToRustHandleVisitor extends ToRustVisitor {
                     .newline();
         }
 
-        this.builder
+        this.builder.append("(circuit, catalog, ")
+                .append(this.inputsStructName())
+                .append(" { ");
+        for (int i = 0; i < circuit.inputOperators.size(); i++)
+            this.builder.append(circuit.inputOperators.get(i).outputName)
+                    .append(": handles.")
+                    .append(i)
+                    .append(", ");
+        this.builder.append("})")
+                .newline()
+                .decrease()
+                .append("}")
+                .newline()
+                .newline();
+
+        this.builder.append("pub fn ")
+                .append(this.functionName)
+                .append("(workers: usize) -> (DBSPHandle, Catalog) {")
+                .increase()
+                .append("let (circuit, catalog, _) = ")
+                .append(this.functionName)
+                .append("_with_inputs(workers);")
+                .newline()
                 .append("(circuit, catalog)")
                 .newline()
                 .decrease()
@@ -151,11 +275,25 @@ public class ToRustHandleVisitor extends ToRustVisitor {
         return false;
     }
 
+    /**
+     * Write the Rust code for the node to the specified stream.
+     */
+    public static void toRust(IndentStream stream, IDBSPOuterNode node, String functionName) {
+        toRust(stream, node, functionName, false);
+    }
+
+    /**
+     * Write the Rust code for the node to the specified stream.
+     * @param splitViews  If true emit the operators computing each view in a separate module.
+     */
+    public static void toRust(IndentStream stream, IDBSPOuterNode node, String functionName, boolean splitViews) {
+        ToRustVisitor visitor = new ToRustHandleVisitor(stream, functionName).setSplitViews(splitViews);
+        node.accept(visitor);
+    }
+
     public static String toRustString(IDBSPOuterNode node, String functionName) {
         StringBuilder builder = new StringBuilder();
-        IndentStream stream = new IndentStream(builder);
-        ToRustVisitor visitor = new ToRustHandleVisitor(stream, functionName);
-        node.accept(visitor);
+        toRust(new IndentStream(builder), node, functionName);
         return builder.toString();
     }
 }
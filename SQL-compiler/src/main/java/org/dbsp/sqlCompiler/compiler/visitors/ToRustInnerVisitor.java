@@ -47,7 +47,7 @@ import java.util.Map;
  * This visitor generate a Rust implementation of the program.
  */
 public class ToRustInnerVisitor extends InnerVisitor {
-    private final IndentStream builder;
+    protected final IndentStream builder;
 
     public ToRustInnerVisitor(IndentStream builder) {
         super(true);
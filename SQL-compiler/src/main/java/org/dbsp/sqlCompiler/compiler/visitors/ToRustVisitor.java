@@ -27,10 +27,13 @@ import org.dbsp.sqlCompiler.circuit.*;
 import org.dbsp.sqlCompiler.circuit.operator.*;
 import org.dbsp.sqlCompiler.ir.CircuitVisitor;
 import org.dbsp.sqlCompiler.ir.InnerVisitor;
+import org.dbsp.sqlCompiler.ir.expression.*;
 import org.dbsp.sqlCompiler.ir.type.*;
 import org.dbsp.util.*;
 
 import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * This visitor generate a Rust implementation of the program.
@@ -49,12 +52,14 @@ public class ToRustVisitor extends CircuitVisitor {
                     "#![allow(unused_variables)]\n" +
                     "\n" +
                     "use dbsp::{\n" +
-                    "    algebra::{ZSet, MulByRef, F32, F64, UnimplementedSemigroup},\n" +
+                    "    algebra::{ZSet, MulByRef, HasZero, F32, F64, UnimplementedSemigroup},\n" +
                     "    circuit::{Circuit, Stream},\n" +
                     "    operator::{\n" +
                     "        Generator,\n" +
                     "        FilterMap,\n" +
                     "        Fold,\n" +
+                    "        Min,\n" +
+                    "        Max,\n" +
                     "        time_series::{RelRange, RelOffset, OrdPartitionedIndexedZSet},\n" +
                     "    },\n" +
                     "    trace::ord::{OrdIndexedZSet, OrdZSet},\n" +
@@ -77,7 +82,7 @@ public class ToRustVisitor extends CircuitVisitor {
                     "    cell::RefCell,\n" +
                     "    rc::Rc,\n" +
                     "};\n" +
-                    "use tuple::declare_tuples;\n" +
+                    "use tuple::{declare_tuples, declare_tuple_algebra};\n" +
                     "use sqllib::{" +
                     "    casts::*,\n" +
                     "    geopoint::*,\n" +
@@ -91,19 +96,155 @@ public class ToRustVisitor extends CircuitVisitor {
                     "type Weight = i64;\n";
 
 
+    /**
+     * If true the operators computing each view are emitted in a separate
+     * function, in a separate Rust module.  rustc can compile the modules
+     * in parallel, and incremental compilation can reuse unchanged modules.
+     */
+    protected boolean splitViews = false;
+    /**
+     * If true the circuit function takes a number of workers and builds
+     * the circuit using the multi-threaded DBSP runtime.
+     */
+    protected boolean multiWorker = false;
+    /**
+     * Parts of the circuit emitted as separate functions when splitViews is true.
+     */
+    protected final List<CircuitPart> parts = new ArrayList<>();
+
+    /**
+     * A set of operators of a circuit which are emitted as a separate Rust function.
+     */
+    static class CircuitPart {
+        /**
+         * Name of the Rust module containing the function.
+         */
+        final String name;
+        /**
+         * View computed by these operators; null for the operators
+         * which do not contribute to any view.
+         */
+        @Nullable
+        final DBSPSinkOperator view;
+        final List<DBSPOperator> operators = new ArrayList<>();
+        /**
+         * Streams produced outside this part which are used by the operators.
+         */
+        final List<DBSPOperator> parameters = new ArrayList<>();
+        /**
+         * Streams produced by this part which are used outside.
+         */
+        final List<DBSPOperator> results = new ArrayList<>();
+
+        CircuitPart(String name, @Nullable DBSPSinkOperator view) {
+            this.name = name;
+            this.view = view;
+        }
+
+        static void addOnce(List<DBSPOperator> list, DBSPOperator operator) {
+            if (!list.contains(operator))
+                list.add(operator);
+        }
+    }
+
     public ToRustVisitor(IndentStream builder) {
+        this(builder, new ToRustInnerVisitor(builder));
+    }
+
+    protected ToRustVisitor(IndentStream builder, InnerVisitor innerVisitor) {
         super(true);
         this.builder = builder;
-        this.innerVisitor = new ToRustInnerVisitor(builder);
+        this.innerVisitor = innerVisitor;
+    }
+
+    public ToRustVisitor setSplitViews(boolean splitViews) {
+        this.splitViews = splitViews;
+        return this;
+    }
+
+    public ToRustVisitor setMultiWorker(boolean multiWorker) {
+        this.multiWorker = multiWorker;
+        return this;
     }
 
-    public static String generatePreamble() {
-        IndentStream stream = new IndentStream(new StringBuilder());
+    public static String generatePreamble(IDBSPNode... nodes) {
+        StringBuilder builder = new StringBuilder();
+        generatePreamble(new IndentStream(builder), nodes);
+        return builder.toString();
+    }
+
+    /**
+     * Sizes of the tuple types used in the specified nodes.
+     */
+    static Set<Integer> getTupleSizes(IDBSPNode... nodes) {
+        Set<Integer> result = new TreeSet<>();
+        InnerVisitor visitor = new InnerVisitor(true) {
+            @Override
+            public boolean preorder(DBSPTypeTuple type) {
+                result.add(type.size());
+                return true;
+            }
+        };
+        for (IDBSPNode node: nodes) {
+            if (node.is(DBSPCircuit.class))
+                new CircuitExpressionsVisitor(visitor).apply(node.to(DBSPCircuit.class));
+            else
+                node.to(IDBSPInnerNode.class).accept(visitor);
+        }
+        return result;
+    }
+
+    /**
+     * Sizes of the tuples used as accumulators by the linear aggregates in the
+     * specified nodes; these tuples must implement the DBSP algebraic traits.
+     */
+    static Set<Integer> getAlgebraTupleSizes(IDBSPNode... nodes) {
+        Set<Integer> result = new TreeSet<>();
+        for (IDBSPNode node: nodes) {
+            if (!node.is(DBSPCircuit.class))
+                continue;
+            new CircuitVisitor(true) {
+                @Override
+                public boolean preorder(DBSPLinearAggregateOperator operator) {
+                    DBSPType accumulator = operator.getFunction().getNonVoidType()
+                            .to(DBSPTypeFunction.class).resultType;
+                    if (accumulator != null)
+                        result.add(accumulator.to(DBSPTypeTuple.class).size());
+                    return false;
+                }
+            }.apply(node.to(DBSPCircuit.class));
+        }
+        return result;
+    }
+
+    /**
+     * Write the preamble of the generated Rust program to the specified stream.
+     * @param nodes  Circuits and functions that are emitted after the preamble.
+     */
+    public static void generatePreamble(IndentStream stream, IDBSPNode... nodes) {
         stream.append(rustPreamble)
                 .newline();
 
         stream.append("declare_tuples! {").increase();
-        for (int i: DBSPTypeTuple.tupleSizesUsed) {
+        generateTupleList(stream, getTupleSizes(nodes), false);
+        stream.decrease()
+                .append("}\n\n");
+        Set<Integer> algebra = getAlgebraTupleSizes(nodes);
+        if (!algebra.isEmpty()) {
+            stream.append("declare_tuple_algebra! {").increase();
+            generateTupleList(stream, algebra, true);
+            stream.decrease()
+                    .append("}\n\n");
+        }
+    }
+
+    /**
+     * Generate the list of tuple types used, e.g. Tuple2<T0, T1>.
+     * @param sizes        Sizes of the tuples to list.
+     * @param withIndexes  If true prefix each element with its index, e.g. Tuple2<0: T0, 1: T1>.
+     */
+    static void generateTupleList(IndentStream stream, Set<Integer> sizes, boolean withIndexes) {
+        for (int i: sizes) {
             if (i == 0)
                 continue;
             stream.append("Tuple")
@@ -112,15 +253,14 @@ public class ToRustVisitor extends CircuitVisitor {
             for (int j = 0; j < i; j++) {
                 if (j > 0)
                     stream.append(", ");
+                if (withIndexes)
+                    stream.append(j)
+                            .append(": ");
                 stream.append("T")
                         .append(j);
             }
             stream.append(">,\n");
         }
-        DBSPTypeTuple.clearSizesUsed();
-        return stream.decrease()
-                .append("}\n\n")
-                .toString();
     }
 
     //////////////// Operators
@@ -139,35 +279,203 @@ public class ToRustVisitor extends CircuitVisitor {
                 .append(".clone();")
                 .newline();
         if (op instanceof DBSPSourceOperator) {
+            // The input is moved out of the cell; it is set again before each step.
             this.builder.append("let ")
                     .append(op.getName())
-                    .append(" = Generator::new(move || ")
+                    .append(" = Generator::new(move || std::mem::take(&mut *")
                     .append(op.getName())
-                    .append(".borrow().clone());")
+                    .append(".borrow_mut()));")
                     .newline();
         }
     }
 
-    public void generateBody(DBSPCircuit circuit) {
-        this.builder.append("let root = Circuit::build(|circuit| {")
+    /**
+     * Assign each operator of the circuit to the part computing the first view
+     * which depends on it.  Operators which do not contribute to any view
+     * are placed in a last part.
+     */
+    void partition(DBSPCircuit circuit) {
+        this.parts.clear();
+        Map<DBSPOperator, CircuitPart> owner = new IdentityHashMap<>();
+        for (int i = 0; i < circuit.outputOperators.size(); i++) {
+            DBSPSinkOperator view = circuit.outputOperators.get(i);
+            CircuitPart part = new CircuitPart(circuit.name + "_view" + i, view);
+            this.parts.add(part);
+            List<DBSPOperator> stack = new ArrayList<>(view.inputs);
+            while (!stack.isEmpty()) {
+                DBSPOperator op = stack.remove(stack.size() - 1);
+                if (op.is(DBSPSourceOperator.class) || owner.containsKey(op))
+                    continue;
+                owner.put(op, part);
+                stack.addAll(op.inputs);
+            }
+        }
+        CircuitPart rest = new CircuitPart(circuit.name + "_rest", null);
+        this.parts.add(rest);
+        for (DBSPOperator op : circuit.operators) {
+            CircuitPart part = owner.computeIfAbsent(op, o -> rest);
+            part.operators.add(op);
+        }
+        for (DBSPOperator op : circuit.operators) {
+            CircuitPart part = owner.get(op);
+            for (DBSPOperator input : op.inputs) {
+                CircuitPart source = owner.get(input);
+                if (source == part)
+                    continue;
+                CircuitPart.addOnce(part.parameters, input);
+                if (source != null)
+                    CircuitPart.addOnce(source.results, input);
+            }
+        }
+        for (DBSPSinkOperator o : circuit.outputOperators) {
+            CircuitPart source = owner.get(o.input());
+            if (source != null)
+                CircuitPart.addOnce(source.results, o.input());
+        }
+        this.parts.removeIf(p -> p.operators.isEmpty());
+    }
+
+    void streamType(DBSPOperator operator) {
+        this.builder.append("Stream<Circuit<()>, ");
+        operator.outputType.accept(this.innerVisitor);
+        this.builder.append(">");
+    }
+
+    /**
+     * Emit Rust code using a fresh visitor, and collect the names of all variables referenced.
+     */
+    String render(Set<String> used, Consumer<ToRustVisitor> emit) {
+        StringBuilder result = new StringBuilder();
+        IndentStream stream = new IndentStream(result);
+        ToRustVisitor visitor = new ToRustVisitor(stream, new ToRustInnerVisitor(stream) {
+            @Override
+            public boolean preorder(DBSPVariablePath expression) {
+                used.add(expression.variable);
+                return super.preorder(expression);
+            }
+        });
+        visitor.multiWorker = this.multiWorker;
+        emit.accept(visitor);
+        return result.toString();
+    }
+
+    /**
+     * Emit a Rust module with a function which builds the operators of a part.
+     * The function receives the streams it consumes and returns the streams it produces.
+     * The declarations used by the operators are duplicated in each function.
+     */
+    void generatePart(DBSPCircuit circuit, CircuitPart part) {
+        Set<String> used = new HashSet<>();
+        String operators = render(used, visitor -> {
+            for (DBSPOperator op : part.operators) {
+                op.accept(visitor);
+                visitor.builder.newline();
+            }
+        });
+        // Declarations can only refer to previous declarations.
+        List<IDBSPInnerDeclaration> declarations = new ArrayList<>(circuit.declarations.values());
+        List<String> code = new ArrayList<>();
+        for (int i = declarations.size() - 1; i >= 0; i--) {
+            IDBSPInnerDeclaration decl = declarations.get(i);
+            if (used.contains(decl.getName()))
+                code.add(0, render(used, visitor -> decl.accept(visitor.innerVisitor)));
+        }
+
+        if (part.view != null)
+            this.builder.append("// Operators computing view ")
+                    .append(part.view.getName())
+                    .newline();
+        this.builder.append("mod ")
+                .append(part.name)
+                .append(" {")
+                .increase()
+                .append("use super::*;")
+                .newline()
+                .newline()
+                .append("pub fn build(circuit: &Circuit<()>");
+        for (DBSPOperator p : part.parameters) {
+            this.builder.append(", ")
+                    .append(p.getName())
+                    .append(": ");
+            this.streamType(p);
+        }
+        this.builder.append(") -> (");
+        for (DBSPOperator r : part.results) {
+            this.streamType(r);
+            this.builder.append(", ");
+        }
+        this.builder.append(") {")
                 .increase();
-        for (IDBSPInnerDeclaration decl : circuit.declarations.values()) {
-            decl.accept(this.innerVisitor);
-            this.builder.newline();
+        for (String decl : code)
+            this.builder.append(decl)
+                    .newline();
+        this.builder.append(operators)
+                .append("(")
+                .intercalateS(", ", Linq.map(part.results, DBSPOperator::getName))
+                .append(")")
+                .newline()
+                .decrease()
+                .append("}")
+                .newline()
+                .decrease()
+                .append("}")
+                .newline()
+                .newline();
+    }
+
+    /**
+     * If the views are emitted separately emit the module for each view.
+     */
+    protected void generateParts(DBSPCircuit circuit) {
+        if (!this.splitViews)
+            return;
+        this.partition(circuit);
+        for (CircuitPart part : this.parts)
+            this.generatePart(circuit, part);
+    }
+
+    /**
+     * Emit the code which adds all the operators to the circuit.
+     */
+    protected void generateOperators(DBSPCircuit circuit) {
+        if (!this.splitViews) {
+            for (IDBSPInnerDeclaration decl : circuit.declarations.values()) {
+                decl.accept(this.innerVisitor);
+                this.builder.newline();
+            }
         }
         for (DBSPOperator i : circuit.inputOperators) {
             i.accept(this);
             this.builder.newline();
         }
-        for (DBSPOperator op : circuit.operators) {
-            op.accept(this);
-            this.builder.newline();
+        if (this.splitViews) {
+            for (CircuitPart part : this.parts) {
+                if (!part.results.isEmpty())
+                    this.builder.append("let (")
+                            .intercalateS(", ", Linq.map(part.results, DBSPOperator::getName))
+                            .append(") = ");
+                this.builder.append(part.name)
+                        .append("::build(circuit")
+                        .append(String.join("", Linq.map(part.parameters, p -> ", " + p.getName() + ".clone()")))
+                        .append(");")
+                        .newline();
+            }
+        } else {
+            for (DBSPOperator op : circuit.operators) {
+                op.accept(this);
+                this.builder.newline();
+            }
         }
         for (DBSPOperator o : circuit.outputOperators) {
             o.accept(this);
             this.builder.newline();
         }
+    }
 
+    public void generateBody(DBSPCircuit circuit) {
+        this.builder.append("let root = Circuit::build(|circuit| {")
+                .increase();
+        this.generateOperators(circuit);
         this.builder.decrease()
                 .append("})")
                 .append(".unwrap();")
@@ -179,9 +487,11 @@ public class ToRustVisitor extends CircuitVisitor {
         // function prototype:
         // fn name() -> impl FnMut(T0, T1) -> (O0, O1) {
         super.preorder(circuit);
+        this.generateParts(circuit);
         this.builder.append("fn ")
                 .append(circuit.name)
-                .append("() -> impl FnMut(");
+                .append(this.multiWorker ? "(workers: usize)" : "()")
+                .append(" -> impl FnMut(");
 
         boolean first = true;
         for (DBSPOperator i : circuit.inputOperators) {
@@ -194,6 +504,10 @@ public class ToRustVisitor extends CircuitVisitor {
         DBSPTypeTuple tuple = new DBSPTypeRawTuple(null, Linq.map(circuit.outputOperators, DBSPOperator::getNonVoidType));
         tuple.accept(this.innerVisitor);
         this.builder.append(" {").increase();
+        if (this.multiWorker) {
+            this.generateMultiWorker(circuit);
+            return false;
+        }
         // For each input and output operator a corresponding Rc cell
         for (DBSPOperator i : circuit.inputOperators)
             this.genRcCell(i);
@@ -222,7 +536,7 @@ public class ToRustVisitor extends CircuitVisitor {
                 .append("return ")
                 .append("(")
                 .intercalateS(", ",
-                        Linq.map(circuit.outputOperators, o -> o.getName() + "_external.borrow().clone()"))
+                        Linq.map(circuit.outputOperators, o -> "std::mem::take(&mut *" + o.getName() + "_external.borrow_mut())"))
                 .append(")")
                 .append(";")
                 .newline()
@@ -235,8 +549,67 @@ public class ToRustVisitor extends CircuitVisitor {
         return false;
     }
 
+    /**
+     * Generate the body of a circuit function which runs on multiple workers.
+     * Inputs are fed to the first worker, and the outputs of all workers are consolidated.
+     */
+    void generateMultiWorker(DBSPCircuit circuit) {
+        List<String> handles = new ArrayList<>();
+        for (DBSPOperator i : circuit.inputOperators)
+            handles.add(i.getName() + "_handle");
+        for (DBSPOperator o : circuit.outputOperators)
+            handles.add(o.getName() + "_handle");
+        this.builder.append("let (mut circuit, (")
+                .intercalateS(", ", handles)
+                .append(")) = Runtime::init_circuit(workers, |circuit| {")
+                .increase();
+        this.generateOperators(circuit);
+        this.builder.append("(")
+                .intercalateS(", ", handles)
+                .append(")")
+                .newline()
+                .decrease()
+                .append("}).unwrap();")
+                .newline();
+
+        this.builder.append("return move |")
+                .joinS(", ", Linq.map(circuit.inputOperators, DBSPOperator::getName))
+                .append("| {")
+                .increase();
+        for (DBSPOperator i : circuit.inputOperators)
+            this.builder.append(i.getName())
+                    .append("_handle.set_for_worker(0, ")
+                    .append(i.getName())
+                    .append(");")
+                    .newline();
+        this.builder.append("circuit.step().unwrap();")
+                .newline()
+                .append("return (")
+                .intercalateS(", ",
+                        Linq.map(circuit.outputOperators, o -> o.getName() + "_handle.consolidate()"))
+                .append(");")
+                .newline()
+                .decrease()
+                .append("};")
+                .newline()
+                .decrease()
+                .append("}")
+                .newline();
+    }
+
     @Override
     public boolean preorder(DBSPSourceOperator operator) {
+        if (this.multiWorker) {
+            this.writeComments(operator)
+                    .append("let (")
+                    .append(operator.getName())
+                    .append(", ")
+                    .append(operator.getName())
+                    .append("_handle) = circuit.add_input_stream::<");
+            operator.getNonVoidType().accept(this.innerVisitor);
+            this.builder.append(">();");
+            return false;
+        }
         this.writeComments(operator)
                 .append("let ")
                 .append(operator.getName())
@@ -250,6 +623,15 @@ public class ToRustVisitor extends CircuitVisitor {
     @Override
     public boolean preorder(DBSPSinkOperator operator) {
         this.writeComments(operator.query);
+        if (this.multiWorker) {
+            this.writeComments(operator)
+                    .append("let ")
+                    .append(operator.getName())
+                    .append("_handle = ")
+                    .append(operator.input().getName())
+                    .append(".output();");
+            return false;
+        }
         this.writeComments(operator)
                 .append(operator.input().getName())
                 .append(".")
@@ -320,6 +702,15 @@ public class ToRustVisitor extends CircuitVisitor {
 
     @Override
     public boolean preorder(DBSPIncrementalAggregateOperator operator) {
+        return this.incrementalAggregate(operator);
+    }
+
+    @Override
+    public boolean preorder(DBSPIncrementalMinMaxOperator operator) {
+        return this.incrementalAggregate(operator);
+    }
+
+    boolean incrementalAggregate(DBSPUnaryOperator operator) {
         DBSPType streamType = new DBSPTypeStream(operator.outputType);
         this.writeComments(operator)
                 .append("let ")
@@ -336,6 +727,36 @@ public class ToRustVisitor extends CircuitVisitor {
         return false;
     }
 
+    @Override
+    public boolean preorder(DBSPLinearAggregateOperator operator) {
+        // We generate two DBSP operator calls: aggregate_linear
+        // and map_index for the postprocessing
+        DBSPType streamType = new DBSPTypeStream(operator.outputType);
+        String tmp = new NameGen("stream").toString();
+        this.writeComments(operator)
+                .append("let ")
+                .append(tmp)
+                .append(" = ")
+                .append(operator.input().getName())
+                .append(".")
+                .append(operator.operation)
+                .append("(");
+        operator.getFunction().accept(this.innerVisitor);
+        builder.append(");")
+                .newline();
+
+        this.builder.append("let ")
+                .append(operator.getName())
+                .append(": ");
+        streamType.accept(this.innerVisitor);
+        builder.append(" = " )
+                .append(tmp)
+                .append(".map_index(");
+        operator.postprocess.accept(this.innerVisitor);
+        builder.append(");");
+        return false;
+    }
+
     @Override
     public boolean preorder(DBSPSumOperator operator) {
         this.writeComments(operator)
@@ -372,6 +793,361 @@ public class ToRustVisitor extends CircuitVisitor {
 
     @Override
     public boolean preorder(DBSPIncrementalJoinOperator operator) {
+        return this.incrementalJoin(operator);
+    }
+
+    @Override
+    public boolean preorder(DBSPIncrementalSemiJoinOperator operator) {
+        return this.incrementalJoin(operator);
+    }
+
+    @Override
+    public boolean preorder(DBSPAntiJoinOperator operator) {
+        return this.antiJoin(operator);
+    }
+
+    @Override
+    public boolean preorder(DBSPIncrementalAntiJoinOperator operator) {
+        return this.antiJoin(operator);
+    }
+
+    /**
+     * An anti-join subtracts from the left input the rows that join with a key.
+     */
+    boolean antiJoin(DBSPOperator operator) {
+        this.writeComments(operator)
+                .append("let ")
+                .append(operator.getName())
+                .append(": ");
+        new DBSPTypeStream(operator.outputType).accept(this.innerVisitor);
+        this.builder.append(" = ")
+                .append(operator.inputs.get(0).getName())
+                .append(".minus(&")
+                .append(operator.inputs.get(1).getName())
+                .append(".")
+                .append(operator.operation);
+        if (operator.is(DBSPIncrementalAntiJoinOperator.class))
+            this.builder.append("::<(), _, _, _>");
+        this.builder.append("(&")
+                .append(operator.inputs.get(2).getName())
+                .append(", ");
+        operator.getFunction().accept(this.innerVisitor);
+        this.builder.append("));");
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPRangeJoinOperator operator) {
+        return this.rangeJoin(operator, operator.rangeFunction, false);
+    }
+
+    @Override
+    public boolean preorder(DBSPIncrementalRangeJoinOperator operator) {
+        return this.rangeJoin(operator, operator.rangeFunction, true);
+    }
+
+    /**
+     * A range join produces an indexed Z-set with empty values, which is converted to a Z-set.
+     * The incremental version is expanded as a bilinear operator:
+     * delta(a join b) = a join I(b) + z^-1(I(a)) join b.
+     * The integrals are traces, which are updated incrementally; z^-1(I(a))
+     * shares the state of I(a), so each input is stored only once.
+     * DBSP does not partition the inputs of a range join, and keys in a range
+     * may live on different workers, so with multiple workers both inputs are
+     * gathered on worker 0.  The whole range join then runs on a single worker
+     * and does not scale with the number of workers.
+     */
+    boolean rangeJoin(DBSPOperator operator, DBSPExpression rangeFunction, boolean incremental) {
+        String left = operator.inputs.get(0).getName();
+        String right = operator.inputs.get(1).getName();
+        this.writeComments(operator)
+                .append("let ")
+                .append(operator.getName())
+                .append(": ");
+        new DBSPTypeStream(operator.outputType).accept(this.innerVisitor);
+        this.builder.append(" = {")
+                .increase();
+        if (this.multiWorker) {
+            this.builder.append("let left = ")
+                    .append(left)
+                    .append(".gather(0);")
+                    .newline()
+                    .append("let right = ")
+                    .append(right)
+                    .append(".gather(0);")
+                    .newline();
+            left = "left";
+            right = "right";
+        }
+        this.builder.append("let range = ");
+        rangeFunction.accept(this.innerVisitor);
+        this.builder.append(";")
+                .newline()
+                .append("let join = ");
+        operator.getFunction().accept(this.innerVisitor);
+        this.builder.append(";")
+                .newline()
+                .append("let join = move |lk: &_, lv: &_, rk: &_, rv: &_| Some((join(lk, lv, rk, rv), ()));")
+                .newline();
+        if (incremental) {
+            this.builder.append(left)
+                    .append(".")
+                    .append(operator.operation)
+                    .append("(&")
+                    .append(right)
+                    .append(".integrate_trace(), range, join)")
+                    .newline()
+                    .append(".plus(&")
+                    .append(left)
+                    .append(".integrate_trace().delay_trace().")
+                    .append(operator.operation)
+                    .append("(&")
+                    .append(right)
+                    .append(", range, join))");
+        } else {
+            this.builder.append(left)
+                    .append(".")
+                    .append(operator.operation)
+                    .append("(&")
+                    .append(right)
+                    .append(", range, join)");
+        }
+        this.builder.newline()
+                .append(".map(|(t, _)| t.clone())")
+                .newline()
+                .decrease()
+                .append("};");
+        return false;
+    }
+
+    @Override
+    public boolean preorder(DBSPMultiJoinOperator operator) {
+        return this.multiJoin(operator, operator.edges, false);
+    }
+
+    @Override
+    public boolean preorder(DBSPIncrementalMultiJoinOperator operator) {
+        return this.multiJoin(operator, operator.edges, true);
+    }
+
+    /**
+     * A step in the evaluation of a join of several relations:
+     * the rows joined so far are joined with the rows of a new relation.
+     */
+    static class JoinStep {
+        final DBSPMultiJoinOperator.JoinEdge edge;
+        final int edgeIndex;
+        /**
+         * Relation already joined.
+         */
+        final int from;
+        /**
+         * Relation joined in this step.
+         */
+        final int to;
+
+        JoinStep(DBSPMultiJoinOperator.JoinEdge edge, int edgeIndex, boolean forward) {
+            this.edge = edge;
+            this.edgeIndex = edgeIndex;
+            this.from = forward ? edge.left : edge.right;
+            this.to = forward ? edge.right : edge.left;
+        }
+
+        DBSPExpression fromKey() {
+            return this.from == this.edge.left ? this.edge.leftKey : this.edge.rightKey;
+        }
+    }
+
+    /**
+     * The steps that join all relations starting from the specified one,
+     * following the edges of the join.
+     */
+    static List<JoinStep> joinPlan(List<DBSPMultiJoinOperator.JoinEdge> edges, int start) {
+        List<JoinStep> result = new ArrayList<>();
+        Set<Integer> joined = new HashSet<>();
+        joined.add(start);
+        while (result.size() < edges.size()) {
+            boolean progress = false;
+            for (int i = 0; i < edges.size(); i++) {
+                DBSPMultiJoinOperator.JoinEdge edge = edges.get(i);
+                boolean left = joined.contains(edge.left);
+                if (left == joined.contains(edge.right))
+                    continue;
+                JoinStep step = new JoinStep(edge, i, left);
+                result.add(step);
+                joined.add(step.to);
+                progress = true;
+            }
+            if (!progress)
+                throw new RuntimeException("Join edges do not connect all relations");
+        }
+        return result;
+    }
+
+    static String indexName(String kind, int edge, int relation) {
+        return kind + edge + "_" + relation;
+    }
+
+    /**
+     * The input of a multi-way join which holds a relation indexed by the key of an edge.
+     */
+    static int indexInput(DBSPMultiJoinOperator.JoinEdge edge, int edgeIndex, int relation) {
+        return 2 * edgeIndex + (relation == edge.left ? 0 : 1);
+    }
+
+    /**
+     * A join of several relations is computed by a sequence of binary joins following
+     * the edges of the join; the intermediate results are tuples of rows.
+     * The inputs of the operator are the relations indexed by the key of each edge.
+     * The incremental version is expanded as a sum of delta queries, one for each relation i:
+     * delta(i) is joined with z^-1(I(j)) for the relations j before i, and with I(j)
+     * for the relations j after i.  The integrals are traces, which are updated
+     * incrementally; the delayed trace shares the state of the integral, so each
+     * indexed relation is stored only once.
+     */
+    boolean multiJoin(DBSPOperator operator, List<DBSPMultiJoinOperator.JoinEdge> edges, boolean incremental) {
+        int relations = edges.size() + 1;
+        DBSPType[] rowTypes = new DBSPType[relations];
+        for (int e = 0; e < edges.size(); e++) {
+            DBSPMultiJoinOperator.JoinEdge edge = edges.get(e);
+            rowTypes[edge.left] = operator.inputs.get(2 * e)
+                    .getNonVoidType().to(DBSPTypeIndexedZSet.class).elementType;
+            rowTypes[edge.right] = operator.inputs.get(2 * e + 1)
+                    .getNonVoidType().to(DBSPTypeIndexedZSet.class).elementType;
+        }
+        List<List<JoinStep>> plans = new ArrayList<>();
+        for (int start = 0; start < (incremental ? relations : 1); start++)
+            plans.add(joinPlan(edges, start));
+
+        // Integrals and delayed integrals used by the plans
+        Set<String> used = new HashSet<>();
+        for (int start = 0; start < plans.size(); start++) {
+            for (JoinStep step: plans.get(start)) {
+                used.add(indexName("trace", step.edgeIndex, step.to));
+                if (step.to < start)
+                    used.add(indexName("delayed", step.edgeIndex, step.to));
+            }
+        }
+
+        this.writeComments(operator)
+                .append("let ")
+                .append(operator.getName())
+                .append(": ");
+        new DBSPTypeStream(operator.outputType).accept(this.innerVisitor);
+        this.builder.append(" = {")
+                .increase();
+        if (incremental) {
+            for (int e = 0; e < edges.size(); e++) {
+                DBSPMultiJoinOperator.JoinEdge edge = edges.get(e);
+                for (int relation : Linq.list(edge.left, edge.right)) {
+                    String trace = indexName("trace", e, relation);
+                    if (!used.contains(trace))
+                        continue;
+                    this.builder.append("let ")
+                            .append(trace)
+                            .append(" = ")
+                            .append(operator.inputs.get(indexInput(edge, e, relation)).getName())
+                            .append(".integrate_trace();")
+                            .newline();
+                    String delayed = indexName("delayed", e, relation);
+                    if (used.contains(delayed))
+                        this.builder.append("let ")
+                                .append(delayed)
+                                .append(" = ")
+                                .append(trace)
+                                .append(".delay_trace();")
+                                .newline();
+                }
+            }
+        }
+
+        for (int start = 0; start < plans.size(); start++) {
+            List<JoinStep> plan = plans.get(start);
+            // Relations whose rows are in the intermediate result, in order
+            List<Integer> joined = new ArrayList<>();
+            joined.add(start);
+            this.builder.append("let path")
+                    .append(start)
+                    .append(" = ")
+                    .append(operator.inputs.get(indexInput(plan.get(0).edge, plan.get(0).edgeIndex, start)).getName())
+                    .increase();
+            for (int s = 0; s < plan.size(); s++) {
+                JoinStep step = plan.get(s);
+                DBSPType accType = joined.size() == 1 ? rowTypes[start] :
+                        new DBSPTypeRawTuple(null, Linq.map(joined, j -> rowTypes[j]));
+                DBSPVariablePath a = accType.ref().var("a");
+                if (s > 0) {
+                    DBSPExpression key = new DBSPApplyExpression(step.fromKey(),
+                            new DBSPBorrowExpression(a.field(joined.indexOf(step.from))));
+                    DBSPExpression indexFunction = new DBSPRawTupleExpression(key, a.applyClone())
+                            .closure(a.asParameter());
+                    this.builder.append(".index_with(");
+                    indexFunction.accept(this.innerVisitor);
+                    this.builder.append(")")
+                            .newline();
+                }
+                String other;
+                if (!incremental)
+                    other = operator.inputs.get(indexInput(step.edge, step.edgeIndex, step.to)).getName();
+                else if (step.to < start)
+                    other = indexName("delayed", step.edgeIndex, step.to);
+                else
+                    other = indexName("trace", step.edgeIndex, step.to);
+
+                DBSPVariablePath k = step.edge.keyType.var("k");
+                DBSPVariablePath b = rowTypes[step.to].ref().var("b");
+                DBSPExpression result;
+                if (s == plan.size() - 1) {
+                    DBSPExpression[] rows = new DBSPExpression[relations];
+                    for (int i = 0; i < relations; i++) {
+                        if (i == step.to)
+                            rows[i] = b;
+                        else if (joined.size() == 1)
+                            rows[i] = a;
+                        else
+                            rows[i] = new DBSPBorrowExpression(a.field(joined.indexOf(i)));
+                    }
+                    result = new DBSPApplyExpression(operator.getFunction(), rows);
+                } else {
+                    List<DBSPExpression> fields = new ArrayList<>();
+                    if (joined.size() == 1) {
+                        fields.add(a.applyClone());
+                    } else {
+                        for (int i = 0; i < joined.size(); i++)
+                            fields.add(new DBSPApplyMethodExpression(
+                                    "clone", rowTypes[joined.get(i)], a.field(i)));
+                    }
+                    fields.add(b.applyClone());
+                    result = new DBSPRawTupleExpression(fields.toArray(new DBSPExpression[0]));
+                }
+                DBSPExpression join = result.closure(k.asRefParameter(), a.asParameter(), b.asParameter());
+                this.builder.append(".")
+                        .append(operator.operation)
+                        .append("(&")
+                        .append(other)
+                        .append(", ");
+                join.accept(this.innerVisitor);
+                this.builder.append(")");
+                if (s < plan.size() - 1)
+                    this.builder.newline();
+                joined.add(step.to);
+            }
+            this.builder.append(";")
+                    .decrease()
+                    .newline();
+        }
+        this.builder.append("path0");
+        for (int start = 1; start < plans.size(); start++)
+            this.builder.append(".plus(&path")
+                    .append(start)
+                    .append(")");
+        this.builder.newline()
+                .decrease()
+                .append("};");
+        return false;
+    }
+
+    boolean incrementalJoin(DBSPOperator operator) {
         this.writeComments(operator)
                 .append("let ")
                 .append(operator.getName())
@@ -391,6 +1167,12 @@ public class ToRustVisitor extends CircuitVisitor {
         return false;
     }
 
+    /**
+     * With multiple workers every worker builds its own copy of the circuit,
+     * so the constant is only produced by worker 0; the other workers produce
+     * an empty Z-set.  Otherwise each row would have a weight equal to the
+     * number of workers.
+     */
     @Override
     public boolean preorder(DBSPConstantOperator operator) {
         assert operator.function != null;
@@ -398,24 +1180,46 @@ public class ToRustVisitor extends CircuitVisitor {
                 .append(operator.getName())
                 .append(" = ")
                 .append("circuit.add_source(Generator::new(|| ");
+        if (this.multiWorker)
+            this.builder.append("if Runtime::worker_index() == 0 { ");
         operator.function.accept(this.innerVisitor);
+        if (this.multiWorker)
+            this.builder.append(" } else { HasZero::zero() }");
         this.builder.append("));");
         return false;
     }
 
+    /**
+     * Write the Rust code for the node to the specified stream.
+     * Used to generate large programs without materializing them in memory.
+     */
+    public static void toRust(IndentStream stream, IDBSPOuterNode node) {
+        toRust(stream, node, false);
+    }
+
+    /**
+     * Write the Rust code for the node to the specified stream.
+     * @param splitViews  If true emit the operators computing each view in a separate module.
+     */
+    public static void toRust(IndentStream stream, IDBSPOuterNode node, boolean splitViews) {
+        ToRustVisitor visitor = new ToRustVisitor(stream).setSplitViews(splitViews);
+        node.accept(visitor);
+    }
+
+    public static void toRust(IndentStream stream, IDBSPInnerNode node) {
+        ToRustVisitor visitor = new ToRustVisitor(stream);
+        node.accept(visitor.innerVisitor);
+    }
+
     public static String toRustString(IDBSPOuterNode node) {
         StringBuilder builder = new StringBuilder();
-        IndentStream stream = new IndentStream(builder);
-        ToRustVisitor visitor = new ToRustVisitor(stream);
-        node.accept(visitor);
+        toRust(new IndentStream(builder), node);
         return builder.toString();
     }
 
     public static String toRustString(IDBSPInnerNode node) {
         StringBuilder builder = new StringBuilder();
-        IndentStream stream = new IndentStream(builder);
-        ToRustVisitor visitor = new ToRustVisitor(stream);
-        node.accept(visitor.innerVisitor);
+        toRust(new IndentStream(builder), node);
         return builder.toString();
     }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.sqlCompiler.compiler.visitors;
+
+import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.ir.InnerVisitor;
+import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
+import org.dbsp.sqlCompiler.ir.expression.DBSPPathExpression;
+import org.dbsp.sqlCompiler.ir.path.DBSPSimplePathSegment;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Computes the names of the functions called by a program.
+ * Used to emit only the runtime library functions that a circuit needs.
+ */
+public class UsedFunctionsVisitor extends InnerVisitor {
+    /**
+     * Names of the functions which are called.
+     */
+    public final Set<String> used = new HashSet<>();
+
+    public UsedFunctionsVisitor() {
+        super(true);
+    }
+
+    @Override
+    public boolean preorder(DBSPApplyExpression expression) {
+        if (expression.function.is(DBSPPathExpression.class)) {
+            DBSPPathExpression path = expression.function.to(DBSPPathExpression.class);
+            if (path.path.components.length == 1 &&
+                    path.path.components[0].is(DBSPSimplePathSegment.class))
+                this.used.add(path.path.components[0].to(DBSPSimplePathSegment.class).identifier);
+        }
+        return true;
+    }
+
+    /**
+     * The names of all functions called by the circuit.
+     */
+    public static Set<String> getUsedFunctions(DBSPCircuit circuit) {
+        UsedFunctionsVisitor visitor = new UsedFunctionsVisitor();
+        new CircuitExpressionsVisitor(visitor).apply(circuit);
+        return visitor.used;
+    }
+}
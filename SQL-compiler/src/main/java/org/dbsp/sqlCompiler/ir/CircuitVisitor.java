@@ -129,6 +129,26 @@ public abstract class CircuitVisitor extends IdGen implements Function<DBSPCircu
         else return true;
     }
 
+    public boolean preorder(DBSPLinearAggregateOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPUnaryOperator) node);
+        else return true;
+    }
+
+    public boolean preorder(DBSPMinMaxOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPUnaryOperator) node);
+        else return true;
+    }
+
+    public boolean preorder(DBSPIncrementalMinMaxOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPUnaryOperator) node);
+        else return true;
+    }
+
+    public boolean preorder(DBSPTopKOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPUnaryOperator) node);
+        else return true;
+    }
+
     public boolean preorder(DBSPWindowAggregateOperator node) {
         if (this.visitSuper) return this.preorder((DBSPUnaryOperator) node);
         else return true;
@@ -199,6 +219,46 @@ public abstract class CircuitVisitor extends IdGen implements Function<DBSPCircu
         else return true;
     }
 
+    public boolean preorder(DBSPSemiJoinOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPOperator) node);
+        else return true;
+    }
+
+    public boolean preorder(DBSPIncrementalSemiJoinOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPOperator) node);
+        else return true;
+    }
+
+    public boolean preorder(DBSPAntiJoinOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPOperator) node);
+        else return true;
+    }
+
+    public boolean preorder(DBSPIncrementalAntiJoinOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPOperator) node);
+        else return true;
+    }
+
+    public boolean preorder(DBSPRangeJoinOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPOperator) node);
+        else return true;
+    }
+
+    public boolean preorder(DBSPIncrementalRangeJoinOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPOperator) node);
+        else return true;
+    }
+
+    public boolean preorder(DBSPMultiJoinOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPOperator) node);
+        else return true;
+    }
+
+    public boolean preorder(DBSPIncrementalMultiJoinOperator node) {
+        if (this.visitSuper) return this.preorder((DBSPOperator) node);
+        else return true;
+    }
+
     ////////////////////////////////////
 
     public void postorder(DBSPOperator ignored) {}
@@ -231,6 +291,38 @@ public abstract class CircuitVisitor extends IdGen implements Function<DBSPCircu
         if (this.visitSuper) this.postorder((DBSPOperator) node);
     }
 
+    public void postorder(DBSPSemiJoinOperator node) {
+        if (this.visitSuper) this.postorder((DBSPOperator) node);
+    }
+
+    public void postorder(DBSPIncrementalSemiJoinOperator node) {
+        if (this.visitSuper) this.postorder((DBSPOperator) node);
+    }
+
+    public void postorder(DBSPAntiJoinOperator node) {
+        if (this.visitSuper) this.postorder((DBSPOperator) node);
+    }
+
+    public void postorder(DBSPIncrementalAntiJoinOperator node) {
+        if (this.visitSuper) this.postorder((DBSPOperator) node);
+    }
+
+    public void postorder(DBSPRangeJoinOperator node) {
+        if (this.visitSuper) this.postorder((DBSPOperator) node);
+    }
+
+    public void postorder(DBSPIncrementalRangeJoinOperator node) {
+        if (this.visitSuper) this.postorder((DBSPOperator) node);
+    }
+
+    public void postorder(DBSPMultiJoinOperator node) {
+        if (this.visitSuper) this.postorder((DBSPOperator) node);
+    }
+
+    public void postorder(DBSPIncrementalMultiJoinOperator node) {
+        if (this.visitSuper) this.postorder((DBSPOperator) node);
+    }
+
     public void postorder(DBSPAggregateOperator node) {
         if (this.visitSuper) this.postorder((DBSPUnaryOperator) node);
     }
@@ -239,6 +331,22 @@ public abstract class CircuitVisitor extends IdGen implements Function<DBSPCircu
         if (this.visitSuper) this.postorder((DBSPUnaryOperator) node);
     }
 
+    public void postorder(DBSPLinearAggregateOperator node) {
+        if (this.visitSuper) this.postorder((DBSPUnaryOperator) node);
+    }
+
+    public void postorder(DBSPMinMaxOperator node) {
+        if (this.visitSuper) this.postorder((DBSPUnaryOperator) node);
+    }
+
+    public void postorder(DBSPIncrementalMinMaxOperator node) {
+        if (this.visitSuper) this.postorder((DBSPUnaryOperator) node);
+    }
+
+    public void postorder(DBSPTopKOperator node) {
+        if (this.visitSuper) this.postorder((DBSPUnaryOperator) node);
+    }
+
     public void postorder(DBSPWindowAggregateOperator node) {
         if (this.visitSuper) this.postorder((DBSPUnaryOperator) node);
     }
@@ -68,6 +68,17 @@ public class DBSPApplyExpression extends DBSPExpression {
         this.checkArgs();
     }
 
+    /**
+     * Function application with an explicit result type; used when
+     * the function has no precise type.
+     */
+    public DBSPApplyExpression(DBSPExpression function, @Nullable DBSPType returnType, DBSPExpression... arguments) {
+        super(null, returnType);
+        this.function = function;
+        this.arguments = arguments;
+        this.checkArgs();
+    }
+
     @Override
     public void accept(InnerVisitor visitor) {
         if (!visitor.preorder(this)) return;
@@ -48,6 +48,15 @@ public class DBSPApplyMethodExpression extends DBSPExpression {
         this.arguments = arguments;
     }
 
+    public DBSPApplyMethodExpression(
+            DBSPExpression function, @Nullable DBSPType returnType,
+            DBSPExpression self, DBSPExpression... arguments) {
+        super(null, returnType);
+        this.function = function;
+        this.self = self;
+        this.arguments = arguments;
+    }
+
     @SuppressWarnings("unused")
     public DBSPApplyMethodExpression(
             DBSPExpression function,
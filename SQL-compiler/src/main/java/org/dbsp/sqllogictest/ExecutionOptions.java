@@ -77,6 +77,8 @@ public class ExecutionOptions {
     @Parameter(names = "-b", description = "Load a list of buggy commands to skip from this file")
     @Nullable
     String bugsFile = null;
+    @Parameter(names = "-w", description = "Number of DBSP worker threads running each test circuit")
+    int workers = 1;
 
     static class PostgresPolicy implements AcceptancePolicy {
         @Override
@@ -162,6 +164,7 @@ public class ExecutionOptions {
                 DBSPExecutor dExec = new DBSPExecutor(!this.doNotExecute, options);
                 dExec.avoid(sltBugs);
                 dExec.setValidateStatus(this.validateStatus);
+                dExec.setWorkers(this.workers);
                 return dExec;
             case "JDBC": {
                 return this.jdbcExecutor(sltBugs);
@@ -171,6 +174,7 @@ public class ExecutionOptions {
                 DBSP_JDBC_Executor result = new DBSP_JDBC_Executor(jdbc, !this.doNotExecute, options);
                 result.avoid(sltBugs);
                 result.setValidateStatus(this.validateStatus);
+                result.setWorkers(this.workers);
                 return result;
             }
         }
@@ -30,6 +30,7 @@ import org.dbsp.sqlCompiler.compiler.optimizer.CircuitOptimizer;
 import org.dbsp.sqlCompiler.compiler.visitors.DBSPCompiler;
 import org.dbsp.sqlCompiler.compiler.frontend.ExpressionCompiler;
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.IDBSPNode;
 import org.dbsp.sqlCompiler.compiler.frontend.TableContents;
 import org.dbsp.sqlCompiler.ir.DBSPFunction;
 import org.dbsp.sqlCompiler.ir.expression.*;
@@ -43,6 +44,7 @@ import org.dbsp.sqlCompiler.ir.type.*;
 import org.dbsp.sqlCompiler.compiler.visitors.ToRustVisitor;
 import org.dbsp.sqlCompiler.ir.type.primitive.*;
 import org.dbsp.sqllogictest.*;
+import org.dbsp.util.IndentStream;
 import org.dbsp.util.Linq;
 import org.dbsp.util.Logger;
 import org.dbsp.util.Utilities;
@@ -63,10 +65,12 @@ public class DBSPExecutor extends SqlTestExecutor {
      * exercise it.
      */
     static class ProgramAndTester {
+        public final DBSPCircuit circuit;
         public final String program;
         public final DBSPFunction tester;
 
-        ProgramAndTester(String program, DBSPFunction tester) {
+        ProgramAndTester(DBSPCircuit circuit, String program, DBSPFunction tester) {
+            this.circuit = circuit;
             this.program = program;
             this.tester = tester;
         }
@@ -77,6 +81,7 @@ public class DBSPExecutor extends SqlTestExecutor {
     private final boolean execute;
     private int batchSize;  // Number of queries to execute together
     private int skip;       // Number of queries to skip in each test file.
+    private int workers = 1; // Number of DBSP worker threads running each circuit.
     public final CompilerOptions options;
     final SqlTestPrepareInput inputPreparation;
     final SqlTestPrepareTables tablePreparation;
@@ -88,6 +93,14 @@ public class DBSPExecutor extends SqlTestExecutor {
         this.skip = skip;
     }
 
+    /**
+     * Set the number of worker threads used to run the circuits.
+     * If larger than 1 the circuits use the multi-threaded DBSP runtime.
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
     /**
      * Create an executor that executes SqlLogicTest queries directly compiling to
      * Rust and using the DBSP library.
@@ -349,13 +362,14 @@ public class DBSPExecutor extends SqlTestExecutor {
                 throw new RuntimeException("No hash or outputs specified");
         }
 
-        String rust = ToRustVisitor.toRustString(dbsp);
+        StringBuilder rust = new StringBuilder();
+        dbsp.accept(new ToRustVisitor(new IndentStream(rust)).setMultiWorker(this.workers > 1));
         DBSPFunction func = createTesterCode(
-                "tester" + suffix, dbsp,
+                "tester" + suffix, dbsp, this.workers,
                 inputGeneratingFunction,
                 compiler.getTableContents(),
                 expectedOutput, testQuery.outputDescription);
-        return new ProgramAndTester(rust, func);
+        return new ProgramAndTester(dbsp, rust.toString(), func);
     }
 
     void cleanupFilesystem() {
@@ -456,6 +470,8 @@ public class DBSPExecutor extends SqlTestExecutor {
      * Generates a Rust function which tests a DBSP circuit.
      * @param name          Name of the generated function.
      * @param circuit       DBSP circuit that will be tested.
+     * @param workers       Number of workers running the circuit; if 1 the
+     *                      circuit is built single-threaded.
      * @param output        Expected data from the circuit.
      * @param description   Description of the expected outputs.
      * @return              The code for a function that runs the circuit with the specified
@@ -464,13 +480,16 @@ public class DBSPExecutor extends SqlTestExecutor {
     static DBSPFunction createTesterCode(
             String name,
             DBSPCircuit circuit,
+            int workers,
             DBSPFunction inputGeneratingFunction,
             TableContents contents,
             @Nullable DBSPZSetLiteral output,
             SqlTestQueryOutputDescription description) {
         List<DBSPStatement> list = new ArrayList<>();
         DBSPLetStatement circ = new DBSPLetStatement("circ",
-                new DBSPApplyExpression(circuit.name, DBSPTypeAny.instance), true);
+                workers > 1 ?
+                        new DBSPApplyExpression(circuit.name, DBSPTypeAny.instance, new DBSPUSizeLiteral(workers)) :
+                        new DBSPApplyExpression(circuit.name, DBSPTypeAny.instance), true);
         list.add(circ);
         DBSPType circuitOutputType = circuit.getOutputType(0);
         // the following may not be the same, since SqlLogicTest sometimes lies about the output type
@@ -615,13 +634,23 @@ public class DBSPExecutor extends SqlTestExecutor {
         String genFileName = testFileName + ".rs";
         String testFilePath = rustDirectory + "/" + genFileName;
         PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
-        writer.println(ToRustVisitor.generatePreamble());
+        IndentStream stream = new IndentStream(writer);
+        List<IDBSPNode> nodes = new ArrayList<>(inputFunctions);
+        for (ProgramAndTester pt: functions) {
+            nodes.add(pt.circuit);
+            nodes.add(pt.tester);
+        }
+        ToRustVisitor.generatePreamble(stream, nodes.toArray(new IDBSPNode[0]));
+        stream.newline();
 
-        for (DBSPFunction function: inputFunctions)
-            writer.println(ToRustVisitor.toRustString(function));
+        for (DBSPFunction function: inputFunctions) {
+            ToRustVisitor.toRust(stream, function);
+            stream.newline();
+        }
         for (ProgramAndTester pt: functions) {
-            writer.println(pt.program);
-            writer.println(ToRustVisitor.toRustString(pt.tester));
+            stream.append(pt.program).newline();
+            ToRustVisitor.toRust(stream, pt.tester);
+            stream.newline();
         }
         writer.close();
         return testFileName;
@@ -25,14 +25,17 @@
 
 package org.dbsp.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Base class for objects that have unique Ids.
+ * Ids are unique across all threads, so several compilers can run concurrently.
  */
 public class IdGen {
-    static long idGen = 0;
+    static final AtomicLong idGen = new AtomicLong();
     public final long id;
 
     public IdGen() {
-        this.id = idGen++;
+        this.id = idGen.getAndIncrement();
     }
 }
@@ -33,6 +33,10 @@ public class IndentStream implements IIndentStream {
     int indent = 0;
     static final int amount = 4;
     boolean emitIndent = false;
+    /**
+     * Number of characters written to the output stream.
+     */
+    long written = 0;
 
     public IndentStream(Appendable appendable) {
         this.stream = appendable;
@@ -63,20 +67,34 @@ public class IndentStream implements IIndentStream {
         return this.appendChar(c);
     }
 
+    /**
+     * Number of characters written so far to the output stream,
+     * including the indentation.
+     */
+    public long getCharactersWritten() {
+        return this.written;
+    }
+
+    void emitIndent() throws IOException {
+        this.emitIndent = false;
+        for (int in = 0; in < this.indent; in++)
+            this.stream.append(' ');
+        this.written += this.indent;
+    }
+
     @Override
     public IIndentStream appendChar(char c) {
         try {
             if (c == '\n') {
                 this.stream.append(c);
+                this.written++;
                 this.emitIndent = true;
                 return this;
             }
-            if (this.emitIndent && !Character.isSpaceChar(c)) {
-                this.emitIndent = false;
-                for (int in = 0; in < this.indent; in++)
-                    this.stream.append(' ');
-            }
+            if (this.emitIndent && !Character.isSpaceChar(c))
+                this.emitIndent();
             this.stream.append(c);
+            this.written++;
             return this;
         } catch (IOException ex) {
             throw new RuntimeException(ex);
@@ -85,11 +103,28 @@ public class IndentStream implements IIndentStream {
 
     @Override
     public IIndentStream append(String string) {
-        for (int i = 0; i < string.length(); i++) {
-            char c = string.charAt(i);
-            this.appendChar(c);
+        // Copy whole runs of characters between the points where
+        // indentation has to be inserted, instead of one character at a time.
+        try {
+            int start = 0;
+            for (int i = 0; i < string.length(); i++) {
+                char c = string.charAt(i);
+                if (c == '\n') {
+                    this.stream.append(string, start, i + 1);
+                    this.emitIndent = true;
+                    start = i + 1;
+                } else if (this.emitIndent && !Character.isSpaceChar(c)) {
+                    this.stream.append(string, start, i);
+                    this.emitIndent();
+                    start = i;
+                }
+            }
+            this.stream.append(string, start, string.length());
+            this.written += string.length();
+            return this;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
-        return this;
     }
 
     @Override
@@ -23,8 +23,9 @@
 
 package org.dbsp.util;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Logging class which can output nicely indented strings.
@@ -32,7 +33,10 @@ import java.util.Map;
  * to output nicely indented hierarchical visualizations.
  */
 public class Logger implements IDebuggable {
-    private final Map<String, Integer> debugLevel = new HashMap<>();
+    /**
+     * Debug levels may be queried concurrently by compilers running on different threads.
+     */
+    private final Map<String, Integer> debugLevel = new ConcurrentHashMap<>();
     private final IndentStream debugStream;
     private final IndentStream noStream;
 
@@ -62,6 +66,14 @@ public class Logger implements IDebuggable {
         });
     }
 
+    /**
+     * Get the logging stream.  The stream is shared and not synchronized,
+     * so this should only be used by code which runs on a single thread;
+     * code which may run concurrently should call 'log'.
+     * @param module  Module which does the logging.
+     * @param level   Level of message that is being logged.
+     * @return        A stream where the message can be appended.
+     */
     public IndentStream from(String module, int level) {
         int debugLevel = this.getDebugLevel(module);
         if (debugLevel >= level)
@@ -79,6 +91,27 @@ public class Logger implements IDebuggable {
         return this.from(module.getModule(), level);
     }
 
+    /**
+     * Log a message if the debug level of the module is at least 'level'.
+     * The message is only built when it is logged, so logging is free
+     * when it is disabled.  Messages logged by different threads,
+     * e.g., by views compiled in parallel, are not interleaved.
+     * @param module   Module which does the logging.
+     * @param level    Level of message that is being logged.
+     * @param message  Function which writes the message to the logging stream.
+     */
+    public void log(String module, int level, Consumer<IndentStream> message) {
+        if (this.getDebugLevel(module) >= level) {
+            synchronized (this.debugStream) {
+                message.accept(this.debugStream);
+            }
+        }
+    }
+
+    public void log(IModule module, int level, Consumer<IndentStream> message) {
+        this.log(module.getModule(), level, message);
+    }
+
     /**
      * Debug level is controlled per module and can be changed dynamically.
      * @param module  Module name.
@@ -106,6 +139,8 @@ public class Logger implements IDebuggable {
      */
     @Override
     public Appendable setDebugStream(Appendable writer) {
-        return this.debugStream.setOutputStream(writer);
+        synchronized (this.debugStream) {
+            return this.debugStream.setOutputStream(writer);
+        }
     }
 }
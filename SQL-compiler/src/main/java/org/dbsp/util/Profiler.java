@@ -0,0 +1,209 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.util;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the time and memory spent in each phase of the compiler,
+ * and the size of the program before and after each phase.
+ * A disabled profiler records nothing.
+ * Phases may run concurrently on several threads.
+ */
+public class Profiler {
+    /**
+     * A phase of the compilation.  Created by Profiler.start,
+     * and recorded when 'end' is called.
+     */
+    public class Phase {
+        public final String name;
+        public final long thread;
+        final long startTime;
+        final long startAllocated;
+        long elapsedNanos;
+        long allocatedBytes;
+        /**
+         * Sizes of the program before the phase, e.g., number of operators.
+         */
+        public final Map<String, Long> before;
+        /**
+         * Sizes of the program after the phase.
+         */
+        public final Map<String, Long> after;
+
+        Phase(String name) {
+            this.name = name;
+            this.thread = Thread.currentThread().getId();
+            this.before = new LinkedHashMap<>();
+            this.after = new LinkedHashMap<>();
+            this.startAllocated = Profiler.this.enabled ? allocatedBytes() : 0;
+            this.startTime = System.nanoTime();
+        }
+
+        public Phase before(String counter, long value) {
+            this.before.put(counter, value);
+            return this;
+        }
+
+        public Phase after(String counter, long value) {
+            this.after.put(counter, value);
+            return this;
+        }
+
+        /**
+         * The phase has finished executing.
+         */
+        public void end() {
+            if (!Profiler.this.enabled)
+                return;
+            this.elapsedNanos = System.nanoTime() - this.startTime;
+            long allocated = allocatedBytes();
+            this.allocatedBytes = allocated < 0 ? -1 : allocated - this.startAllocated;
+            Profiler.this.add(this);
+        }
+
+        void toJson(StringBuilder builder) {
+            builder.append("{ \"name\": ")
+                    .append(quote(this.name))
+                    .append(", \"thread\": ")
+                    .append(this.thread)
+                    .append(", \"wallNanos\": ")
+                    .append(this.elapsedNanos)
+                    .append(", \"allocatedBytes\": ")
+                    .append(this.allocatedBytes)
+                    .append(", \"before\": ");
+            counters(builder, this.before);
+            builder.append(", \"after\": ");
+            counters(builder, this.after);
+            builder.append(" }");
+        }
+    }
+
+    public final boolean enabled;
+    final List<Phase> phases;
+
+    public Profiler(boolean enabled) {
+        this.enabled = enabled;
+        this.phases = new ArrayList<>();
+    }
+
+    /**
+     * A profiler which records nothing.
+     */
+    public static Profiler disabled() {
+        return new Profiler(false);
+    }
+
+    /**
+     * Start measuring a phase.
+     */
+    public Phase start(String name) {
+        return new Phase(name);
+    }
+
+    synchronized void add(Phase phase) {
+        this.phases.add(phase);
+    }
+
+    /**
+     * The phases recorded so far, in the order in which they ended.
+     */
+    public synchronized List<Phase> getPhases() {
+        return new ArrayList<>(this.phases);
+    }
+
+    /**
+     * Number of bytes allocated by the current thread, or -1 if the JVM cannot measure it.
+     */
+    static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    static String quote(String string) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c: string.toCharArray()) {
+            if (c == '"' || c == '\\')
+                builder.append('\\').append(c);
+            else if (c < ' ')
+                builder.append(String.format("\\u%04x", (int) c));
+            else
+                builder.append(c);
+        }
+        return builder.append("\"").toString();
+    }
+
+    static void counters(StringBuilder builder, Map<String, Long> counters) {
+        builder.append("{");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry: counters.entrySet()) {
+            if (!first)
+                builder.append(",");
+            first = false;
+            builder.append(" ")
+                    .append(quote(entry.getKey()))
+                    .append(": ")
+                    .append(entry.getValue());
+        }
+        builder.append(first ? "}" : " }");
+    }
+
+    /**
+     * The recorded phases as a JSON document.
+     */
+    public String toJson() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\n  \"phases\": [");
+        boolean first = true;
+        for (Phase phase: this.getPhases()) {
+            builder.append(first ? "\n    " : ",\n    ");
+            first = false;
+            phase.toJson(builder);
+        }
+        builder.append("\n  ]\n}\n");
+        return builder.toString();
+    }
+
+    public void writeJson(String file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(this.toJson());
+        }
+    }
+}
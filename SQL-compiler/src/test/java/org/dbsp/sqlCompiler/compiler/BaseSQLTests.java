@@ -24,10 +24,10 @@
 package org.dbsp.sqlCompiler.compiler;
 
 import org.apache.calcite.sql.parser.SqlParseException;
+import org.dbsp.sqlCompiler.compiler.optimizer.CircuitOptimizer;
 import org.dbsp.sqlCompiler.compiler.visitors.*;
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
 import org.dbsp.sqlCompiler.circuit.SqlRuntimeLibrary;
-import org.dbsp.sqlCompiler.ir.CircuitVisitor;
 import org.dbsp.sqlCompiler.ir.DBSPFunction;
 import org.dbsp.sqlCompiler.ir.expression.*;
 import org.dbsp.sqlCompiler.ir.expression.literal.*;
@@ -76,38 +76,34 @@ public class BaseSQLTests {
         SqlRuntimeLibrary.instance.writeSqlLibrary( "../lib/genlib/src/lib.rs");
     }
 
-    void createTester(PrintWriter writer, DBSPCircuit circuit,
-                      InputOutputPair... streams) {
+    /**
+     * Write the Rust code of the circuit and of a tester which feeds it the specified streams.
+     */
+    void writeCircuitAndTester(PrintWriter writer, DBSPCircuit circuit,
+                               InputOutputPair... streams) {
         DBSPFunction tester = createTesterCode(circuit, streams);
+        writer.println(ToRustVisitor.generatePreamble(circuit, tester));
+        writer.println(ToRustVisitor.toRustString(circuit));
         writer.println(ToRustVisitor.toRustString(tester));
     }
 
-    CircuitVisitor getOptimizer() {
-        DeadCodeVisitor dead = new DeadCodeVisitor();
-        return new PassesVisitor(
-                new OptimizeIncrementalVisitor(),
-                dead,
-                new RemoveOperatorsVisitor(dead.reachable),
-                new NoIntegralVisitor()
-        );
-    }
-
     void testQueryBase(String query, boolean incremental, boolean optimize, InputOutputPair... streams) {
         try {
             query = "CREATE VIEW V AS " + query;
             DBSPCompiler compiler = this.compileQuery(query);
-            PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
-            writer.println(ToRustVisitor.generatePreamble());
             DBSPCircuit circuit = compiler.getResult();
-            circuit = new OptimizeDistinctVisitor().apply(circuit);
-            if (incremental)
-                circuit = new IncrementalizeVisitor().apply(circuit);
             if (optimize) {
-                CircuitVisitor optimizer = this.getOptimizer();
-                circuit = optimizer.apply(circuit);
+                // Run the same passes as the compiler
+                CompilerOptions.Optimizer optimizerOptions = new CompilerOptions.Optimizer();
+                optimizerOptions.incrementalize = incremental;
+                circuit = new CircuitOptimizer(optimizerOptions).optimize(circuit);
+            } else {
+                circuit = new OptimizeDistinctVisitor().apply(circuit);
+                if (incremental)
+                    circuit = new IncrementalizeVisitor().apply(circuit);
             }
-            writer.println(ToRustVisitor.toRustString(circuit));
-            this.createTester(writer, circuit, streams);
+            PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
+            this.writeCircuitAndTester(writer, circuit, streams);
             writer.close();
             Utilities.compileAndTestRust(rustDirectory, false);
         } catch (Exception ex) {
@@ -164,19 +160,30 @@ public class BaseSQLTests {
         return new DBSPZSetLiteral(e0, e1);
     }
 
+    static DBSPFunction createTesterCode(
+            DBSPCircuit circuit,
+            InputOutputPair... data) {
+        return createTesterCode(circuit, 1, data);
+    }
+
     /**
      * Generates a Rust function which tests a DBSP circuit.
      * @param circuit       DBSP circuit that will be tested.
+     * @param workers       Number of workers running the circuit; if 1 the
+     *                      circuit is built single-threaded.
      * @param data          Input/output pairs of data for circuit.
      * @return              The code for a function that runs the circuit with the specified
      *                      input and tests the produced output.
      */
     static DBSPFunction createTesterCode(
             DBSPCircuit circuit,
+            int workers,
             InputOutputPair... data) {
         List<DBSPStatement> list = new ArrayList<>();
         DBSPLetStatement circ = new DBSPLetStatement("circuit",
-                new DBSPApplyExpression(circuit.name, DBSPTypeAny.instance), true);
+                workers > 1 ?
+                        new DBSPApplyExpression(circuit.name, DBSPTypeAny.instance, new DBSPUSizeLiteral(workers)) :
+                        new DBSPApplyExpression(circuit.name, DBSPTypeAny.instance), true);
         list.add(circ);
         for (InputOutputPair pairs: data) {
             DBSPLetStatement out = new DBSPLetStatement("output",
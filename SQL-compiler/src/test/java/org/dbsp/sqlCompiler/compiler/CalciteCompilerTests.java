@@ -25,12 +25,24 @@
 
 package org.dbsp.sqlCompiler.compiler;
 
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelVisitor;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.TableScan;
 import org.apache.calcite.sql.SqlNode;
 import org.apache.calcite.sql.parser.SqlParseException;
+import org.dbsp.sqlCompiler.compiler.frontend.statements.CreateViewStatement;
 import org.dbsp.sqlCompiler.compiler.sqlparser.CalciteCompiler;
+import org.dbsp.sqlCompiler.compiler.sqlparser.TableStatistics;
+import org.dbsp.util.Linq;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
 /**
  * Test the calcite compiler infrastructure.
  */
@@ -61,4 +73,60 @@ public class CalciteCompilerTests {
         SqlNode node = calcite.parse(query);
         Assert.assertNotNull(node);
     }
+
+    /**
+     * Compile a join of three tables with statistics.
+     * @return The pairs of tables which are joined directly.
+     */
+    static List<List<String>> joinedTables(CompilerOptions options) throws SqlParseException {
+        CalciteCompiler calcite = new CalciteCompiler(options);
+        calcite.setStatistics("A", new TableStatistics()
+                .setRowCount(1000000)
+                .setDistinctValues("X", 1000));
+        calcite.setStatistics("B", new TableStatistics()
+                .setRowCount(1000)
+                .setDistinctValues("X", 1000)
+                .setDistinctValues("Y", 1000));
+        calcite.setStatistics("C", new TableStatistics()
+                .setRowCount(10)
+                .setDistinctValues("Y", 10));
+        String ddl = "CREATE TABLE A (X INT NOT NULL, V INT);\n" +
+                "CREATE TABLE B (X INT NOT NULL, Y INT NOT NULL);\n" +
+                "CREATE TABLE C (Y INT NOT NULL, W INT)";
+        for (SqlNode node: calcite.parseStatements(ddl))
+            calcite.compile(node.toString(), node, null);
+        String query = "CREATE VIEW V AS SELECT A.V, C.W FROM A " +
+                "JOIN B ON A.X = B.X JOIN C ON B.Y = C.Y";
+        CreateViewStatement view = (CreateViewStatement) calcite.compile(query, calcite.parse(query), null);
+        List<List<String>> joined = new ArrayList<>();
+        new RelVisitor() {
+            @Override
+            public void visit(RelNode node, int ordinal, @Nullable RelNode parent) {
+                if (node instanceof Join) {
+                    RelNode left = ((Join) node).getLeft();
+                    RelNode right = ((Join) node).getRight();
+                    if (left instanceof TableScan && right instanceof TableScan)
+                        joined.add(Linq.list(
+                                Objects.requireNonNull(left.getTable()).getQualifiedName().get(1),
+                                Objects.requireNonNull(right.getTable()).getQualifiedName().get(1)));
+                }
+                super.visit(node, ordinal, parent);
+            }
+        }.go(view.getRelNode());
+        return joined;
+    }
+
+    @Test
+    public void joinOrderTest() throws SqlParseException {
+        CompilerOptions incremental = new CompilerOptions();
+        incremental.optimizerOptions.incrementalize = true;
+        List<List<String>> joined = joinedTables(incremental);
+        // The small tables B and C are joined first
+        Assert.assertEquals(1, joined.size());
+        Assert.assertEquals(Linq.list("B", "C"), joined.get(0));
+        // The cost model of incremental circuits is not used for non-incremental circuits
+        joined = joinedTables(options);
+        Assert.assertEquals(1, joined.size());
+        Assert.assertEquals(Linq.list("A", "B"), joined.get(0));
+    }
 }
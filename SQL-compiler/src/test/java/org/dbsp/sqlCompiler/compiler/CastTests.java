@@ -70,11 +70,9 @@ public class CastTests extends BaseSQLTests {
             query = "CREATE VIEW V AS " + query;
             DBSPCompiler compiler = this.compileQuery(query);
             PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
-            writer.println(ToRustVisitor.generatePreamble());
             DBSPCircuit circuit = compiler.getResult();
-            writer.println(ToRustVisitor.toRustString(circuit));
             InputOutputPair streams = new InputOutputPair(this.createInput(), expectedOutput);
-            this.createTester(writer, circuit, streams);
+            this.writeCircuitAndTester(writer, circuit, streams);
             writer.close();
             Utilities.compileAndTestRust(rustDirectory, false);
         } catch (Exception ex) {
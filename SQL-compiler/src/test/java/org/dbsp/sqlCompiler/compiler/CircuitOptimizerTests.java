@@ -0,0 +1,399 @@
+/*
+ * Copyright 2022 VMware, Inc.
+ * SPDX-License-Identifier: MIT
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.dbsp.sqlCompiler.compiler;
+
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.operator.*;
+import org.dbsp.sqlCompiler.compiler.optimizer.CircuitOptimizer;
+import org.dbsp.sqlCompiler.compiler.sqlparser.TableStatistics;
+import org.dbsp.sqlCompiler.compiler.visitors.CSEVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.DBSPCompiler;
+import org.dbsp.sqlCompiler.compiler.visitors.ToRustVisitor;
+import org.dbsp.sqlCompiler.ir.type.DBSPTypeTuple;
+import org.dbsp.util.Linq;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for circuit optimization passes which check the
+ * structure of the optimized circuit; they do not invoke the Rust compiler.
+ */
+public class CircuitOptimizerTests {
+    static final String ddl = "CREATE TABLE T (\n" +
+            "COL1 INT NOT NULL" +
+            ", COL2 DOUBLE NOT NULL" +
+            ", COL3 BOOLEAN NOT NULL" +
+            ", COL4 VARCHAR NOT NULL" +
+            ", COL5 INT" +
+            ", COL6 DOUBLE" +
+            ")";
+
+    DBSPCircuit compile(boolean incremental, String... statements) throws SqlParseException {
+        CompilerOptions options = new CompilerOptions();
+        options.optimizerOptions.incrementalize = incremental;
+        DBSPCompiler compiler = new DBSPCompiler(options).newCircuit("circuit");
+        compiler.compileStatement(ddl, null);
+        for (String statement: statements)
+            compiler.compileStatement(statement, null);
+        DBSPCircuit circuit = compiler.getResult();
+        CircuitOptimizer optimizer = new CircuitOptimizer(options.optimizerOptions);
+        circuit = optimizer.optimize(circuit);
+        // Make sure that the result can still be converted to Rust
+        String rust = ToRustVisitor.toRustString(circuit);
+        Assert.assertFalse(rust.isEmpty());
+        return circuit;
+    }
+
+    /**
+     * The operators of the circuit which are instances of the specified class.
+     */
+    static List<DBSPOperator> operators(DBSPCircuit circuit, Class<? extends DBSPOperator> clazz) {
+        return Linq.where(circuit.operators, o -> o.is(clazz));
+    }
+
+    @Test
+    public void cseTest() throws SqlParseException {
+        String query = "SELECT T.COL1 + 1, T.COL4 FROM T WHERE T.COL2 > 0";
+        DBSPCircuit single = this.compile(false, "CREATE VIEW V AS " + query);
+        DBSPCircuit twice = this.compile(false,
+                "CREATE VIEW V AS " + query,
+                "CREATE VIEW W AS " + query);
+        Assert.assertEquals(2, twice.outputOperators.size());
+        // Only the sink operators are duplicated
+        Assert.assertEquals(single.operators.size(), twice.operators.size());
+    }
+
+    @Test
+    public void cseIncrementalTest() throws SqlParseException {
+        String query = "SELECT T.COL1 + 1, T.COL4 FROM T WHERE T.COL2 > 0";
+        DBSPCircuit single = this.compile(true, "CREATE VIEW V AS " + query);
+        DBSPCircuit twice = this.compile(true,
+                "CREATE VIEW V AS " + query,
+                "CREATE VIEW W AS " + query);
+        Assert.assertEquals(single.operators.size(), twice.operators.size());
+    }
+
+    @Test
+    public void cseDifferentTest() throws SqlParseException {
+        DBSPCircuit single = this.compile(false,
+                "CREATE VIEW V AS SELECT T.COL1 + 1 FROM T");
+        DBSPCircuit different = this.compile(false,
+                "CREATE VIEW V AS SELECT T.COL1 + 1 FROM T",
+                "CREATE VIEW W AS SELECT T.COL1 + 2 FROM T");
+        // The two maps must not be merged
+        Assert.assertEquals(single.operators.size() + 1, different.operators.size());
+    }
+
+    @Test
+    public void cseAggregateTest() throws SqlParseException {
+        DBSPCircuit circuit = this.compile(false,
+                "CREATE VIEW V AS SELECT MIN(T.COL1) FROM T GROUP BY T.COL4",
+                "CREATE VIEW W AS SELECT MAX(T.COL1) FROM T GROUP BY T.COL4");
+        // The minimum and the maximum must not be merged
+        Assert.assertEquals(2, operators(circuit, DBSPMinMaxOperator.class).size());
+    }
+
+    /**
+     * Operators that filter their input; a filter may be fused with a following map.
+     */
+    static List<DBSPOperator> filters(DBSPCircuit circuit) {
+        return Linq.where(circuit.operators,
+                o -> o.is(DBSPFilterOperator.class) || o.is(DBSPFlatMapOperator.class));
+    }
+
+    @Test
+    public void filterPushdownJoinTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT T.COL1, X.COL2 FROM T JOIN T AS X " +
+                "ON T.COL1 = X.COL1 WHERE T.COL2 > 0";
+        for (boolean incremental: new boolean[] { false, true }) {
+            DBSPCircuit circuit = this.compile(incremental, query);
+            List<DBSPOperator> filters = filters(circuit);
+            Assert.assertEquals(1, filters.size());
+            // The filter reads directly from the table
+            Assert.assertTrue(filters.get(0).inputs.get(0).is(DBSPSourceOperator.class));
+        }
+    }
+
+    @Test
+    public void filterPushdownMapTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT * FROM (SELECT COL1 + 1 AS A, COL2 FROM T) WHERE A > 3";
+        DBSPCircuit circuit = this.compile(false, query);
+        List<DBSPOperator> filters = filters(circuit);
+        Assert.assertEquals(1, filters.size());
+        Assert.assertTrue(filters.get(0).inputs.get(0).is(DBSPSourceOperator.class));
+    }
+
+    @Test
+    public void filterNoPushdownTest() throws SqlParseException {
+        // The condition depends on both sides of the join
+        String query = "CREATE VIEW V AS SELECT T.COL1, X.COL2 FROM T JOIN T AS X " +
+                "ON T.COL1 = X.COL1 WHERE T.COL2 > X.COL2";
+        DBSPCircuit circuit = this.compile(false, query);
+        List<DBSPOperator> filters = filters(circuit);
+        Assert.assertEquals(1, filters.size());
+        Assert.assertTrue(filters.get(0).inputs.get(0).is(DBSPJoinOperator.class));
+    }
+
+    @Test
+    public void deadColumnsTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT T.COL1, X.COL2 FROM T JOIN T AS X " +
+                "ON T.COL1 = X.COL1 WHERE T.COL2 > X.COL2";
+        for (boolean incremental: new boolean[] { false, true }) {
+            DBSPCircuit circuit = this.compile(incremental, query);
+            List<DBSPOperator> indexes = operators(circuit, DBSPIndexOperator.class);
+            Assert.assertEquals(2, indexes.size());
+            // The left side keeps COL1 and COL2, the right side only COL2
+            Set<Integer> sizes = new HashSet<>();
+            for (DBSPOperator index: indexes)
+                sizes.add(index.to(DBSPIndexOperator.class).elementType.to(DBSPTypeTuple.class).size());
+            Assert.assertEquals(new HashSet<>(Arrays.asList(1, 2)), sizes);
+        }
+    }
+
+    @Test
+    public void fusionTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT COL1 + 1, COL4 FROM T WHERE COL2 > 0";
+        for (boolean incremental: new boolean[] { false, true }) {
+            DBSPCircuit circuit = this.compile(incremental, query);
+            // The filter and the map are fused into a single flat_map
+            Assert.assertTrue(operators(circuit, DBSPFilterOperator.class).isEmpty());
+            Assert.assertTrue(operators(circuit, DBSPMapOperator.class).isEmpty());
+            Assert.assertEquals(1, operators(circuit, DBSPFlatMapOperator.class).size());
+        }
+    }
+
+    @Test
+    public void fusionIndexTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT T.COL1, X.COL2 FROM T JOIN " +
+                "(SELECT COL1 + 1 AS COL1, COL2 FROM T) AS X ON T.COL1 = X.COL1";
+        DBSPCircuit circuit = this.compile(false, query);
+        // The map on the right side is fused with the index
+        Assert.assertEquals(1, operators(circuit, DBSPMapIndexOperator.class).size());
+    }
+
+    @Test
+    public void linearAggregateTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT COL1, COUNT(*), SUM(COL5), SUM(COL2), AVG(COL1), COUNT(COL6) " +
+                "FROM T GROUP BY COL1";
+        DBSPCircuit circuit = this.compile(true, query);
+        Assert.assertEquals(1, operators(circuit, DBSPLinearAggregateOperator.class).size());
+        Assert.assertTrue(operators(circuit, DBSPIncrementalAggregateOperator.class).isEmpty());
+    }
+
+    @Test
+    public void nonLinearAggregateTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT COL1, COUNT(*), MAX(COL2) FROM T GROUP BY COL1";
+        DBSPCircuit circuit = this.compile(true, query);
+        Assert.assertTrue(operators(circuit, DBSPLinearAggregateOperator.class).isEmpty());
+        Assert.assertEquals(1, operators(circuit, DBSPIncrementalAggregateOperator.class).size());
+    }
+
+    @Test
+    public void minMaxTest() throws SqlParseException {
+        for (String aggregate: new String[] { "MAX(COL2)", "MIN(COL5)", "MIN(COL4)" }) {
+            String query = "CREATE VIEW V AS SELECT COL1, " + aggregate + " FROM T GROUP BY COL1";
+            DBSPCircuit circuit = this.compile(true, query);
+            Assert.assertEquals(1, operators(circuit, DBSPIncrementalMinMaxOperator.class).size());
+            Assert.assertTrue(operators(circuit, DBSPIncrementalAggregateOperator.class).isEmpty());
+        }
+    }
+
+    @Test
+    public void topKTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT * FROM T ORDER BY COL2 DESC, COL1 DESC LIMIT 3 OFFSET 2";
+        DBSPCircuit circuit = this.compile(true, query);
+        List<DBSPOperator> topK = operators(circuit, DBSPTopKOperator.class);
+        Assert.assertEquals(1, topK.size());
+        Assert.assertEquals(5, topK.get(0).to(DBSPTopKOperator.class).k);
+        Assert.assertEquals(DBSPTopKOperator.Direction.Descending, topK.get(0).to(DBSPTopKOperator.class).direction);
+        // In an incremental circuit the top-k operator consumes the input changes directly
+        Assert.assertTrue(operators(circuit, DBSPDifferentialOperator.class).isEmpty());
+
+        // Mixed directions are sorted without a top-k operator
+        query = "CREATE VIEW V AS SELECT * FROM T ORDER BY COL2 DESC, COL1 LIMIT 3";
+        circuit = this.compile(true, query);
+        Assert.assertTrue(operators(circuit, DBSPTopKOperator.class).isEmpty());
+    }
+
+    @Test
+    public void semiJoinTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT * FROM T WHERE COL1 IN (SELECT COL1 FROM T WHERE COL2 > 0)";
+        DBSPCircuit circuit = this.compile(true, query);
+        Assert.assertEquals(1, operators(circuit, DBSPIncrementalSemiJoinOperator.class).size());
+        Assert.assertTrue(operators(circuit, DBSPIncrementalJoinOperator.class).isEmpty());
+    }
+
+    @Test
+    public void outerJoinTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT T1.COL3, T2.COL3 FROM T AS T1 FULL OUTER JOIN T AS T2 ON T1.COL1 = T2.COL5";
+        DBSPCircuit circuit = this.compile(true, query);
+        // The unmatched rows on each side are computed by an anti-join against the keys of the other side
+        Assert.assertEquals(2, operators(circuit, DBSPIncrementalAntiJoinOperator.class).size());
+        Assert.assertEquals(2, operators(circuit, DBSPIncrementalDistinctOperator.class).size());
+        Assert.assertTrue(operators(circuit, DBSPSubtractOperator.class).isEmpty());
+    }
+
+    @Test
+    public void rangeJoinTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT T1.COL3, T2.COL3 FROM T AS T1 JOIN T AS T2 " +
+                "ON T1.COL1 BETWEEN T2.COL5 AND T2.COL5 + 10 AND T1.COL2 > T2.COL2";
+        DBSPCircuit circuit = this.compile(true, query);
+        List<DBSPOperator> joins = operators(circuit, DBSPIncrementalRangeJoinOperator.class);
+        Assert.assertEquals(1, joins.size());
+        Assert.assertTrue(operators(circuit, DBSPIncrementalJoinOperator.class).isEmpty());
+        // The integrals are traces, and the delayed integral shares the state of the integral
+        String rust = ToRustVisitor.toRustString(circuit);
+        Assert.assertTrue(rust.contains(".integrate_trace().delay_trace()"));
+        Assert.assertFalse(rust.contains(".integrate()"));
+        Assert.assertFalse(rust.contains(".delay()"));
+    }
+
+    @Test
+    public void rangeJoinDecimalTest() throws SqlParseException {
+        // The value of a DECIMAL literal is not the offset
+        String query = "CREATE VIEW V AS SELECT T1.COL3, T2.COL3 FROM T AS T1 JOIN T AS T2 " +
+                "ON T1.COL1 >= T2.COL5 + 0.5 AND T1.COL1 <= T2.COL5 + 2.5";
+        for (boolean incremental: new boolean[] { false, true }) {
+            DBSPCircuit circuit = this.compile(incremental, query);
+            Assert.assertTrue(operators(circuit, DBSPRangeJoinOperator.class).isEmpty());
+            Assert.assertTrue(operators(circuit, DBSPIncrementalRangeJoinOperator.class).isEmpty());
+        }
+    }
+
+    @Test
+    public void rangeJoinMaxTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT T.COL3 FROM T JOIN (VALUES (2147483647)) AS V(X) " +
+                "ON V.X BETWEEN T.COL1 + 2147483627 AND T.COL1 + 2147483637";
+        DBSPCircuit circuit = this.compile(false, query);
+        List<DBSPOperator> joins = operators(circuit, DBSPRangeJoinOperator.class);
+        Assert.assertEquals(1, joins.size());
+        // The upper bound is inclusive, so it does not overflow
+        String range = CSEVisitor.structure(circuit, joins.get(0).to(DBSPRangeJoinOperator.class).rangeFunction);
+        Assert.assertTrue(range.contains("saturating_add(2147483637i32), true"));
+    }
+
+    @Test
+    public void primaryKeyDistinctTest() throws SqlParseException {
+        String table = "CREATE TABLE K (ID INT NOT NULL, NAME VARCHAR, PRIMARY KEY (ID))";
+        DBSPCircuit circuit = this.compile(false, table,
+                "CREATE VIEW V AS SELECT DISTINCT NAME, ID FROM K WHERE ID > 0");
+        Assert.assertTrue(operators(circuit, DBSPDistinctOperator.class).isEmpty());
+        // The keys of K are unique, so the semi-join does not need to compute a distinct
+        circuit = this.compile(false, table,
+                "CREATE VIEW V AS SELECT * FROM T WHERE COL1 IN (SELECT ID FROM K)");
+        Assert.assertEquals(1, operators(circuit, DBSPSemiJoinOperator.class).size());
+        Assert.assertTrue(operators(circuit, DBSPDistinctOperator.class).isEmpty());
+        circuit = this.compile(false, table,
+                "CREATE VIEW V AS SELECT DISTINCT NAME FROM K");
+        Assert.assertEquals(1, operators(circuit, DBSPDistinctOperator.class).size());
+    }
+
+    @Test
+    public void uniqueNullableDistinctTest() throws SqlParseException {
+        // UNIQUE allows several rows where A is NULL
+        DBSPCircuit circuit = this.compile(false,
+                "CREATE TABLE K (A INTEGER, B INTEGER NOT NULL, UNIQUE (A))",
+                "CREATE VIEW V AS SELECT DISTINCT A FROM K");
+        Assert.assertEquals(1, operators(circuit, DBSPDistinctOperator.class).size());
+        circuit = this.compile(false,
+                "CREATE TABLE K (A INTEGER NOT NULL, B INTEGER NOT NULL, UNIQUE (A))",
+                "CREATE VIEW V AS SELECT DISTINCT A FROM K");
+        Assert.assertTrue(operators(circuit, DBSPDistinctOperator.class).isEmpty());
+    }
+
+    @Test
+    public void statisticsDistinctTest() throws SqlParseException {
+        // Statistics are estimates and do not prove that a column is a key
+        CompilerOptions options = new CompilerOptions();
+        DBSPCompiler compiler = new DBSPCompiler(options).newCircuit("circuit");
+        compiler.setTableStatistics("K", new TableStatistics()
+                .setRowCount(100)
+                .setDistinctValues("A", 100));
+        compiler.compileStatement("CREATE TABLE K (A INTEGER NOT NULL, B INTEGER NOT NULL)", null);
+        compiler.compileStatement("CREATE VIEW V AS SELECT DISTINCT A FROM K", null);
+        DBSPCircuit circuit = new CircuitOptimizer(options.optimizerOptions).optimize(compiler.getResult());
+        Assert.assertEquals(1, operators(circuit, DBSPDistinctOperator.class).size());
+    }
+
+    @Test
+    public void deltaJoinTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT T1.COL3, T2.COL4, T3.COL2 FROM T AS T1 " +
+                "JOIN T AS T2 ON T1.COL1 = T2.COL5 " +
+                "JOIN T AS T3 ON T2.COL1 = T3.COL1";
+        DBSPCircuit circuit = this.compile(true, query);
+        // The three inputs are joined by a single operator without intermediate integrals
+        Assert.assertEquals(1, operators(circuit, DBSPIncrementalMultiJoinOperator.class).size());
+        Assert.assertTrue(operators(circuit, DBSPIncrementalJoinOperator.class).isEmpty());
+        // The non-incremental circuit uses binary joins
+        circuit = this.compile(false, query);
+        Assert.assertEquals(2, operators(circuit, DBSPJoinOperator.class).size());
+        // A condition involving more than two inputs is not flattened
+        circuit = this.compile(true, "CREATE VIEW V AS SELECT T1.COL3, T2.COL4, T3.COL2 FROM T AS T1 " +
+                "JOIN T AS T2 ON T1.COL1 = T2.COL5 " +
+                "JOIN T AS T3 ON T2.COL1 = T3.COL1 AND T1.COL4 = T3.COL4");
+        Assert.assertTrue(operators(circuit, DBSPIncrementalMultiJoinOperator.class).isEmpty());
+        Assert.assertEquals(2, operators(circuit, DBSPIncrementalJoinOperator.class).size());
+    }
+
+    @Test
+    public void deltaJoinTraceTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT T1.COL3, T2.COL4, T3.COL2 FROM T AS T1 " +
+                "JOIN T AS T2 ON T1.COL1 = T2.COL5 " +
+                "JOIN T AS T3 ON T2.COL1 = T3.COL1";
+        DBSPCircuit circuit = this.compile(true, query);
+        String rust = ToRustVisitor.toRustString(circuit);
+        // The delta queries keep their state in traces;
+        // the delayed traces share the state of the integrals
+        Assert.assertTrue(rust.contains(".integrate_trace();"));
+        Assert.assertTrue(rust.contains(".delay_trace();"));
+        Assert.assertFalse(rust.contains(".integrate()"));
+        Assert.assertFalse(rust.contains(".delay()"));
+    }
+
+    @Test
+    public void sharedIndexTest() throws SqlParseException {
+        // Both sides of a self-join are indexed in the same way and use the same columns
+        DBSPCircuit circuit = this.compile(true, "CREATE VIEW V AS SELECT T.COL3, X.COL3 FROM T JOIN T AS X ON T.COL1 = X.COL1");
+        Assert.assertEquals(1, operators(circuit, DBSPIndexOperator.class).size());
+        // Indexes which keep different columns are not shared
+        circuit = this.compile(true, "CREATE VIEW V AS SELECT T.COL3, X.COL4 FROM T JOIN T AS X ON T.COL1 = X.COL1");
+        Assert.assertEquals(2, operators(circuit, DBSPIndexOperator.class).size());
+        // Joins in different views, including a multi-way join, share the index of T on COL1;
+        // the multi-way join keeps whole rows, so the binary joins use all columns as well
+        circuit = this.compile(true,
+                "CREATE VIEW V AS SELECT * FROM T JOIN T AS X ON T.COL1 = X.COL1",
+                "CREATE VIEW W AS SELECT * FROM T JOIN T AS X ON T.COL1 = X.COL1",
+                "CREATE VIEW X AS SELECT T1.COL3, T2.COL4, T3.COL2 FROM T AS T1 " +
+                        "JOIN T AS T2 ON T1.COL1 = T2.COL1 " +
+                        "JOIN T AS T3 ON T2.COL1 = T3.COL1");
+        Assert.assertEquals(1, operators(circuit, DBSPIndexOperator.class).size());
+    }
+}
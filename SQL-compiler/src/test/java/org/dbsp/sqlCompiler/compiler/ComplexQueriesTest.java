@@ -74,9 +74,9 @@ public class ComplexQueriesTest extends BaseSQLTests {
         compiler.compileStatement(ddl, null);
         compiler.compileStatement(query, null);
         PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
-        writer.println(ToRustVisitor.generatePreamble());
         DBSPCircuit circuit = compiler.getResult();
         Assert.assertNotNull(circuit);
+        writer.println(ToRustVisitor.generatePreamble(circuit));
         writer.println(ToRustVisitor.toRustString(circuit));
         writer.close();
         Utilities.compileAndTestRust(rustDirectory, false);
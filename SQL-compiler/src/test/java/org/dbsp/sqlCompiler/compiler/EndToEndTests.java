@@ -7,8 +7,12 @@ import org.dbsp.sqlCompiler.ir.expression.literal.*;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeBool;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeDouble;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
+import org.dbsp.util.Linq;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Test end-to-end by compiling some DDL statements and view
  * queries by compiling them to rust and executing them
@@ -196,6 +200,46 @@ public class EndToEndTests extends BaseSQLTests {
                         new DBSPSomeExpression(new DBSPDoubleLiteral(1)))));
     }
 
+    @Test
+    public void rangeJoinTest() {
+        String query = "SELECT T1.COL3, T2.COL3 FROM T AS T1 JOIN T AS T2 ON T1.COL1 BETWEEN T2.COL5 AND T2.COL5 + 10";
+        this.testQuery(query, new DBSPZSetLiteral(
+                new DBSPTupleExpression(DBSPBoolLiteral.False, DBSPBoolLiteral.False),
+                new DBSPTupleExpression(DBSPBoolLiteral.True, DBSPBoolLiteral.False)));
+    }
+
+    @Test
+    public void rangeJoinDecimalTest() {
+        // The offsets are not integers, so this is not compiled to a range join
+        String query = "SELECT T1.COL3, T2.COL3 FROM T AS T1 JOIN T AS T2 " +
+                "ON T1.COL1 >= T2.COL5 + 8.5 AND T1.COL1 <= T2.COL5 + 9.5";
+        this.testQuery(query, new DBSPZSetLiteral(
+                new DBSPTupleExpression(DBSPBoolLiteral.False, DBSPBoolLiteral.False),
+                new DBSPTupleExpression(DBSPBoolLiteral.True, DBSPBoolLiteral.False)));
+    }
+
+    @Test
+    public void rangeJoinMaxTest() {
+        // The upper bound of the range is the largest INT value
+        String query = "SELECT T.COL3 FROM T JOIN (VALUES (2147483647)) AS V(X) " +
+                "ON V.X BETWEEN T.COL1 + 2147483627 AND T.COL1 + 2147483637";
+        this.testQuery(query, new DBSPZSetLiteral(
+                new DBSPTupleExpression(DBSPBoolLiteral.False),
+                new DBSPTupleExpression(DBSPBoolLiteral.True)));
+    }
+
+    @Test
+    public void threeWayJoinTest() {
+        String query = "SELECT T1.COL3, T2.COL3, T3.COL3 FROM T AS T1 " +
+                "JOIN T AS T2 ON T1.COL1 = T2.COL1 JOIN T AS T3 ON T2.COL4 = T3.COL4";
+        List<DBSPExpression> rows = new ArrayList<>();
+        for (DBSPBoolLiteral b1: Linq.list(DBSPBoolLiteral.False, DBSPBoolLiteral.True))
+            for (DBSPBoolLiteral b2: Linq.list(DBSPBoolLiteral.False, DBSPBoolLiteral.True))
+                for (DBSPBoolLiteral b3: Linq.list(DBSPBoolLiteral.False, DBSPBoolLiteral.True))
+                    rows.add(new DBSPTupleExpression(b1, b2, b3));
+        this.testQuery(query, new DBSPZSetLiteral(rows.toArray(new DBSPExpression[0])));
+    }
+
     @Test
     public void leftOuterJoinTest() {
         String query = "SELECT T1.COL3, T2.COL3 FROM T AS T1 LEFT JOIN T AS T2 ON T1.COL1 = T2.COL5";
@@ -496,4 +540,26 @@ public class EndToEndTests extends BaseSQLTests {
                 new DBSPVecLiteral(e1, e0)
         ));
     }
+
+    @Test
+    public void orderbyLimitTest() {
+        String query = "SELECT * FROM T ORDER BY T.COL2 LIMIT 1";
+        this.testQuery(query, new DBSPZSetLiteral(
+                new DBSPVecLiteral(e1)
+        ));
+    }
+
+    @Test
+    public void orderbyLimitOffsetTest() {
+        String query = "SELECT * FROM T ORDER BY T.COL2 DESC LIMIT 1 OFFSET 1";
+        this.testQuery(query, new DBSPZSetLiteral(
+                new DBSPVecLiteral(e1)
+        ));
+    }
+
+    @Test
+    public void inSubqueryTest() {
+        String query = "SELECT * FROM T WHERE T.COL2 IN (SELECT COL2 FROM T WHERE COL3)";
+        this.testQuery(query, new DBSPZSetLiteral(e0));
+    }
 }
@@ -26,7 +26,6 @@ package org.dbsp.sqlCompiler.compiler;
 import org.apache.calcite.sql.parser.SqlParseException;
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
 import org.dbsp.sqlCompiler.compiler.visitors.DBSPCompiler;
-import org.dbsp.sqlCompiler.compiler.visitors.ToRustVisitor;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPBoolLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPDoubleLiteral;
@@ -66,9 +65,7 @@ public class MultiViewTests extends BaseSQLTests {
         compiler.compileStatement(query2, null);
 
         PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
-        writer.println(ToRustVisitor.generatePreamble());
         DBSPCircuit circuit = compiler.getResult();
-        writer.println(ToRustVisitor.toRustString(circuit));
         InputOutputPair stream = new InputOutputPair(
                 new DBSPZSetLiteral[] { this.createInput() },
                 new DBSPZSetLiteral[] {
@@ -80,7 +77,7 @@ public class MultiViewTests extends BaseSQLTests {
                                 new DBSPTupleExpression(new DBSPDoubleLiteral(1.0)))
                 }
         );
-        this.createTester(writer, circuit, stream);
+        this.writeCircuitAndTester(writer, circuit, stream);
         writer.close();
         Utilities.compileAndTestRust(rustDirectory, false);
     }
@@ -100,9 +97,7 @@ public class MultiViewTests extends BaseSQLTests {
         compiler.compileStatement(query2, null);
 
         PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
-        writer.println(ToRustVisitor.generatePreamble());
         DBSPCircuit circuit = compiler.getResult();
-        writer.println(ToRustVisitor.toRustString(circuit));
         InputOutputPair stream = new InputOutputPair(
                 new DBSPZSetLiteral[] { this.createInput() },
                 new DBSPZSetLiteral[] {
@@ -114,7 +109,7 @@ public class MultiViewTests extends BaseSQLTests {
                                 new DBSPTupleExpression(DBSPBoolLiteral.False))
                 }
         );
-        this.createTester(writer, circuit, stream);
+        this.writeCircuitAndTester(writer, circuit, stream);
         writer.close();
         Utilities.compileAndTestRust(rustDirectory, false);
     }
@@ -134,9 +129,7 @@ public class MultiViewTests extends BaseSQLTests {
         compiler.compileStatement(query2, null);
 
         PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
-        writer.println(ToRustVisitor.generatePreamble());
         DBSPCircuit circuit = compiler.getResult();
-        writer.println(ToRustVisitor.toRustString(circuit));
         InputOutputPair stream = new InputOutputPair(
                 new DBSPZSetLiteral[] { this.createInput() },
                 new DBSPZSetLiteral[] {
@@ -147,7 +140,7 @@ public class MultiViewTests extends BaseSQLTests {
                                 new DBSPTupleExpression(new DBSPIntegerLiteral(10)))
                 }
         );
-        this.createTester(writer, circuit, stream);
+        this.writeCircuitAndTester(writer, circuit, stream);
         writer.close();
         Utilities.compileAndTestRust(rustDirectory, false);
     }
@@ -26,16 +26,23 @@ package org.dbsp.sqlCompiler.compiler;
 import org.apache.calcite.config.Lex;
 import org.apache.calcite.sql.parser.SqlParseException;
 import org.dbsp.sqlCompiler.Main;
+import org.dbsp.sqlCompiler.compiler.optimizer.CircuitOptimizer;
 import org.dbsp.sqlCompiler.compiler.visitors.DBSPCompiler;
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
+import org.dbsp.sqlCompiler.circuit.operator.DBSPOperator;
+import org.dbsp.sqlCompiler.circuit.SqlRuntimeLibrary;
 import org.dbsp.sqlCompiler.compiler.visitors.ToCsvVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.ToRustHandleVisitor;
 import org.dbsp.sqlCompiler.compiler.visitors.ToRustVisitor;
+import org.dbsp.sqlCompiler.compiler.visitors.UsedFunctionsVisitor;
 import org.dbsp.sqlCompiler.ir.DBSPFunction;
 import org.dbsp.sqlCompiler.ir.expression.DBSPApplyExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPBlockExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPBoolLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPIntegerLiteral;
+import org.dbsp.sqlCompiler.ir.expression.literal.DBSPLongLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPStrLiteral;
 import org.dbsp.sqlCompiler.ir.expression.literal.DBSPZSetLiteral;
 import org.dbsp.sqlCompiler.ir.statement.DBSPExpressionStatement;
@@ -43,15 +50,26 @@ import org.dbsp.sqlCompiler.ir.statement.DBSPLetStatement;
 import org.dbsp.sqlCompiler.ir.statement.DBSPStatement;
 import org.dbsp.sqlCompiler.ir.type.primitive.DBSPTypeInteger;
 import org.dbsp.util.IModule;
+import org.dbsp.util.IndentStream;
 import org.dbsp.util.Logger;
 import org.dbsp.util.Utilities;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.annotation.Nullable;
+
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 public class OtherTests extends BaseSQLTests implements IModule {
@@ -138,12 +156,116 @@ public class OtherTests extends BaseSQLTests implements IModule {
                 "FROM (SELECT int64_val FROM TestTable)\n", null);
         DBSPCircuit circuit = compiler.getResult();
         PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
-        writer.println(ToRustVisitor.generatePreamble());
+        writer.println(ToRustVisitor.generatePreamble(circuit));
         writer.println(ToRustVisitor.toRustString(circuit));
         writer.close();
         Utilities.compileAndTestRust(rustDirectory, false);
     }
 
+    /**
+     * Generate the Rust program for a circuit, including its preamble.
+     * The names of the operators and declarations contain unique ids,
+     * which differ between compilations; they are replaced by names
+     * numbered in the order in which they appear in the program.
+     */
+    static String toCanonicalRust(DBSPCircuit circuit) {
+        String rust = ToRustVisitor.generatePreamble(circuit) + ToRustVisitor.toRustString(circuit);
+        Set<String> names = new HashSet<>();
+        for (DBSPOperator operator: circuit.operators)
+            names.add(operator.getName());
+        names.addAll(circuit.declarations.keySet());
+        Map<String, String> renamed = new HashMap<>();
+        Matcher matcher = Pattern.compile("\\b[A-Za-z_][A-Za-z_0-9]*\\b").matcher(rust);
+        StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            String name = matcher.group();
+            if (names.contains(name))
+                name = renamed.computeIfAbsent(name, n -> "name" + renamed.size());
+            matcher.appendReplacement(result, name);
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    @Test
+    public void parallelCompileTest() throws SqlParseException {
+        String script = "CREATE TABLE T (COL1 INT NOT NULL, COL2 DOUBLE NOT NULL, COL3 VARCHAR);\n" +
+                "CREATE VIEW V AS SELECT COL1, COL3 FROM T WHERE COL2 > 0;\n" +
+                "CREATE VIEW W AS SELECT COL1, SUM(COL2) AS S FROM T GROUP BY COL1;\n" +
+                "CREATE VIEW X AS SELECT V.COL3, W.S FROM V JOIN W ON V.COL1 = W.COL1;\n" +
+                "CREATE VIEW Y AS SELECT DISTINCT COL3 FROM T;\n" +
+                "CREATE TABLE U (COL1 INT NOT NULL);\n" +
+                "CREATE VIEW Z AS SELECT X.COL3 FROM X JOIN U ON X.S = U.COL1";
+        List<String> programs = new ArrayList<>();
+        for (int threads: new int[] { 1, 4 }) {
+            CompilerOptions options = new CompilerOptions();
+            options.threads = threads;
+            DBSPCompiler compiler = new DBSPCompiler(options).newCircuit("circuit");
+            compiler.compileStatements(script);
+            DBSPCircuit circuit = compiler.getResult();
+            Assert.assertEquals(5, circuit.outputOperators.size());
+            programs.add(toCanonicalRust(circuit));
+        }
+        Assert.assertEquals(programs.get(0), programs.get(1));
+    }
+
+    /**
+     * Compile a script using a compilation cache.
+     * @return The generated Rust, with canonical names for the operators.
+     */
+    String compileWithCache(String script, String cacheDirectory) throws SqlParseException {
+        CompilerOptions options = new CompilerOptions();
+        options.ioOptions.cacheDirectory = cacheDirectory;
+        DBSPCompiler compiler = new DBSPCompiler(options).newCircuit("circuit");
+        compiler.compileStatements(script);
+        return toCanonicalRust(compiler.getResult());
+    }
+
+    @Test
+    public void compilationCacheTest() throws SqlParseException, IOException {
+        String tables = "CREATE TABLE T (COL1 INT NOT NULL, COL2 DOUBLE NOT NULL, COL3 VARCHAR);\n";
+        String views = "CREATE VIEW W AS SELECT COL1, SUM(COL2) AS S FROM T GROUP BY COL1;\n" +
+                "CREATE VIEW X AS SELECT V.COL3, W.S FROM V JOIN W ON V.COL1 = W.COL1;\n" +
+                "CREATE VIEW Y AS SELECT COL1 / 2, COL2 / 2 FROM T";
+        String script = tables + "CREATE VIEW V AS SELECT COL1, COL3 FROM T WHERE COL2 > 0;\n" + views;
+        File directory = Files.createTempDirectory("cache").toFile();
+        String cacheDirectory = directory.getPath();
+        StringBuilder builder = new StringBuilder();
+        Appendable save = Logger.instance.setDebugStream(builder);
+        try {
+            String uncached = this.compileWithCache(script, cacheDirectory);
+            File[] entries = directory.listFiles((d, name) -> name.endsWith(".plan.json"));
+            Assert.assertNotNull(entries);
+            // The plan of Y uses a custom division operator, which cannot be stored
+            Assert.assertEquals(3, entries.length);
+
+            Logger.instance.setDebugLevel("CompilationCache", 1);
+            String cached = this.compileWithCache(script, cacheDirectory);
+            Assert.assertEquals(uncached, cached);
+            int hits = builder.toString().split("Cache hit", -1).length - 1;
+            Assert.assertEquals(3, hits);
+
+            // Changing V does not change its schema, so X is still found in the cache
+            builder.setLength(0);
+            this.compileWithCache(tables + "CREATE VIEW V AS SELECT COL1, COL3 FROM T WHERE COL2 < 0;\n" + views, cacheDirectory);
+            hits = builder.toString().split("Cache hit", -1).length - 1;
+            Assert.assertEquals(2, hits);
+        } finally {
+            Logger.instance.setDebugStream(save);
+            Logger.instance.setDebugLevel("CompilationCache", 0);
+            deleteRecursively(directory);
+        }
+    }
+
+    static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children)
+                deleteRecursively(child);
+        }
+        Files.delete(file.toPath());
+    }
+
     @Test
     public void loggerTest() {
         StringBuilder builder = new StringBuilder();
@@ -162,6 +284,112 @@ public class OtherTests extends BaseSQLTests implements IModule {
         Logger.instance.setDebugLevel(this.getModule(), 0);
     }
 
+    @Test
+    public void lazyLoggerTest() {
+        StringBuilder builder = new StringBuilder();
+        Appendable save = Logger.instance.setDebugStream(builder);
+        Logger.instance.setDebugLevel(this.getModule(), 1);
+        Logger.instance.log(this, 1, stream -> stream
+                .append("Logging one statement")
+                .newline());
+        // The message is not even built if it is not logged
+        Logger.instance.log(this, 2, stream -> Assert.fail());
+        Logger.instance.setDebugStream(save);
+        Assert.assertEquals("Logging one statement\n", builder.toString());
+        Logger.instance.setDebugLevel(this.getModule(), 0);
+    }
+
+    /**
+     * An output stream which checks that the messages written by
+     * different threads are not interleaved.
+     */
+    static class ThreadCheckingStream implements Appendable {
+        @Nullable
+        Thread last = null;
+        boolean atLineStart = true;
+        boolean interleaved = false;
+        int lines = 0;
+
+        synchronized void check(CharSequence csq) {
+            if (csq.length() == 0)
+                return;
+            Thread current = Thread.currentThread();
+            if (current != this.last && !this.atLineStart)
+                this.interleaved = true;
+            this.last = current;
+            this.atLineStart = csq.charAt(csq.length() - 1) == '\n';
+            if (this.atLineStart)
+                this.lines++;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            this.check(csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            return this.append(csq.subSequence(start, end));
+        }
+
+        @Override
+        public Appendable append(char c) {
+            return this.append(String.valueOf(c));
+        }
+    }
+
+    @Test
+    public void parallelLoggerTest() throws SqlParseException {
+        StringBuilder script = new StringBuilder("CREATE TABLE T (COL1 INT NOT NULL, COL2 DOUBLE NOT NULL, COL3 VARCHAR);\n");
+        for (int i = 0; i < 20; i++)
+            script.append("CREATE VIEW V").append(i)
+                    .append(" AS SELECT COL1, COL3 FROM T WHERE COL2 > ").append(i).append(";\n");
+        ThreadCheckingStream stream = new ThreadCheckingStream();
+        Appendable save = Logger.instance.setDebugStream(stream);
+        // The plans of the views are logged by the threads which compile them
+        Logger.instance.setDebugLevel("CalciteCompiler", 3);
+        try {
+            CompilerOptions options = new CompilerOptions();
+            options.threads = 4;
+            new DBSPCompiler(options).newCircuit("circuit").compileStatements(script.toString());
+        } finally {
+            Logger.instance.setDebugStream(save);
+            Logger.instance.setDebugLevel("CalciteCompiler", 0);
+        }
+        Assert.assertTrue(stream.lines > 0);
+        Assert.assertFalse(stream.interleaved);
+    }
+
+    @Test
+    public void indentStreamTest() {
+        String text = "fn f() {\n  let x = 0;\n\n}\n";
+        StringBuilder bulk = new StringBuilder();
+        IndentStream stream = new IndentStream(bulk);
+        stream.append("{").increase().append(text).decrease().append("}");
+        StringBuilder chars = new StringBuilder();
+        IndentStream charStream = new IndentStream(chars);
+        charStream.append("{").increase();
+        for (char c: text.toCharArray())
+            charStream.appendChar(c);
+        charStream.decrease().append("}");
+        Assert.assertEquals(chars.toString(), bulk.toString());
+        Assert.assertEquals(bulk.length(), stream.getCharactersWritten());
+    }
+
+    @Test
+    public void streamingRustTest() throws SqlParseException {
+        DBSPCircuit circuit = this.queryToCircuit("CREATE VIEW V AS SELECT COL1, COL2 + 1 FROM T WHERE COL3");
+        StringWriter writer = new StringWriter();
+        IndentStream stream = new IndentStream(writer);
+        ToRustHandleVisitor.generatePreamble(stream, circuit);
+        ToRustHandleVisitor.toRust(stream, circuit, "circuit");
+        String expected = ToRustHandleVisitor.generatePreamble(circuit) +
+                ToRustHandleVisitor.toRustString(circuit, "circuit");
+        Assert.assertEquals(expected, writer.toString());
+        Assert.assertEquals(expected.length(), stream.getCharactersWritten());
+    }
+
     @Test
     public void toCsvTest() {
         DBSPZSetLiteral s = new DBSPZSetLiteral(BaseSQLTests.e0, BaseSQLTests.e1);
@@ -195,7 +423,7 @@ public class OtherTests extends BaseSQLTests implements IModule {
                 .addAnnotation("#[test]");
 
         PrintWriter rustWriter = new PrintWriter(BaseSQLTests.testFilePath, "UTF-8");
-        rustWriter.println(ToRustVisitor.generatePreamble());
+        rustWriter.println(ToRustVisitor.generatePreamble(tester));
         rustWriter.println(ToRustVisitor.toRustString(tester));
         rustWriter.close();
 
@@ -226,7 +454,7 @@ public class OtherTests extends BaseSQLTests implements IModule {
                 .addAnnotation("#[test]");
 
         PrintWriter rustWriter = new PrintWriter(BaseSQLTests.testFilePath, "UTF-8");
-        rustWriter.println(ToRustVisitor.generatePreamble());
+        rustWriter.println(ToRustVisitor.generatePreamble(tester));
         rustWriter.println(ToRustVisitor.toRustString(tester));
         rustWriter.close();
 
@@ -235,6 +463,218 @@ public class OtherTests extends BaseSQLTests implements IModule {
         Assert.assertTrue(success);
     }
 
+    @Test
+    public void profileTest() throws IOException, SqlParseException {
+        File input = File.createTempFile("script", ".sql");
+        File output = File.createTempFile("circuit", ".rs");
+        File profile = File.createTempFile("profile", ".json");
+        try (PrintWriter script = new PrintWriter(input, "UTF-8")) {
+            script.println("CREATE TABLE T (COL1 INT NOT NULL, COL2 DOUBLE NOT NULL);\n" +
+                    "CREATE VIEW V AS SELECT COL1, SUM(COL2) FROM T WHERE COL2 > 0 GROUP BY COL1");
+        }
+        Main.execute("-o", output.getPath(), "--profile", profile.getPath(), input.getPath());
+        String json = new String(Files.readAllBytes(profile.toPath()), StandardCharsets.UTF_8);
+        for (String phase: new String[] { "parse", "validate", "SqlToRel", "decorrelate", "HepProgram stage 0",
+                "CalciteToDBSPCompiler", "CSEVisitor", "DeadCodeVisitor", "Rust emission" })
+            Assert.assertTrue(phase, json.contains("\"name\": \"" + phase + "\""));
+        Assert.assertTrue(json.contains("\"wallNanos\""));
+        Assert.assertTrue(json.contains("\"operators\""));
+        Assert.assertTrue(input.delete());
+        Assert.assertTrue(output.delete());
+        Assert.assertTrue(profile.delete());
+    }
+
+    @Test
+    public void splitViewsTest() throws IOException, SqlParseException, InterruptedException {
+        String script = "CREATE TABLE T (COL1 INT NOT NULL, COL2 DOUBLE NOT NULL);\n" +
+                "CREATE TABLE U (COL1 INT NOT NULL);\n" +
+                "CREATE VIEW V AS SELECT COL1, COL2 + 1 AS X FROM T WHERE COL2 > 0;\n" +
+                "CREATE VIEW W AS SELECT COL1, SUM(X) FROM V GROUP BY COL1;\n" +
+                "CREATE VIEW Z AS SELECT DISTINCT V.COL1 FROM V JOIN U ON V.COL1 = U.COL1";
+        String inputScript = rustDirectory + "/script.sql";
+        PrintWriter writer = new PrintWriter(inputScript, "UTF-8");
+        writer.println(script);
+        writer.close();
+        Main.execute("--split", "-o", BaseSQLTests.testFilePath, inputScript);
+        String rust = new String(Files.readAllBytes(new File(BaseSQLTests.testFilePath).toPath()), StandardCharsets.UTF_8);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(rust.contains("mod circuit_view" + i + " {"));
+            Assert.assertTrue(rust.contains("circuit_view" + i + "::build(circuit"));
+        }
+        Assert.assertFalse(rust.contains("circuit_rest"));
+        Utilities.compileAndTestRust(BaseSQLTests.rustDirectory, false);
+        Assert.assertTrue(new File(inputScript).delete());
+    }
+
+    @Test
+    public void tupleAlgebraTest() throws SqlParseException {
+        String query = "CREATE VIEW V AS SELECT COL1, SUM(COL2) FROM T GROUP BY COL1";
+        DBSPCircuit circuit = this.queryToCircuit(query);
+        String rust = ToRustVisitor.generatePreamble(circuit) + ToRustVisitor.toRustString(circuit);
+        Assert.assertFalse(rust.contains("declare_tuple_algebra! {"));
+        Assert.assertFalse(rust.contains("let linear"));
+
+        CompilerOptions.Optimizer options = new CompilerOptions.Optimizer();
+        options.incrementalize = true;
+        circuit = new CircuitOptimizer(options).optimize(this.queryToCircuit(query));
+        rust = ToRustVisitor.generatePreamble(circuit) + ToRustVisitor.toRustString(circuit);
+        Assert.assertTrue(rust.contains("declare_tuple_algebra! {"));
+        Assert.assertTrue(rust.contains(".aggregate_linear("));
+    }
+
+    @Test
+    public void noInputCopyTest() throws SqlParseException {
+        DBSPCircuit circuit = this.queryToCircuit("CREATE VIEW V AS SELECT COL1 FROM T");
+        String rust = ToRustVisitor.toRustString(circuit);
+        Assert.assertTrue(rust.contains("Generator::new(move || std::mem::take(&mut *T.borrow_mut()))"));
+        Assert.assertTrue(rust.contains("std::mem::take(&mut *V_external.borrow_mut())"));
+        Assert.assertFalse(rust.contains(".borrow().clone()"));
+    }
+
+    @Test
+    public void bulkInputTest() throws SqlParseException {
+        DBSPCircuit circuit = this.queryToCircuit("CREATE VIEW V AS SELECT COL1 FROM T");
+        String rust = ToRustHandleVisitor.toRustString(circuit, "circuit");
+        Assert.assertTrue(rust.contains("pub struct circuit_inputs {"));
+        Assert.assertTrue(rust.contains("pub fn append_T(&self, weight: Weight, c0: Vec<i32>"));
+        Assert.assertTrue(rust.contains("self.T.append(&mut batch);"));
+        Assert.assertTrue(rust.contains("pub fn circuit_with_inputs(workers: usize) -> (DBSPHandle, Catalog, circuit_inputs)"));
+        Assert.assertTrue(rust.contains("pub fn circuit(workers: usize) -> (DBSPHandle, Catalog)"));
+    }
+
+    @Test
+    public void bulkInputRustTest() throws SqlParseException, IOException, InterruptedException {
+        // U is declared after V, and T has a single column
+        DBSPCompiler compiler = new DBSPCompiler(options).newCircuit("circuit");
+        compiler.compileStatements("CREATE TABLE T (COL1 INT NOT NULL);\n" +
+                "CREATE VIEW V AS SELECT COL1 FROM T;\n" +
+                "CREATE TABLE U (COL1 INT NOT NULL, COL2 VARCHAR);\n" +
+                "CREATE VIEW W AS SELECT COL2 FROM U WHERE COL1 > 0");
+        DBSPCircuit circuit = compiler.getResult();
+        // The handle API is not expressible in the IR, so the test is written in Rust
+        String tester = "#[test]\n" +
+                "pub fn test() {\n" +
+                "    let (mut circuit, catalog, inputs) = circuit_with_inputs(2);\n" +
+                "    let v = catalog.output_batch_handle(\"V\").unwrap();\n" +
+                "    let w = catalog.output_batch_handle(\"W\").unwrap();\n" +
+                "    inputs.append_T(1, vec![1, 2, 3]);\n" +
+                "    inputs.append_U(1, vec![1, 0], vec![Some(\"a\".to_string()), None]);\n" +
+                "    circuit.step().unwrap();\n" +
+                "    assert_eq!(v.consolidate().key_count(), 3);\n" +
+                "    assert_eq!(w.consolidate().key_count(), 1);\n" +
+                "    // The row 2 is cancelled, the row 4 is kept with a negative weight\n" +
+                "    inputs.append_T(1, vec![1, 2]);\n" +
+                "    inputs.append_T(-1, vec![2, 4]);\n" +
+                "    circuit.step().unwrap();\n" +
+                "    assert_eq!(v.consolidate().key_count(), 2);\n" +
+                "    assert_eq!(w.consolidate().key_count(), 0);\n" +
+                "}\n";
+        PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
+        writer.println(ToRustHandleVisitor.generatePreamble(circuit));
+        writer.println(ToRustHandleVisitor.toRustString(circuit, "circuit"));
+        writer.println(tester);
+        writer.close();
+        Utilities.compileAndTestRust(rustDirectory, false);
+    }
+
+    @Test
+    public void multiWorkerTest() throws SqlParseException, IOException, InterruptedException {
+        DBSPCompiler compiler = this.compileDef();
+        compiler.compileStatement("CREATE VIEW V AS SELECT DISTINCT T.COL1, SUM(X.COL2) FROM T JOIN T AS X " +
+                "ON T.COL1 = X.COL5 GROUP BY T.COL1", null);
+        DBSPCircuit circuit = compiler.getResult();
+        StringBuilder builder = new StringBuilder();
+        circuit.accept(new ToRustVisitor(new IndentStream(builder)).setMultiWorker(true));
+        String rust = builder.toString();
+        Assert.assertTrue(rust.contains("fn circuit(workers: usize) -> impl FnMut("));
+        Assert.assertTrue(rust.contains("Runtime::init_circuit(workers, |circuit| {"));
+        Assert.assertTrue(rust.contains("circuit.add_input_stream::<"));
+        Assert.assertTrue(rust.contains("V_handle.consolidate()"));
+        // DBSP partitions the inputs of joins and aggregates itself
+        Assert.assertFalse(rust.contains(".shard()"));
+        Assert.assertFalse(rust.contains("RefCell"));
+        PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
+        writer.println(ToRustVisitor.generatePreamble(circuit));
+        writer.println(rust);
+        writer.close();
+        Utilities.compileAndTestRust(rustDirectory, false);
+    }
+
+    @Test
+    public void multiWorkerConstantTest() throws SqlParseException, IOException, InterruptedException {
+        // The default row of a scalar aggregate and the rows of VALUES are produced by a single worker
+        String[] queries = {
+                "CREATE VIEW V AS SELECT COUNT(*) FROM T",
+                "CREATE VIEW V AS SELECT * FROM (VALUES (1), (2)) AS V(X)"
+        };
+        DBSPZSetLiteral[] outputs = {
+                new DBSPZSetLiteral(new DBSPTupleExpression(new DBSPLongLiteral(0))),
+                new DBSPZSetLiteral(
+                        new DBSPTupleExpression(new DBSPIntegerLiteral(1)),
+                        new DBSPTupleExpression(new DBSPIntegerLiteral(2)))
+        };
+        for (int i = 0; i < queries.length; i++) {
+            DBSPCircuit circuit = this.compileQuery(queries[i]).getResult();
+            StringBuilder builder = new StringBuilder();
+            circuit.accept(new ToRustVisitor(new IndentStream(builder)).setMultiWorker(true));
+            String rust = builder.toString();
+            Assert.assertTrue(rust.contains("if Runtime::worker_index() == 0 { "));
+            InputOutputPair stream = new InputOutputPair(empty, outputs[i]);
+            DBSPFunction tester = createTesterCode(circuit, 4, stream);
+            PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
+            writer.println(ToRustVisitor.generatePreamble(circuit, tester));
+            writer.println(rust);
+            writer.println(ToRustVisitor.toRustString(tester));
+            writer.close();
+            Utilities.compileAndTestRust(rustDirectory, false);
+        }
+    }
+
+    @Test
+    public void multiWorkerRangeJoinTest() throws SqlParseException, IOException, InterruptedException {
+        for (boolean incremental: new boolean[] { false, true }) {
+            DBSPCompiler compiler = this.compileQuery("CREATE VIEW V AS SELECT T1.COL3, T2.COL3 FROM T AS T1 " +
+                    "JOIN T AS T2 ON T1.COL1 BETWEEN T2.COL5 AND T2.COL5 + 10");
+            CompilerOptions.Optimizer optimizerOptions = new CompilerOptions.Optimizer();
+            optimizerOptions.incrementalize = incremental;
+            DBSPCircuit circuit = new CircuitOptimizer(optimizerOptions).optimize(compiler.getResult());
+            StringBuilder builder = new StringBuilder();
+            circuit.accept(new ToRustVisitor(new IndentStream(builder)).setMultiWorker(true));
+            String rust = builder.toString();
+            // Matching keys may be on different workers, so both inputs are sent to worker 0
+            int gathered = rust.split("\\.gather\\(0\\);", -1).length - 1;
+            Assert.assertEquals(2, gathered);
+            InputOutputPair stream = new InputOutputPair(this.createInput(),
+                    new DBSPZSetLiteral(
+                            new DBSPTupleExpression(DBSPBoolLiteral.False, DBSPBoolLiteral.False),
+                            new DBSPTupleExpression(DBSPBoolLiteral.True, DBSPBoolLiteral.False)));
+            DBSPFunction tester = createTesterCode(circuit, 4, stream);
+            PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
+            writer.println(ToRustVisitor.generatePreamble(circuit, tester));
+            writer.println(rust);
+            writer.println(ToRustVisitor.toRustString(tester));
+            writer.close();
+            Utilities.compileAndTestRust(rustDirectory, false);
+        }
+    }
+
+    @Test
+    public void usedFunctionsTest() throws IOException, SqlParseException {
+        DBSPCircuit circuit = this.queryToCircuit("CREATE VIEW V AS SELECT COL1 + 1 FROM T WHERE COL2 > 0");
+        Set<String> used = UsedFunctionsVisitor.getUsedFunctions(circuit);
+        Assert.assertTrue(used.contains("gt_d_d"));
+        File full = File.createTempFile("genlib", ".rs");
+        File reduced = File.createTempFile("genlib", ".rs");
+        SqlRuntimeLibrary.instance.writeSqlLibrary(full.getPath());
+        SqlRuntimeLibrary.instance.writeSqlLibrary(reduced.getPath(), used);
+        String library = new String(Files.readAllBytes(reduced.toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(library.contains("fn gt_d_d("));
+        Assert.assertFalse(library.contains("fn lt_d_d("));
+        Assert.assertTrue(reduced.length() < full.length());
+        Assert.assertTrue(full.delete());
+        Assert.assertTrue(reduced.delete());
+    }
+
     @Test
     public void testCompiler() throws IOException, SqlParseException, InterruptedException {
         String[] statements = new String[]{
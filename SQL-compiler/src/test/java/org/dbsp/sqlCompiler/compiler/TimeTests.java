@@ -26,7 +26,6 @@ package org.dbsp.sqlCompiler.compiler;
 import org.apache.calcite.sql.parser.SqlParseException;
 import org.dbsp.sqlCompiler.circuit.DBSPCircuit;
 import org.dbsp.sqlCompiler.compiler.visitors.DBSPCompiler;
-import org.dbsp.sqlCompiler.compiler.visitors.ToRustVisitor;
 import org.dbsp.sqlCompiler.ir.expression.DBSPExpression;
 import org.dbsp.sqlCompiler.ir.expression.DBSPTupleExpression;
 import org.dbsp.sqlCompiler.ir.expression.literal.*;
@@ -53,12 +52,10 @@ public class TimeTests extends BaseSQLTests {
             query = "CREATE VIEW V AS " + query;
             DBSPCompiler compiler = this.compileQuery(query);
             PrintWriter writer = new PrintWriter(testFilePath, "UTF-8");
-            writer.println(ToRustVisitor.generatePreamble());
             DBSPCircuit circuit = compiler.getResult();
-            writer.println(ToRustVisitor.toRustString(circuit));
             DBSPZSetLiteral expectedOutput = new DBSPZSetLiteral(new DBSPTupleExpression(fields));
             InputOutputPair streams = new InputOutputPair(this.createInput(), expectedOutput);
-            this.createTester(writer, circuit, streams);
+            this.writeCircuitAndTester(writer, circuit, streams);
             writer.close();
             Utilities.compileAndTestRust(rustDirectory, false);
         } catch (Exception ex) {
@@ -59,3 +59,77 @@ macro_rules! declare_tuples {
         )*
     };
 }
+
+/// Implements the algebraic traits required to use tuples as weights,
+/// e.g., as accumulators of linear aggregates.
+/// All operations are applied pointwise.
+/// Each element is given with its index, e.g. `Tuple2<0: T0, 1: T1>`.
+#[macro_export]
+macro_rules! declare_tuple_algebra {
+    (
+        $(
+            $tuple_name:ident<$($index:tt: $element:ident),* $(,)?>
+        ),*
+        $(,)?
+    ) => {
+        $(
+            impl<$($element: ::dbsp::algebra::HasZero),*> ::dbsp::algebra::HasZero for $tuple_name<$($element,)*> {
+                fn zero() -> Self {
+                    Self($($element::zero(),)*)
+                }
+
+                fn is_zero(&self) -> bool {
+                    true $(&& self.$index.is_zero())*
+                }
+            }
+
+            impl<$($element: ::std::ops::Add<Output = $element>),*> ::std::ops::Add for $tuple_name<$($element,)*> {
+                type Output = Self;
+
+                fn add(self, other: Self) -> Self {
+                    Self($(self.$index + other.$index,)*)
+                }
+            }
+
+            impl<$($element: ::std::ops::AddAssign),*> ::std::ops::AddAssign for $tuple_name<$($element,)*> {
+                fn add_assign(&mut self, other: Self) {
+                    $(self.$index += other.$index;)*
+                }
+            }
+
+            impl<$($element: ::std::ops::Neg<Output = $element>),*> ::std::ops::Neg for $tuple_name<$($element,)*> {
+                type Output = Self;
+
+                fn neg(self) -> Self {
+                    Self($(-self.$index,)*)
+                }
+            }
+
+            impl<$($element: ::dbsp::algebra::AddByRef),*> ::dbsp::algebra::AddByRef for $tuple_name<$($element,)*> {
+                fn add_by_ref(&self, other: &Self) -> Self {
+                    Self($(self.$index.add_by_ref(&other.$index),)*)
+                }
+            }
+
+            impl<$($element: ::dbsp::algebra::AddAssignByRef),*> ::dbsp::algebra::AddAssignByRef for $tuple_name<$($element,)*> {
+                fn add_assign_by_ref(&mut self, other: &Self) {
+                    $(self.$index.add_assign_by_ref(&other.$index);)*
+                }
+            }
+
+            impl<$($element: ::dbsp::algebra::NegByRef),*> ::dbsp::algebra::NegByRef for $tuple_name<$($element,)*> {
+                fn neg_by_ref(&self) -> Self {
+                    Self($(self.$index.neg_by_ref(),)*)
+                }
+            }
+
+            impl<W, $($element: ::dbsp::algebra::MulByRef<W, Output = $element>),*> ::dbsp::algebra::MulByRef<W> for $tuple_name<$($element,)*> {
+                type Output = Self;
+
+                fn mul_by_ref(&self, w: &W) -> Self {
+                    Self($(self.$index.mul_by_ref(w),)*)
+                }
+            }
+        )*
+    };
+}